@@ -49,10 +49,19 @@ public class BuilderBenchmark {
     private final ScalingVanillaNoEntryObject vanillaNoEntryObject = new ScalingVanillaNoEntryObject();
 
     private IBuilder builder;
+    // shaped like the terrain builder in CustomTerrainGenerator
+    private IBuilder composite;
+    private final double[] grid = new double[5 * 3 * 5];
 
     @Setup
     public void setup() {
         this.builder = (x, y, z) -> y;
+        IBuilder noise = (x, y, z) -> x * 0.01 + y * 0.02 + z * 0.03;
+        this.composite = noise.mul(2).add(1).clamp(0, 1)
+                .lerp(noise.mul(3).add(-1), noise.mul(5).add(2))
+                .add(noise.mulIf(IBuilder.NEGATIVE, -0.3).mul(3).sub(2).clamp(-2, 1))
+                .mul(noise.mul(0.5).add(1)).add(noise.mul(64))
+                .sub((x, y, z) -> y);
     }
 
     @Benchmark
@@ -79,6 +88,23 @@ public class BuilderBenchmark {
                 (x, y, z, dx, dy, dz, v) -> bh.consume(x + y + z + dx + dy + dz + v));
     }
 
+    @Benchmark
+    public void compositePoints(Blackhole bh) {
+        for (int x = 0; x < 5; x++) {
+            for (int y = 0; y < 3; y++) {
+                for (int z = 0; z < 5; z++) {
+                    bh.consume(composite.get(x * 4, y * 8, z * 4));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void compositeGrid(Blackhole bh) {
+        composite.getGrid(grid, 0, 0, 0, 5, 3, 5, 4, 8, 4);
+        bh.consume(grid);
+    }
+
     @Benchmark
     public void unscaled(Blackhole bh) {
         iterator(builder, new Vec3i(0, 0, 0), new Vec3i(16, 16, 16))
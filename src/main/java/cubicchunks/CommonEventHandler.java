@@ -114,6 +114,14 @@ public class CommonEventHandler {
         }
     }
 
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload evt) {
+        if (evt.getWorld().isRemote || !((ICubicWorld) evt.getWorld()).isCubicWorld()) {
+            return;
+        }
+        ((ICubicWorldServer) evt.getWorld()).getCubeCache().getCubeGenerator().onWorldUnload();
+    }
+
     @SubscribeEvent
     public void onWorldServerTick(TickEvent.WorldTickEvent evt) {
         ICubicWorldServer world = (ICubicWorldServer) evt.world;
@@ -104,6 +104,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -340,6 +341,10 @@ public class CubicChunks {
         return new ResourceLocation(MODID, location);
     }
 
+    public static Config getConfig() {
+        return config;
+    }
+
     public static void addConfigChangeListener(IConfigUpdateListener listener) {
         configChangeListeners.add(listener);
         //notify if the config is already there
@@ -365,10 +370,37 @@ public class CubicChunks {
 
         public static enum IntOptions {
             MAX_GENERATED_CUBES_PER_TICK(1, Integer.MAX_VALUE, 49 * 16, "The number of cubic chunks to generate per tick."),
+            MAX_POPULATION_MILLIS_PER_TICK(1, 1000, 20,
+                    "The maximum time in milliseconds spent populating and lighting newly generated cubes in one tick. Cubes that don't"
+                            + " fit are done in the next ticks."),
             VERTICAL_CUBE_LOAD_DISTANCE(2, 32, 8, "Similar to Minecraft's view distance, only for vertical chunks."),
             CHUNK_G_C_INTERVAL(1, Integer.MAX_VALUE, 20 * 10,
                     "Chunk garbage collector update interval. A more lower it is - a more CPU load it will generate. "
-                            + "A more high it is - a more memory will be used to store cubes between launches.");
+                            + "A more high it is - a more memory will be used to store cubes between launches."),
+            CUBE_GENERATION_THREADS(0, 64, Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                    "The number of threads used to generate cube terrain outside of the server thread. Only used by world generators that "
+                            + "support it. Set to 0 to always generate cubes on the server thread. Requires restart."),
+            MAX_ASYNC_GENERATED_CUBES_PER_TICK(1, Integer.MAX_VALUE, 256,
+                    "The maximum number of cubes generated outside of the server thread that will be added to the world in one tick."),
+            STORAGE_CODEC(0, 2, 0,
+                    "How cubes and columns are encoded on disk. 0 = GZIP (readable by older versions), 1 = LZ4 (faster, larger files), "
+                            + "2 = uncompressed. Existing data can always be read, the codec is only used for newly saved data and "
+                            + "is chosen when a world is loaded."),
+            PREFETCH_LOOKAHEAD_TICKS(0, 200, 40,
+                    "How far ahead (in ticks) the position of fast moving players is predicted to start loading cubes before they become "
+                            + "visible. Set to 0 to disable."),
+            CUBE_SELECTOR(0, 2, 0,
+                    "Which cubes around players are loaded and sent to them. 0 = a cuboid, 1 = an ellipsoid (about half as many cubes), "
+                            + "2 = an ellipsoid without cubes deep below the surface while the player is above ground. Can be set per "
+                            + "dimension with cubeSelectorPerDimension. Requires reloading the world."),
+            MAX_CUBES_SENT_PER_TICK(1, Integer.MAX_VALUE, 81 * 8,
+                    "The maximum number of cubes sent to all players together in one tick. Players take turns, so that each of them "
+                            + "gets a fair share."),
+            MAX_CUBES_SENT_PER_PLAYER_PER_TICK(1, Integer.MAX_VALUE, 128,
+                    "The maximum number of cubes sent to a single player in one tick."),
+            MAX_KILOBYTES_SENT_PER_PLAYER_PER_TICK(1, Integer.MAX_VALUE, 256,
+                    "The maximum amount of cube data in kilobytes sent to a single player in one tick. Lower it if players with slow "
+                            + "connections get disconnected while cubes are loading.");
 
             private final int minValue;
             private final int maxValue;
@@ -416,7 +448,18 @@ public class CubicChunks {
                             + CubicChunks.MODID + " will pregenerate cubes in a range of height from 0 to 255."),
             FORCE_CUBIC_CHUNKS(false,
                     "Enabling this will force creating a cubic chunks world, even if it's not cubic chunks world type. This option is automatically"
-                            + " set in world creation GUI when creating cubic chunks world with non-cubicchunks world type");
+                            + " set in world creation GUI when creating cubic chunks world with non-cubicchunks world type"),
+            USE_BINARY_CUBE_FORMAT(false,
+                    "Save cubes in a flat binary format instead of NBT. It's faster to save and load, but can't be read by older versions,"
+                            + " so a world can't be opened with an older version once it's saved with this enabled."
+                            + " Cubes saved as NBT are still loaded and converted when saved again. Requires reloading the world."),
+            COMPRESS_SENT_CUBES(false,
+                    "Compress cubes sent to players with LZ4 before the packet is compressed by Minecraft. Uses more CPU on the server"
+                            + " and clients, but makes packets with many cubes smaller and faster to compress."),
+            ASYNC_CUSTOM_TERRAIN_GENERATION(false,
+                    "Generate custom cubic terrain on the cube generation threads. Experimental: vanilla biome generation is not thread safe,"
+                            + " and biome lookups done on the server thread by vanilla and other mods can run at the same time as cube"
+                            + " generation, which can generate wrong biomes. Requires restart.");
 
             private final boolean defaultValue;
             private final String description;
@@ -452,6 +495,10 @@ public class CubicChunks {
             return out.toString();
         }
 
+        private static final String CUBE_SELECTOR_PER_DIMENSION = "cubeSelectorPerDimension";
+
+        private Map<Integer, Integer> cubeSelectorPerDimension = Collections.emptyMap();
+
         private Configuration configuration;
 
         private Config(Configuration configuration) {
@@ -472,11 +519,43 @@ public class CubicChunks {
                 configOption.value = configuration.getBoolean(getNicelyFormattedName(configOption.name()), Configuration.CATEGORY_GENERAL,
                         configOption.defaultValue, configOption.description);
             }
+            cubeSelectorPerDimension = parseCubeSelectorPerDimension(configuration.getStringList(CUBE_SELECTOR_PER_DIMENSION,
+                    Configuration.CATEGORY_GENERAL, new String[0],
+                    "Overrides cubeSelector for some dimensions. Each entry is dimensionId=cubeSelector, for example -1=2"));
             if (configuration.hasChanged()) {
                 configuration.save();
             }
         }
 
+        /**
+         * Parses dimensionId=cubeSelector entries. Invalid entries are logged and skipped.
+         */
+        static Map<Integer, Integer> parseCubeSelectorPerDimension(String[] entries) {
+            Map<Integer, Integer> selectors = new HashMap<>();
+            for (String entry : entries) {
+                String[] parts = entry.split("=");
+                if (parts.length != 2) {
+                    LOGGER.error("Invalid {} entry \"{}\", expected dimensionId=cubeSelector", CUBE_SELECTOR_PER_DIMENSION, entry);
+                    continue;
+                }
+                int dimension, selector;
+                try {
+                    dimension = Integer.parseInt(parts[0].trim());
+                    selector = Integer.parseInt(parts[1].trim());
+                } catch (NumberFormatException e) {
+                    LOGGER.error("Invalid {} entry \"{}\", expected dimensionId=cubeSelector", CUBE_SELECTOR_PER_DIMENSION, entry);
+                    continue;
+                }
+                if (selector < IntOptions.CUBE_SELECTOR.minValue || selector > IntOptions.CUBE_SELECTOR.maxValue) {
+                    LOGGER.error("Invalid {} entry \"{}\", cubeSelector must be between {} and {}", CUBE_SELECTOR_PER_DIMENSION, entry,
+                            IntOptions.CUBE_SELECTOR.minValue, IntOptions.CUBE_SELECTOR.maxValue);
+                    continue;
+                }
+                selectors.put(dimension, selector);
+            }
+            return selectors;
+        }
+
         public int getMaxGeneratedCubesPerTick() {
             return IntOptions.MAX_GENERATED_CUBES_PER_TICK.value;
         }
@@ -489,6 +568,13 @@ public class CubicChunks {
             return IntOptions.CHUNK_G_C_INTERVAL.value;
         }
 
+        /**
+         * @return the {@link IntOptions#CUBE_SELECTOR} value to use for the given dimension
+         */
+        public int getCubeSelector(int dimension) {
+            return cubeSelectorPerDimension.getOrDefault(dimension, IntOptions.CUBE_SELECTOR.value);
+        }
+
         public boolean useFastEntitySpawner() {
             return BoolOptions.USE_FAST_ENTITY_SPAWNER.value;
         }
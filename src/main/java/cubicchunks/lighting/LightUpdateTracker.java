@@ -23,6 +23,8 @@
  */
 package cubicchunks.lighting;
 
+import static cubicchunks.util.Coords.blockToCube;
+
 import cubicchunks.network.PacketCubeSkyLightUpdates;
 import cubicchunks.server.CubeWatcher;
 import cubicchunks.server.PlayerCubeMap;
@@ -30,10 +32,11 @@ import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZAddressable;
 import cubicchunks.util.XYZMap;
-import gnu.trove.list.TShortList;
-import gnu.trove.list.array.TShortArrayList;
+import cubicchunks.world.cube.Cube;
 import net.minecraft.util.math.BlockPos;
 
+import java.util.BitSet;
+
 /**
  * Tracks FirstLightProcessor lighting updates and sends them to client
  */
@@ -47,7 +50,7 @@ class LightUpdateTracker {
     }
 
     void onUpdate(BlockPos blockPos) {
-        CubeUpdateList list = cubes.get(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+        CubeUpdateList list = cubes.get(blockToCube(blockPos.getX()), blockToCube(blockPos.getY()), blockToCube(blockPos.getZ()));
         if (list == null) {
             list = new CubeUpdateList(CubePos.fromBlockCoords(blockPos));
             cubes.put(list);
@@ -62,19 +65,16 @@ class LightUpdateTracker {
 
     private class CubeUpdateList implements XYZAddressable {
 
-        private static final int MAX_COUNT = 64;
         private final CubePos pos;
-        private final TShortList updates = new TShortArrayList(MAX_COUNT);
+        // indexes of changed bytes in the sky light array, each byte has 2 blocks
+        private final BitSet updates = new BitSet(Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
 
         CubeUpdateList(CubePos pos) {
             this.pos = pos;
         }
 
         void add(BlockPos pos) {
-            if (updates.size() >= MAX_COUNT) {
-                return;
-            }
-            updates.add((short) AddressTools.getLocalAddress(pos));
+            updates.set(AddressTools.getLocalAddress(pos) >> 1);
         }
 
         void send() {
@@ -27,7 +27,6 @@ import cubicchunks.CubicChunks;
 import cubicchunks.client.CubeProviderClient;
 import cubicchunks.lighting.LightingManager;
 import cubicchunks.util.AddressTools;
-import cubicchunks.util.Bits;
 import cubicchunks.world.ClientHeightMap;
 import cubicchunks.world.ICubicWorldClient;
 import cubicchunks.world.column.IColumn;
@@ -195,12 +194,7 @@ public class ClientHandler implements INetHandler {
         if (message.isFullRelight()) {
             storage.setSkyLight(new NibbleArray(message.getData()));
         } else {
-            for (int i = 0; i < message.updateCount(); i++) {
-                int packed1 = message.getData()[i * 2] & 0xFF;
-                int packed2 = message.getData()[i * 2 + 1] & 0xFF;
-                storage.setSkyLight(Bits.unpackUnsigned(packed1, 4, 0), Bits.unpackUnsigned(packed1, 4, 4),
-                        Bits.unpackUnsigned(packed2, 4, 0), Bits.unpackUnsigned(packed2, 4, 4));
-            }
+            message.applyUpdates(storage.getSkyLight().getData());
         }
         LightingManager.CubeLightUpdateInfo info = cube.getCubeLightUpdateInfo();
         if (info != null) {
@@ -0,0 +1,67 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Keeps the cubes encoded for {@link PacketCubes}, so that a cube sent to many players is only encoded once.
+ * <p>
+ * Entries are not invalidated when a cube changes, so the cache has to be cleared before cubes can be modified again.
+ * {@link cubicchunks.server.PlayerCubeMap} clears it after each batch of cubes sent in a tick. All methods must be
+ * called from the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class CubeEncodingCache {
+
+    private final Map<Cube, EncodedCube> encodedCubes = new IdentityHashMap<>();
+    private final Map<IColumn, byte[]> encodedHeightMaps = new IdentityHashMap<>();
+
+    /**
+     * @return the given cube encoded for {@link PacketCubes}, starting to encode it if it's not cached yet
+     */
+    public EncodedCube encode(Cube cube) {
+        return encodedCubes.computeIfAbsent(cube, EncodedCube::new);
+    }
+
+    /**
+     * @return the heightmap of the given column as written by {@link PacketCubes}
+     */
+    byte[] getEncodedHeightMap(IColumn column) {
+        return encodedHeightMaps.computeIfAbsent(column, WorldEncoder::encodeHeightMap);
+    }
+
+    public void clear() {
+        encodedCubes.clear();
+        encodedHeightMaps.clear();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A cube being encoded for {@link PacketCubes}. Creating it takes a snapshot of the cube on the server thread, the
+ * encoding and compression are done by encoder threads.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class EncodedCube {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor encoderPool;
+
+    static {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        encoderPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "Cube Encoder Thread #" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        encoderPool.allowCoreThreadTimeOut(true);
+    }
+
+    private final Cube cube;
+    private final CompletableFuture<byte[]> data;
+
+    /**
+     * Must be called from the server thread.
+     */
+    EncodedCube(Cube cube) {
+        this.cube = cube;
+        WorldEncoder.CubeSnapshot snapshot = new WorldEncoder.CubeSnapshot(cube);
+        boolean compress = CubicChunks.Config.BoolOptions.COMPRESS_SENT_CUBES.getValue();
+        this.data = CompletableFuture.supplyAsync(
+                () -> compress ? WorldEncoder.compress(snapshot.encode()) : WorldEncoder.store(snapshot.encode()),
+                encoderPool);
+    }
+
+    public Cube getCube() {
+        return cube;
+    }
+
+    /**
+     * Waits for the cube to be encoded, if it's not done yet.
+     *
+     * @return size of the cube in {@link PacketCubes}, in bytes
+     */
+    public int getSize() {
+        return data.join().length;
+    }
+
+    /**
+     * @return true if the cube is encoded, or if encoding failed
+     */
+    public boolean isDone() {
+        return data.isDone();
+    }
+
+    public boolean isFailed() {
+        return data.isCompletedExceptionally();
+    }
+
+    /**
+     * Waits for the cube to be encoded, if it's not done yet.
+     */
+    byte[] getData() {
+        return data.join();
+    }
+}
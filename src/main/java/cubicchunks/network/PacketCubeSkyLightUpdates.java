@@ -23,23 +23,30 @@
  */
 package cubicchunks.network;
 
-import cubicchunks.util.AddressTools;
-import cubicchunks.util.Bits;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.cube.Cube;
-import gnu.trove.list.TShortList;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import java.util.Arrays;
+import java.util.BitSet;
 
 import javax.annotation.Nullable;
 
+/**
+ * Sends sky light changes in a cube to clients, either as the whole sky light array or as runs of changed bytes of the
+ * array.
+ */
 public class PacketCubeSkyLightUpdates implements IMessage {
 
+    private static final int LIGHT_ARRAY_SIZE = Cube.SIZE * Cube.SIZE * Cube.SIZE / 2;
+    // runs separated by this many unchanged bytes or less are sent as one run, that's cheaper than a new run header
+    private static final int MAX_MERGED_GAP = 2;
+
     private CubePos cube;
     private boolean isFullRelight;
     private byte[] data;
@@ -47,37 +54,55 @@ public class PacketCubeSkyLightUpdates implements IMessage {
     public PacketCubeSkyLightUpdates() {
     }
 
-    public PacketCubeSkyLightUpdates(Cube cube, TShortList updates) {
+    /**
+     * @param changed indexes of the changed bytes in the sky light array of the cube. Each byte holds the light values
+     * of 2 blocks, at local address <code>index*2</code> and <code>index*2+1</code>.
+     */
+    public PacketCubeSkyLightUpdates(Cube cube, BitSet changed) {
+        this.cube = cube.getCoords();
         if (cube.getStorage() == null) {
             // no light
             this.isFullRelight = true;
             this.data = null;
             return;
         }
-        this.cube = cube.getCoords();
-        this.data = new byte[updates.size() * 2];
-        for (int i = 0; i < updates.size(); i++) {
-            short packed = updates.get(i);
-            int localX = AddressTools.getLocalX(packed);
-            int localY = AddressTools.getLocalY(packed);
-            int localZ = AddressTools.getLocalZ(packed);
-            int value = cube.getStorage().getSkyLight(localX, localY, localZ);
-            byte byte1 = (byte) (Bits.packUnsignedToInt(localX, 4, 0) | Bits.packUnsignedToInt(localY, 4, 4));
-            byte byte2 = (byte) (Bits.packUnsignedToInt(localZ, 4, 0) | Bits.packUnsignedToInt(value, 4, 4));
-            this.data[i * 2] = byte1;
-            this.data[i * 2 + 1] = byte2;
+        byte[] skyLight = cube.getStorage().getSkyLight().getData();
+        ByteBuf buf = Unpooled.buffer();
+        int end = 0;
+        for (int start = changed.nextSetBit(0); start >= 0; start = changed.nextSetBit(end)) {
+            int skip = start - end;
+            end = changed.nextClearBit(start);
+            int next;
+            while ((next = changed.nextSetBit(end)) >= 0 && next - end <= MAX_MERGED_GAP) {
+                end = changed.nextClearBit(next);
+            }
+            end = Math.min(end, LIGHT_ARRAY_SIZE);
+            ByteBufUtils.writeVarInt(buf, skip, 2);
+            ByteBufUtils.writeVarInt(buf, end - start, 2);
+            buf.writeBytes(skyLight, start, end - start);
+            if (buf.readableBytes() >= LIGHT_ARRAY_SIZE) {
+                break;
+            }
+        }
+        if (buf.readableBytes() >= LIGHT_ARRAY_SIZE) {
+            // most of the cube changed, sending everything is smaller
+            this.isFullRelight = true;
+            this.data = Arrays.copyOf(skyLight, LIGHT_ARRAY_SIZE);
+        } else {
+            this.data = new byte[buf.readableBytes()];
+            buf.readBytes(this.data);
         }
     }
 
     public PacketCubeSkyLightUpdates(Cube cube) {
+        this.cube = cube.getCoords();
         this.isFullRelight = true;
         if (cube.getStorage() == null) {
             // no light
             this.data = null;
             return;
         }
-        this.cube = cube.getCoords();
-        this.data = Arrays.copyOf(cube.getStorage().getSkyLight().getData(), Cube.SIZE * Cube.SIZE * Cube.SIZE / 2);
+        this.data = Arrays.copyOf(cube.getStorage().getSkyLight().getData(), LIGHT_ARRAY_SIZE);
     }
 
     @Override
@@ -119,8 +144,18 @@ public class PacketCubeSkyLightUpdates implements IMessage {
         return data;
     }
 
-    public int updateCount() {
-        return data.length / 2;
+    /**
+     * Copies the changed bytes into the given sky light array. Only for packets that aren't full relight.
+     */
+    void applyUpdates(byte[] skyLight) {
+        ByteBuf buf = Unpooled.wrappedBuffer(data);
+        int index = 0;
+        while (buf.isReadable()) {
+            index += ByteBufUtils.readVarInt(buf, 2);
+            int length = ByteBufUtils.readVarInt(buf, 2);
+            buf.readBytes(skyLight, index, length);
+            index += length;
+        }
     }
 
     public static class Handler extends AbstractClientMessageHandler<PacketCubeSkyLightUpdates> {
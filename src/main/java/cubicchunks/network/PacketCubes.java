@@ -28,6 +28,7 @@ import cubicchunks.client.CubeProviderClient;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.PacketUtils;
 import cubicchunks.world.ICubicWorldClient;
+import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
@@ -36,14 +37,17 @@ import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -53,27 +57,62 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class PacketCubes implements IMessage {
 
     private CubePos[] cubePos;
-    private byte[] data;
-    private List<List<NBTTagCompound>> tileEntityTags;
+    private byte[][] data;
+    // heightmaps are the same for all cubes in a column, so they are sent once per column
+    private ChunkPos[] heightMapPos;
+    private byte[][] heightMaps;
 
     public PacketCubes() {
     }
 
+    /**
+     * Creates the packet, waiting until all cubes are encoded. Must be called from the server thread.
+     */
     public PacketCubes(List<Cube> cubes) {
-        this.cubePos = new CubePos[cubes.size()];
-        for (int i = 0; i < cubes.size(); i++) {
-            cubePos[i] = cubes.get(i).getCoords();
-        }
-        this.data = new byte[WorldEncoder.getEncodedSize(cubes)];
-        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
+        this(cubes, new CubeEncodingCache());
+    }
 
-        WorldEncoder.encodeCubes(out, cubes);
+    private PacketCubes(List<Cube> cubes, CubeEncodingCache cache) {
+        this(encodeAll(cubes, cache), cache);
+    }
 
-        this.tileEntityTags = new ArrayList<>();
+    /**
+     * Creates the packet from already encoded cubes. Must be called from the server thread.
+     *
+     * @param cubes the cubes to send, all of them must be done encoding
+     * @param cache the cache to get heightmaps from
+     */
+    public PacketCubes(Collection<EncodedCube> cubes, CubeEncodingCache cache) {
+        this.cubePos = new CubePos[cubes.size()];
+        this.data = new byte[cubes.size()][];
+        // each non-empty cube has a chance to update the heightmap of its column
+        Map<IColumn, byte[]> columnHeightMaps = new LinkedHashMap<>();
+        int i = 0;
+        for (EncodedCube encoded : cubes) {
+            Cube cube = encoded.getCube();
+            cubePos[i] = cube.getCoords();
+            data[i] = encoded.getData();
+            if (!cube.isEmpty()) {
+                columnHeightMaps.computeIfAbsent(cube.getColumn(), cache::getEncodedHeightMap);
+            }
+            i++;
+        }
+        this.heightMapPos = new ChunkPos[columnHeightMaps.size()];
+        this.heightMaps = new byte[columnHeightMaps.size()][];
+        i = 0;
+        for (Map.Entry<IColumn, byte[]> entry : columnHeightMaps.entrySet()) {
+            heightMapPos[i] = entry.getKey().getPos();
+            heightMaps[i] = entry.getValue();
+            i++;
+        }
+    }
 
-        cubes.forEach(cube ->
-                tileEntityTags.add(cube.getTileEntityMap().values().stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()))
-        );
+    private static List<EncodedCube> encodeAll(List<Cube> cubes, CubeEncodingCache cache) {
+        List<EncodedCube> encoded = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            encoded.add(cache.encode(cube));
+        }
+        return encoded;
     }
 
     @Override
@@ -84,17 +123,23 @@ public class PacketCubes implements IMessage {
             cubePos[i] = PacketUtils.readCubePos(buf);
         }
 
-        this.data = new byte[buf.readInt()];
-        buf.readBytes(this.data);
-
-        this.tileEntityTags = new ArrayList<>();
+        this.data = new byte[cubeCount][];
         for (int i = 0; i < cubeCount; i++) {
-            int numTiles = buf.readInt();
-            List<NBTTagCompound> tags = new ArrayList<>();
-            for (int j = 0; j < numTiles; j++) {
-                tags.add(ByteBufUtils.readTag(buf));
+            int length = buf.readInt();
+            if (length < 0 || length > buf.readableBytes()) {
+                throw new IllegalArgumentException("Invalid cube data length " + length);
             }
-            this.tileEntityTags.add(tags);
+            this.data[i] = new byte[length];
+            buf.readBytes(this.data[i]);
+        }
+
+        int heightMapCount = buf.readUnsignedShort();
+        this.heightMapPos = new ChunkPos[heightMapCount];
+        this.heightMaps = new byte[heightMapCount][];
+        for (int i = 0; i < heightMapCount; i++) {
+            this.heightMapPos[i] = new ChunkPos(buf.readInt(), buf.readInt());
+            this.heightMaps[i] = new byte[WorldEncoder.HEIGHT_MAP_SIZE];
+            buf.readBytes(this.heightMaps[i]);
         }
     }
 
@@ -105,25 +150,34 @@ public class PacketCubes implements IMessage {
             PacketUtils.write(buf, pos);
         }
 
-        buf.writeInt(this.data.length);
-        buf.writeBytes(this.data);
+        // each cube is written separately, so that the encoded data can be shared by packets sent to different players
+        for (byte[] cubeData : this.data) {
+            buf.writeInt(cubeData.length);
+            buf.writeBytes(cubeData);
+        }
 
-        this.tileEntityTags.forEach(tags -> {
-            buf.writeInt(tags.size());
-            tags.forEach(tag -> ByteBufUtils.writeTag(buf, tag));
-        });
+        buf.writeShort(heightMapPos.length);
+        for (int i = 0; i < heightMapPos.length; i++) {
+            buf.writeInt(heightMapPos[i].x);
+            buf.writeInt(heightMapPos[i].z);
+            buf.writeBytes(heightMaps[i]);
+        }
     }
 
     CubePos[] getCubePos() {
         return cubePos;
     }
 
-    byte[] getData() {
+    byte[][] getData() {
         return data;
     }
 
-    List<List<NBTTagCompound>> getTileEntityTags() {
-        return this.tileEntityTags;
+    ChunkPos[] getHeightMapPos() {
+        return heightMapPos;
+    }
+
+    byte[][] getHeightMaps() {
+        return heightMaps;
     }
 
     public static class Handler extends AbstractClientMessageHandler<PacketCubes> {
@@ -136,24 +190,44 @@ public class PacketCubes implements IMessage {
             CubeProviderClient cubeCache = worldClient.getCubeCache();
 
             CubePos[] cubePos = message.getCubePos();
+            byte[][] data = message.getData();
             List<Cube> cubes = new ArrayList<>();
-            for (CubePos pos : cubePos) {
-                Cube cube = cubeCache.loadCube(pos); // new cube
+            List<NBTTagCompound> tileEntityTags = new ArrayList<>();
+            for (int i = 0; i < cubePos.length; i++) {
+                Cube cube = cubeCache.loadCube(cubePos[i]); // new cube
                 //isEmpty actually checks if the column is a BlankColumn
                 if (cube == null) {
-                    CubicChunks.LOGGER.error("Out of order cube received! No column for cube at {} exists!", pos);
+                    CubicChunks.LOGGER.error("Out of order cube received! No column for cube at {} exists!", cubePos[i]);
+                    continue;
+                }
+                PacketBuffer in;
+                try {
+                    in = new PacketBuffer(WorldEncoder.decompress(data[i]));
+                } catch (IOException e) {
+                    CubicChunks.LOGGER.error("Could not read cube at {}", cubePos[i], e);
+                    continue;
+                }
+                WorldEncoder.decodeCube(in, cube);
+
+                int numTiles = in.readInt();
+                for (int j = 0; j < numTiles; j++) {
+                    tileEntityTags.add(ByteBufUtils.readTag(in));
                 }
                 cubes.add(cube);
             }
 
+            ChunkPos[] heightMapPos = message.getHeightMapPos();
+            byte[][] heightMaps = message.getHeightMaps();
+            for (int i = 0; i < heightMapPos.length; i++) {
+                IColumn column = cubeCache.getLoadedColumn(heightMapPos[i].x, heightMapPos[i].z);
+                if (column != null) {
+                    WorldEncoder.decodeHeightMap(heightMaps[i], column);
+                }
+            }
 
-            byte[] data = message.getData();
-            ByteBuf buf = WorldEncoder.createByteBufForRead(data);
-            WorldEncoder.decodeCube(new PacketBuffer(buf), cubes);
-
-            cubes.stream().filter(Objects::nonNull).forEach(Cube::markForRenderUpdate);
+            cubes.forEach(Cube::markForRenderUpdate);
 
-            message.getTileEntityTags().forEach(tags -> tags.forEach(tag -> {
+            tileEntityTags.forEach(tag -> {
                 int blockX = tag.getInteger("x");
                 int blockY = tag.getInteger("y");
                 int blockZ = tag.getInteger("z");
@@ -163,7 +237,7 @@ public class PacketCubes implements IMessage {
                 if (tileEntity != null) {
                     tileEntity.handleUpdateTag(tag);
                 }
-            }));
+            });
             return null;
         }
     }
@@ -23,7 +23,9 @@
  */
 package cubicchunks.network;
 
+import cubicchunks.util.BlockStateData;
 import cubicchunks.util.Coords;
+import cubicchunks.util.Lz4Block;
 import cubicchunks.world.ClientHeightMap;
 import cubicchunks.world.ServerHeightMap;
 import cubicchunks.world.column.IColumn;
@@ -31,62 +33,45 @@ import cubicchunks.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.IBlockStatePalette;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCubes(PacketBuffer out, Collection<Cube> cubes) {
-        // write first all the flags, then all the block data, then all the light data etc for better compression
+    static final int HEIGHT_MAP_SIZE = Cube.SIZE * Cube.SIZE * Integer.BYTES;
+    // largest uncompressed cube accepted from the network, the same limit vanilla uses for a whole chunk
+    static final int MAX_CUBE_DATA_SIZE = 2 * 1024 * 1024;
 
-        // 1. emptiness
-        cubes.forEach(cube -> {
-            out.writeBoolean(cube.isEmpty());
-            out.writeBoolean(cube.getStorage() != null);
-        });
+    private static final int FLAG_EMPTY = 1;
+    private static final int FLAG_HAS_STORAGE = 1 << 1;
+    // light arrays where all bytes are the same are sent as a single byte
+    // this is the case for almost all cubes that aren't near the surface
+    private static final int FLAG_UNIFORM_BLOCK_LIGHT = 1 << 2;
+    private static final int FLAG_UNIFORM_SKY_LIGHT = 1 << 3;
+    // cubes where all blocks are the same (like all stone) are sent as a single block state id
+    private static final int FLAG_UNIFORM_BLOCKS = 1 << 4;
 
-        // 2. block IDs and metadata
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                cube.getStorage().getData().write(out);
-            }
-        });
-
-        // 3. block light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null) {
-                out.writeBytes(cube.getStorage().getBlockLight().getData());
-            }
-        });
-
-        // 4. sky light
-        cubes.forEach(cube -> {
-            if (cube.getStorage() != null && cube.getCubicWorld().getProvider().hasSkyLight()) {
-                out.writeBytes(cube.getStorage().getSkyLight().getData());
-            }
-        });
-
-        // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
-        // to update this data.
-        // trying to keep track of when it changes would be complex, so send
-        // it wil all cubes
-        cubes.forEach(cube -> {
-            if (!cube.isEmpty()) {
-                byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-                assert heightmaps.length == Cube.SIZE * Cube.SIZE * Integer.BYTES;
-                out.writeBytes(heightmaps);
-            }
-        });
-    }
+    private static final byte CODEC_NONE = 0;
+    private static final byte CODEC_LZ4 = 1;
 
     static void encodeColumn(PacketBuffer out, IColumn column) {
         // 1. biomes
@@ -98,94 +83,132 @@ class WorldEncoder {
         in.readBytes(column.getBiomeArray());
     }
 
-    static void decodeCube(PacketBuffer in, List<Cube> cubes) {
-        cubes.stream().filter(Objects::nonNull).forEach(Cube::setClientCube);
+    static void decodeCube(PacketBuffer in, Cube cube) {
+        cube.setClientCube();
+        boolean hasSkyLight = cube.getCubicWorld().getProvider().hasSkyLight();
 
-        // 1. emptiness
-        boolean[] isEmpty = new boolean[cubes.size()];
-        boolean[] hasStorage = new boolean[cubes.size()];
+        // 1. flags
+        int flags = in.readUnsignedByte();
+        boolean isEmpty = (flags & FLAG_EMPTY) != 0;
+        boolean hasStorage = (flags & FLAG_HAS_STORAGE) != 0;
 
-        for (int i = 0; i < cubes.size(); i++) {
-            isEmpty[i] = in.readBoolean() || cubes.get(i) == null;
-            hasStorage[i] = in.readBoolean() && cubes.get(i) != null;
-        }
-
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                Cube cube = cubes.get(i);
-                ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
-                        cube.getCubicWorld().getProvider().hasSkyLight());
-                cube.setStorage(storage);
-            }
+        if (hasStorage) {
+            ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()), hasSkyLight);
+            cube.setStorage(storage);
         }
 
         // 2. Block IDs and metadata
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                //noinspection ConstantConditions
-                cubes.get(i).getStorage().getData().read(in);
+        if (!isEmpty) {
+            //noinspection ConstantConditions
+            BlockStateContainer data = cube.getStorage().getData();
+            if ((flags & FLAG_UNIFORM_BLOCKS) != 0) {
+                @SuppressWarnings("deprecation")
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readVarInt());
+                if (state != null) {
+                    for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+                        data.set(i & 15, i >> 8 & 15, i >> 4 & 15, state);
+                    }
+                }
+            } else {
+                data.read(in);
             }
         }
 
-        // 3. block light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i]) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getBlockLight().getData();
-                in.readBytes(data);
+        if (hasStorage) {
+            // 3. block light
+            //noinspection ConstantConditions
+            readLight(in, cube.getStorage().getBlockLight().getData(), (flags & FLAG_UNIFORM_BLOCK_LIGHT) != 0);
+
+            // 4. sky light
+            if (hasSkyLight) {
+                readLight(in, cube.getStorage().getSkyLight().getData(), (flags & FLAG_UNIFORM_SKY_LIGHT) != 0);
             }
         }
 
-        // 4. sky light
-        for (int i = 0; i < cubes.size(); i++) {
-            if (hasStorage[i] && cubes.get(i).getCubicWorld().getProvider().hasSkyLight()) {
-                //noinspection ConstantConditions
-                byte[] data = cubes.get(i).getStorage().getSkyLight().getData();
-                in.readBytes(data);
-            }
+        // after all that - update ref counts
+        if (!isEmpty) {
+            //noinspection ConstantConditions
+            cube.getStorage().recalculateRefCounts();
         }
+    }
 
-        // 5. heightmaps and after all that - update ref counts
-        for (int i = 0; i < cubes.size(); i++) {
-            if (!isEmpty[i]) {
-                Cube cube = cubes.get(i);
-                byte[] heightmaps = new byte[Cube.SIZE * Cube.SIZE * Integer.BYTES];
-                in.readBytes(heightmaps);
-                ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-                coi.setData(heightmaps);
+    static byte[] encodeHeightMap(IColumn column) {
+        byte[] heightmaps = ((ServerHeightMap) column.getOpacityIndex()).getDataForClient();
+        assert heightmaps.length == HEIGHT_MAP_SIZE;
+        return heightmaps;
+    }
 
-                //noinspection ConstantConditions
-                cube.getStorage().recalculateRefCounts();
-            }
+    static void decodeHeightMap(byte[] data, IColumn column) {
+        ((ClientHeightMap) column.getOpacityIndex()).setData(data);
+    }
+
+    /**
+     * Compresses encoded cube data, if that makes it smaller. The result starts with a byte saying how it's stored.
+     */
+    static byte[] compress(byte[] raw) {
+        byte[] out = new byte[5 + Lz4Block.maxCompressedLength(raw.length)];
+        out[0] = CODEC_LZ4;
+        ByteBuffer.wrap(out, 1, 4).putInt(raw.length);
+        int end = Lz4Block.compress(raw, raw.length, out, 5);
+        if (end >= raw.length + 1) {
+            return store(raw);
         }
+        return Arrays.copyOf(out, end);
     }
 
-    static int getEncodedSize(IColumn column) {
-        return column.getBiomeArray().length;
+    /**
+     * @return the given data with a header saying it's not compressed
+     */
+    static byte[] store(byte[] raw) {
+        byte[] out = new byte[raw.length + 1];
+        out[0] = CODEC_NONE;
+        System.arraycopy(raw, 0, out, 1, raw.length);
+        return out;
     }
 
-    static int getEncodedSize(Collection<Cube> cubes) {
-        int size = 0;
+    /**
+     * Reverses {@link #compress(byte[])} and {@link #store(byte[])}
+     */
+    static ByteBuf decompress(byte[] data) throws IOException {
+        if (data.length == 0) {
+            throw new IOException("Empty cube data");
+        }
+        if (data[0] == CODEC_NONE) {
+            return Unpooled.wrappedBuffer(data, 1, data.length - 1);
+        }
+        if (data[0] != CODEC_LZ4 || data.length < 5) {
+            throw new IOException("Invalid cube data codec " + data[0]);
+        }
+        int length = ByteBuffer.wrap(data, 1, 4).getInt();
+        // checked before allocating, the length comes straight from the network
+        if (length < 0 || length > MAX_CUBE_DATA_SIZE) {
+            throw new IOException("Invalid uncompressed length " + length);
+        }
+        byte[] raw = new byte[length];
+        Lz4Block.decompress(data, 5, data.length, raw, length);
+        return Unpooled.wrappedBuffer(raw);
+    }
 
-        size += 2 * cubes.size(); // 1. isEmpty and hasStorage flags
+    static void readLight(PacketBuffer in, byte[] data, boolean uniform) {
+        if (uniform) {
+            Arrays.fill(data, in.readByte());
+        } else {
+            in.readBytes(data);
+        }
+    }
 
-        // 2. block IDs and metadata
-        for (Cube cube : cubes) {
-            if (!cube.isEmpty()) {
-                //noinspection ConstantConditions
-                size += cube.getStorage().getData().getSerializedSize();
-            }
-            if (cube.getStorage() != null) {
-                size += cube.getStorage().getBlockLight().getData().length;
-                if (cube.getCubicWorld().getProvider().hasSkyLight()) {
-                    size += cube.getStorage().getSkyLight().getData().length;
-                }
+    static boolean isUniform(byte[] data) {
+        byte first = data[0];
+        for (byte b : data) {
+            if (b != first) {
+                return false;
             }
         }
+        return true;
+    }
 
-        // heightmaps
-        size += 256 * Integer.BYTES * cubes.size();
-        return size;
+    static int getEncodedSize(IColumn column) {
+        return column.getBiomeArray().length;
     }
 
     static ByteBuf createByteBufForWrite(byte[] data) {
@@ -199,4 +222,159 @@ class WorldEncoder {
         bytebuf.readerIndex(0);
         return bytebuf;
     }
+
+    /**
+     * Copy of everything sent to clients about a cube, so that it can be encoded outside of the server thread.
+     * <p>
+     * Taking the snapshot only copies the raw block state storage, palette and light arrays. Tile entity update tags
+     * are also created on the server thread, because that's the only place where it's safe to do. Everything else,
+     * including writing the tags, is done by {@link #encode()}.
+     */
+    static final class CubeSnapshot {
+
+        private final boolean hasStorage;
+        // null if the cube is empty
+        @Nullable private final long[] blockStorage;
+        // global block state ids, in palette order. Empty if the container uses the global palette
+        @Nullable private final int[] palette;
+        @Nullable private final byte[] blockLight;
+        @Nullable private final byte[] skyLight;
+        private final List<NBTTagCompound> tileEntities;
+
+        /**
+         * Must be called from the server thread.
+         */
+        CubeSnapshot(Cube cube) {
+            ExtendedBlockStorage storage = cube.getStorage();
+            this.hasStorage = storage != null;
+            if (storage == null) {
+                this.blockLight = null;
+                this.skyLight = null;
+            } else {
+                this.blockLight = storage.getBlockLight().getData().clone();
+                this.skyLight = cube.getCubicWorld().getProvider().hasSkyLight() ? storage.getSkyLight().getData().clone() : null;
+            }
+
+            if (cube.isEmpty()) {
+                this.blockStorage = null;
+                this.palette = null;
+            } else {
+                //noinspection ConstantConditions
+                BlockStateContainer data = storage.getData();
+                this.blockStorage = data.storage.getBackingLongArray().clone();
+                this.palette = copyPalette(data.palette, getBits(blockStorage));
+            }
+
+            Collection<TileEntity> tileEntityList = cube.getTileEntityMap().values();
+            this.tileEntities = new ArrayList<>(tileEntityList.size());
+            for (TileEntity tileEntity : tileEntityList) {
+                tileEntities.add(tileEntity.getUpdateTag());
+            }
+        }
+
+        /**
+         * Writes the cube in the format read by {@link #decodeCube(PacketBuffer, Cube)}, followed by tile entities. Can
+         * be called from any thread.
+         */
+        byte[] encode() {
+            PacketBuffer out = new PacketBuffer(Unpooled.buffer());
+            int flags = 0;
+            if (blockStorage == null) {
+                flags |= FLAG_EMPTY;
+            }
+            if (hasStorage) {
+                flags |= FLAG_HAS_STORAGE;
+            }
+            if (blockLight != null && isUniform(blockLight)) {
+                flags |= FLAG_UNIFORM_BLOCK_LIGHT;
+            }
+            if (skyLight != null && isUniform(skyLight)) {
+                flags |= FLAG_UNIFORM_SKY_LIGHT;
+            }
+            byte[] blockStates = null;
+            if (blockStorage != null) {
+                blockStates = writeBlockStates();
+                int uniformId = BlockStateData.getUniformId(blockStates);
+                if (uniformId >= 0) {
+                    flags |= FLAG_UNIFORM_BLOCKS;
+                    PacketBuffer id = new PacketBuffer(Unpooled.buffer(5));
+                    id.writeVarInt(uniformId);
+                    blockStates = Arrays.copyOf(id.array(), id.writerIndex());
+                }
+            }
+            // 1. flags
+            out.writeByte(flags);
+            // 2. block IDs and metadata
+            if (blockStates != null) {
+                out.writeBytes(blockStates);
+            }
+            // 3. block light
+            if (blockLight != null) {
+                writeLight(out, blockLight);
+            }
+            // 4. sky light
+            if (skyLight != null) {
+                writeLight(out, skyLight);
+            }
+            // heightmaps are sent once per column by PacketCubes
+            out.writeInt(tileEntities.size());
+            for (NBTTagCompound tag : tileEntities) {
+                ByteBufUtils.writeTag(out, tag);
+            }
+            byte[] data = new byte[out.readableBytes()];
+            out.readBytes(data);
+            return data;
+        }
+
+        /**
+         * @return the block states in the format written by {@link BlockStateContainer#write(PacketBuffer)}
+         */
+        private byte[] writeBlockStates() {
+            assert blockStorage != null && palette != null;
+            PacketBuffer out = new PacketBuffer(Unpooled.buffer());
+            out.writeByte(getBits(blockStorage));
+            // same as IBlockStatePalette.write, the global palette is written as size 0
+            out.writeVarInt(palette.length);
+            for (int id : palette) {
+                out.writeVarInt(id);
+            }
+            out.writeLongArray(blockStorage);
+            byte[] data = new byte[out.readableBytes()];
+            out.readBytes(data);
+            return data;
+        }
+
+        // the storage always has 4096 entries, so the number of longs is 4096 * bits / 64
+        private static int getBits(long[] blockStorage) {
+            return blockStorage.length / 64;
+        }
+
+        private static int[] copyPalette(IBlockStatePalette palette, int bits) {
+            // more bits than that are only used with the global palette, see BlockStateContainer.setBits
+            if (bits > 8) {
+                return new int[0];
+            }
+            // palette entries are numbered from 0 without gaps, and there can't be more than the storage can index
+            int[] ids = new int[1 << bits];
+            int size = 0;
+            IBlockState state;
+            while (size < ids.length && (state = palette.getBlockState(size)) != null) {
+                //noinspection deprecation
+                ids[size++] = Block.BLOCK_STATE_IDS.get(state);
+            }
+            return Arrays.copyOf(ids, size);
+        }
+
+        /**
+         * Writes a light array as read by {@link #readLight(PacketBuffer, byte[], boolean)}, as a single byte if all
+         * values are the same.
+         */
+        static void writeLight(ByteBuf out, byte[] data) {
+            if (isUniform(data)) {
+                out.writeByte(data[0]);
+            } else {
+                out.writeBytes(data);
+            }
+        }
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+import cubicchunks.worldgen.generator.ICubePrimer;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs {@link ICubeGenerator#generateCube(int, int, int)} on a worker thread pool. Only the resulting
+ * {@link ICubePrimer}s are produced off the server thread, turning them into cubes and adding them to the world is
+ * left to {@link CubeProviderServer}, which drains finished primers in bounded batches every tick.
+ * <p>
+ * All methods except the generation itself must be called from the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class AsyncCubeGenerator {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    // shared between all worlds, like the cube IO thread pool, so that the thread count doesn't grow with dimension count
+    @Nullable private static ForkJoinPool generatorPool;
+
+    private final ICubeGenerator generator;
+    private final boolean enabled;
+
+    // only accessed from the server thread
+    private final Map<CubePos, GeneratingCube> generating = new HashMap<>();
+    // written to by worker threads, drained by the server thread. Can contain tasks that were cancelled or taken since
+    private final Queue<GeneratingCube> finished = new ConcurrentLinkedQueue<>();
+
+    AsyncCubeGenerator(ICubeGenerator generator) {
+        this.generator = generator;
+        this.enabled = generator.supportsAsyncGeneration() && CubicChunks.Config.IntOptions.CUBE_GENERATION_THREADS.getValue() > 0;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (generatorPool == null) {
+            generatorPool = new ForkJoinPool(CubicChunks.Config.IntOptions.CUBE_GENERATION_THREADS.getValue(), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Cube Generator Thread #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, null, true);
+        }
+        return generatorPool;
+    }
+
+    /**
+     * @return <code>true</code> if the cube generator supports generating cubes outside of the server thread
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queue generation of a cube on the worker pool. If the cube is already being generated, only the callback is added.
+     *
+     * @param cubeX cube x position
+     * @param cubeY cube y position
+     * @param cubeZ cube z position
+     * @param callback callback to be called from the server thread with the cube once it's been added to the world
+     */
+    void queueGenerate(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        GeneratingCube task = generating.get(pos);
+        if (task == null) {
+            CompletableFuture<ICubePrimer> future = CompletableFuture.supplyAsync(() -> generator.generateCube(cubeX, cubeY, cubeZ), getPool());
+            GeneratingCube newTask = new GeneratingCube(pos, future);
+            generating.put(pos, newTask);
+            // also called when cancelled
+            future.whenComplete((primer, error) -> finished.add(newTask));
+            task = newTask;
+        }
+        task.callbacks.add(callback);
+    }
+
+    /**
+     * Remove a callback previously added using {@link #queueGenerate(int, int, int, Consumer)}. When no callbacks are
+     * left, generation is cancelled if it didn't start yet.
+     */
+    void dropQueuedGenerate(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        GeneratingCube task = generating.get(pos);
+        if (task == null) {
+            return;
+        }
+        task.callbacks.remove(callback);
+        if (task.callbacks.isEmpty() && task.primer.cancel(false)) {
+            generating.remove(pos);
+        }
+    }
+
+    int getGeneratingCount() {
+        return generating.size();
+    }
+
+    /**
+     * Removes the cube from the queue, waiting for the generation to finish if it's already running.
+     *
+     * @return The generation task, or <code>null</code> if the cube isn't being generated
+     */
+    @Nullable
+    GeneratingCube take(int cubeX, int cubeY, int cubeZ) {
+        return generating.remove(new CubePos(cubeX, cubeY, cubeZ));
+    }
+
+    /**
+     * Passes at most <code>maxCubes</code> generated cubes to <code>consumer</code>. Cubes that were taken using
+     * {@link #take(int, int, int)} in the meantime are skipped. If generation failed, the primer passed to the consumer
+     * is <code>null</code>.
+     *
+     * @return The number of cubes passed to the consumer
+     */
+    int drainFinished(int maxCubes, FinishedCubeConsumer consumer) {
+        int count = 0;
+        GeneratingCube task;
+        while (count < maxCubes && (task = finished.poll()) != null) {
+            if (generating.get(task.pos) != task) {
+                // already generated synchronously, or cancelled. The cube may be generating again in a new task,
+                // which isn't done yet
+                continue;
+            }
+            generating.remove(task.pos);
+            consumer.accept(task.pos, task.join(task.pos), task);
+            count++;
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    interface FinishedCubeConsumer {
+
+        void accept(CubePos pos, @Nullable ICubePrimer primer, GeneratingCube task);
+    }
+
+    static final class GeneratingCube {
+
+        private final CubePos pos;
+        private final CompletableFuture<ICubePrimer> primer;
+        private final List<Consumer<Cube>> callbacks = new ArrayList<>(2);
+
+        private GeneratingCube(CubePos pos, CompletableFuture<ICubePrimer> primer) {
+            this.pos = pos;
+            this.primer = primer;
+        }
+
+        /**
+         * Waits for the generation to finish.
+         *
+         * @return the generated primer, or <code>null</code> if generation failed or was cancelled
+         */
+        @Nullable ICubePrimer join(CubePos pos) {
+            try {
+                return primer.join();
+            } catch (CompletionException ex) {
+                CubicChunks.LOGGER.error("Failed to generate cube at {} on generator thread, it will be generated on the server thread", pos,
+                        ex.getCause());
+                return null;
+            } catch (RuntimeException ex) { // CancellationException
+                return null;
+            }
+        }
+
+        void runCallbacks(Cube cube) {
+            for (Consumer<Cube> callback : callbacks) {
+                callback.accept(cube);
+            }
+            callbacks.clear();
+        }
+    }
+}
@@ -90,6 +90,7 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
 
         this.getPlayers().add(player);
+        playerCubeMap.onPlayersChanged(this);
 
         //always sent to players, no need to check it
 
@@ -108,6 +109,7 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
         if (this.getColumn() == null) {
             this.getPlayers().remove(player);
+            playerCubeMap.onPlayersChanged(this);
             if (this.getPlayers().isEmpty()) {
                 if (isLoading()) {
                     AsyncWorldIOExecutor.dropQueuedColumnLoad(
@@ -123,6 +125,7 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
 
         this.getPlayers().remove(player);
+        playerCubeMap.onPlayersChanged(this);
 
         MinecraftForge.EVENT_BUS.post(new ChunkWatchEvent.UnWatch(this.getPos(), player));
 
@@ -0,0 +1,245 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import static cubicchunks.util.Coords.blockToCube;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.visibility.CubeSelector;
+import cubicchunks.world.IProviderExtras.Requirement;
+import cubicchunks.world.cube.Cube;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Starts loading cubes that will become visible to fast moving players before they get there.
+ * <p>
+ * The position of each player a few seconds ahead is predicted from their recent movement, or from the look direction
+ * when flying with elytra. Cubes visible from there but not from the current position are loaded from disk without
+ * being generated. Since loads are ordered by distance to players, these are loaded after the cubes players can
+ * already see. Loads that are no longer on any player's predicted path are cancelled.
+ * <p>
+ * Loaded cubes are kept loaded with a ticket of the prefetcher until a cube watcher exists for them, or until they are
+ * no longer on any predicted path.
+ * <p>
+ * This class is not thread safe, all methods must be called from the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubePrefetcher implements ITicket {
+
+    // how often the prediction is updated, in ticks
+    private static final int UPDATE_INTERVAL = 5;
+    // players slower than this (in blocks per tick) are not prefetched for. Sprinting is about 0.28
+    private static final double MIN_SPEED = 0.5;
+    // weight of the newest movement sample in the velocity average
+    private static final double VELOCITY_SMOOTHING = 0.3;
+    private static final int MAX_PREFETCH_PER_PLAYER = 1024;
+    private static final LongConsumer IGNORE = pos -> {
+    };
+
+    private final CubeProviderServer cubeCache;
+    private final CubeSelector cubeSelector;
+    private final Predicate<CubePos> isWatched;
+    private final Map<EntityPlayerMP, MovementTracker> trackers = new HashMap<>();
+    // positions are packed with CubePos.asLong
+    private final TLongObjectMap<Consumer<Cube>> prefetching = new TLongObjectHashMap<>();
+    private final TLongObjectMap<Cube> held = new TLongObjectHashMap<>();
+    // reused between updates
+    private final Set<EntityPlayerMP> seen = new HashSet<>();
+    private final TLongSet wanted = new TLongHashSet();
+    private final LongConsumer addWanted = this::addWanted;
+    private int wantedForPlayer;
+    private int ticks;
+
+    /**
+     * @param isWatched returns true if a cube watcher exists for the given position, which then keeps the cube loaded
+     */
+    CubePrefetcher(CubeProviderServer cubeCache, CubeSelector cubeSelector, Predicate<CubePos> isWatched) {
+        this.cubeCache = cubeCache;
+        this.cubeSelector = cubeSelector;
+        this.isWatched = isWatched;
+    }
+
+    void tick(Iterable<EntityPlayerMP> players, int horizontalViewDistance, int verticalViewDistance) {
+        int lookahead = CubicChunks.Config.IntOptions.PREFETCH_LOOKAHEAD_TICKS.getValue();
+        if (lookahead == 0) {
+            if (!prefetching.isEmpty() || !held.isEmpty()) {
+                wanted.clear();
+                cancel();
+            }
+            trackers.clear();
+            return;
+        }
+        for (EntityPlayerMP player : players) {
+            seen.add(player);
+            trackers.computeIfAbsent(player, MovementTracker::new).update();
+        }
+        trackers.keySet().retainAll(seen);
+        seen.clear();
+
+        if (++ticks < UPDATE_INTERVAL) {
+            return;
+        }
+        ticks = 0;
+
+        wanted.clear();
+        for (MovementTracker tracker : trackers.values()) {
+            Vec3d velocity = tracker.getPredictedVelocity();
+            if (velocity.lengthSquared() < MIN_SPEED * MIN_SPEED) {
+                continue;
+            }
+            EntityPlayerMP player = tracker.player;
+            CubePos current = CubePos.fromEntity(player);
+            CubePos predicted = new CubePos(
+                    blockToCube(player.posX + velocity.x * lookahead),
+                    blockToCube(player.posY + velocity.y * lookahead),
+                    blockToCube(player.posZ + velocity.z * lookahead));
+            if (predicted.equals(current)) {
+                continue;
+            }
+            wantedForPlayer = 0;
+            cubeSelector.findChanged(current, predicted, horizontalViewDistance, verticalViewDistance,
+                    IGNORE, addWanted, IGNORE, IGNORE);
+        }
+
+        cancel();
+        for (TLongIterator it = wanted.iterator(); it.hasNext(); ) {
+            long pos = it.next();
+            int x = CubePos.unpackX(pos), y = CubePos.unpackY(pos), z = CubePos.unpackZ(pos);
+            if (prefetching.containsKey(pos) || held.containsKey(pos) || cubeCache.getLoadedCube(x, y, z) != null) {
+                continue;
+            }
+            Consumer<Cube> callback = cube -> onLoaded(pos, cube);
+            prefetching.put(pos, callback);
+            cubeCache.asyncGetCube(x, y, z, Requirement.LOAD, callback);
+        }
+    }
+
+    private void addWanted(long pos) {
+        if (wantedForPlayer++ < MAX_PREFETCH_PER_PLAYER) {
+            wanted.add(pos);
+        }
+    }
+
+    private void onLoaded(long pos, @Nullable Cube cube) {
+        if (prefetching.remove(pos) == null || cube == null) {
+            return; // cancelled, or not saved yet
+        }
+        cube.getTickets().add(this);
+        held.put(pos, cube);
+    }
+
+    /**
+     * Cancels loads that are no longer wanted, and releases loaded cubes that are no longer wanted or already have a
+     * watcher.
+     */
+    private void cancel() {
+        for (TLongObjectIterator<Consumer<Cube>> it = prefetching.iterator(); it.hasNext(); ) {
+            it.advance();
+            long pos = it.key();
+            if (!wanted.contains(pos)) {
+                Consumer<Cube> callback = it.value();
+                it.remove();
+                cubeCache.dropQueuedCubeLoad(CubePos.unpackX(pos), CubePos.unpackY(pos), CubePos.unpackZ(pos), callback);
+            }
+        }
+        for (TLongObjectIterator<Cube> it = held.iterator(); it.hasNext(); ) {
+            it.advance();
+            long pos = it.key();
+            if (!wanted.contains(pos) || isWatched.test(CubePos.fromLong(pos))) {
+                it.value().getTickets().remove(this);
+                it.remove();
+            }
+        }
+    }
+
+    int getPrefetchingCount() {
+        return prefetching.size();
+    }
+
+    @Override public boolean shouldTick() {
+        return false;
+    }
+
+    private static final class MovementTracker {
+
+        final EntityPlayerMP player;
+        private double lastX, lastY, lastZ;
+        private double velX, velY, velZ;
+
+        MovementTracker(EntityPlayerMP player) {
+            this.player = player;
+            this.lastX = player.posX;
+            this.lastY = player.posY;
+            this.lastZ = player.posZ;
+        }
+
+        void update() {
+            double dx = player.posX - lastX;
+            double dy = player.posY - lastY;
+            double dz = player.posZ - lastZ;
+            lastX = player.posX;
+            lastY = player.posY;
+            lastZ = player.posZ;
+            // teleports are not movement
+            if (dx * dx + dy * dy + dz * dz > 100 * 100) {
+                velX = velY = velZ = 0;
+                return;
+            }
+            velX += (dx - velX) * VELOCITY_SMOOTHING;
+            velY += (dy - velY) * VELOCITY_SMOOTHING;
+            velZ += (dz - velZ) * VELOCITY_SMOOTHING;
+        }
+
+        Vec3d getPredictedVelocity() {
+            Vec3d velocity = new Vec3d(velX, velY, velZ);
+            if (player.isElytraFlying()) {
+                // elytra flight follows the look direction, and turns faster than the average can follow
+                return player.getLookVec().scale(velocity.lengthVector());
+            }
+            return velocity;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import cubicchunks.lighting.LightingManager;
 import cubicchunks.server.chunkio.ICubeIO;
 import cubicchunks.server.chunkio.RegionCubeIO;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
+import cubicchunks.util.Box;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZMap;
 import cubicchunks.world.ICubeProvider;
@@ -54,8 +55,10 @@ import net.minecraftforge.fml.common.registry.GameRegistry;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.function.Consumer;
 
@@ -77,6 +80,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class CubeProviderServer extends ChunkProviderServer implements ICubeProvider, IProviderExtras {
 
+    /**
+     * Cubes relative to a cube that are populated with it when vanilla chunk generators are used, see
+     * {@link #populateCube(Cube)}
+     */
+    static final Box VANILLA_POPULATION_AREA = new Box(0, 0, 0, 1, 15, 1);
+
     @Nonnull private ICubicWorldServer worldServer;
     @Nonnull private ICubeIO cubeIO;
 
@@ -84,6 +93,12 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
 
     @Nonnull private ICubeGenerator cubeGen;
+    @Nonnull private AsyncCubeGenerator asyncGenerator;
+    @Nonnull private CubeStatusScheduler cubeStatusScheduler;
+    // callbacks passed to asyncGetCube that are waiting for the cube to load, mapped to the callbacks queued in AsyncWorldIOExecutor
+    @Nonnull private Map<CubePos, Map<Consumer<Cube>, Consumer<Cube>>> queuedCubeLoads = new HashMap<>();
+    // callbacks passed to asyncGetCube that are waiting for the cube to generate, mapped to the callbacks queued in AsyncCubeGenerator
+    @Nonnull private Map<CubePos, Map<Consumer<Cube>, Consumer<Cube>>> queuedCubeGenerates = new HashMap<>();
     @Nonnull private Profiler profiler;
     private final boolean doRandomBlockTicksHere;
 
@@ -93,6 +108,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
                 null); // safe to null out IChunkGenerator (Note: lets hope mods don't touch it, ik its public)
 
         this.cubeGen = cubeGen;
+        this.asyncGenerator = new AsyncCubeGenerator(cubeGen);
+        this.cubeStatusScheduler = new CubeStatusScheduler(this);
         this.worldServer = worldServer;
         this.profiler = ((WorldServer) worldServer).profiler;
         try {
@@ -196,6 +213,11 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     public boolean tick() {
         // NOTE: the return value is completely ignored
         profiler.startSection("providerTick");
+        profiler.startSection("addGeneratedCubes");
+        asyncGenerator.drainFinished(CubicChunks.Config.IntOptions.MAX_ASYNC_GENERATED_CUBES_PER_TICK.getValue(), this::onCubeGeneratedAsync);
+        profiler.endStartSection("promoteCubes");
+        cubeStatusScheduler.tick(profiler);
+        profiler.endStartSection("tickCubes");
         long i = System.currentTimeMillis();
         int randomTickSpeed = this.world.getGameRules().getInt("randomTickSpeed");
         Random rand = this.world.rand;
@@ -210,14 +232,18 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             while (randomTickCounter-- > 0)
                 cube.randomTick(this.world, rand);
         }
-        profiler.endSection();
+        profiler.endSection(); // tickCubes
+        profiler.endSection(); // providerTick
         return false;
     }
 
     @Override
     public String makeString() {
         return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
-                + this.cubeMap.getSize() + " cubes";
+                + this.cubeMap.getSize() + " cubes, "
+                + this.asyncGenerator.getGeneratingCount() + " generating, "
+                + this.cubeStatusScheduler + ", "
+                + this.cubeIO.getSaveStats();
     }
 
     @Override
@@ -269,6 +295,9 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     /**
      * Load a cube, asynchronously. The work done to retrieve the column is specified by the
      * {@link Requirement} <code>req</code>
+     * <p>
+     * Unlike the synchronous variant, this never loads or generates neighboring cubes on the server thread. Population
+     * and lighting is done by {@link CubeStatusScheduler} once all the needed neighbors are loaded.
      *
      * @param cubeX Cube x position
      * @param cubeY Cube y position
@@ -286,16 +315,141 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             return;
         }
 
-        if (cube == null) {
-            AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, loaded -> {
-                IColumn col = getLoadedColumn(cubeX, cubeZ);
-                if (col != null) {
-                    onCubeLoaded(loaded, col);
-                    loaded = postCubeLoadAttempt(cubeX, cubeY, cubeZ, loaded, col, req);
-                }
+        if (cube != null) {
+            cubeStatusScheduler.schedule(cube, req, callback);
+            return;
+        }
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        Consumer<Cube> onLoad = loaded -> {
+            removeQueuedCallback(queuedCubeLoads, pos, callback);
+            IColumn col = getLoadedColumn(cubeX, cubeZ);
+            if (col == null) {
                 callback.accept(loaded);
-            });
+                return;
+            }
+            onCubeLoaded(loaded, col);
+            if (loaded == null) {
+                // see postCubeLoadAttempt
+                loaded = getLoadedCube(cubeX, cubeY, cubeZ);
+            }
+            if (loaded != null || req == Requirement.LOAD) {
+                promoteCube(loaded, req, callback);
+                return;
+            }
+            generateAndPromoteCube(pos, col, req, callback);
+        };
+        queuedCubeLoads.computeIfAbsent(pos, p -> new HashMap<>()).put(callback, onLoad);
+        AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, onLoad);
+    }
+
+    /**
+     * Same as {@link #asyncGetCube(int, int, int, Requirement, Consumer)} with a requirement of at least
+     * {@link Requirement#GENERATE}, for a cube that is known not to exist on disk, for example because loading it
+     * already returned <code>null</code>. If the cube isn't loaded, it's generated without trying to load it again.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     * @param req Work done to retrieve the column
+     * @param callback Callback to be called when the cube reaches <code>req</code>
+     */
+    public void asyncGetCubeWithoutLoading(int cubeX, int cubeY, int cubeZ, Requirement req, Consumer<Cube> callback) {
+        Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            promoteCube(cube, req, callback);
+            return;
         }
+        IColumn column = getColumn(cubeX, cubeZ, Requirement.GENERATE);
+        if (column == null) {
+            callback.accept(null);
+            return;
+        }
+        generateAndPromoteCube(new CubePos(cubeX, cubeY, cubeZ), column, req, callback);
+    }
+
+    private void generateAndPromoteCube(CubePos pos, IColumn column, Requirement req, Consumer<Cube> callback) {
+        Consumer<Cube> onGenerate = generated -> {
+            removeQueuedCallback(queuedCubeGenerates, pos, callback);
+            promoteCube(generated, req, callback);
+        };
+        queuedCubeGenerates.computeIfAbsent(pos, p -> new HashMap<>()).put(callback, onGenerate);
+        if (!asyncGenerateCube(pos.getX(), pos.getY(), pos.getZ(), onGenerate)) {
+            removeQueuedCallback(queuedCubeGenerates, pos, callback);
+            promoteCube(generateCube(pos.getX(), pos.getY(), pos.getZ(), column), req, callback);
+        }
+    }
+
+    @Nullable private static Consumer<Cube> removeQueuedCallback(Map<CubePos, Map<Consumer<Cube>, Consumer<Cube>>> queued, CubePos pos,
+            Consumer<Cube> callback) {
+        Map<Consumer<Cube>, Consumer<Cube>> callbacks = queued.get(pos);
+        if (callbacks == null) {
+            return null;
+        }
+        Consumer<Cube> queuedCallback = callbacks.remove(callback);
+        if (callbacks.isEmpty()) {
+            queued.remove(pos);
+        }
+        return queuedCallback;
+    }
+
+    /**
+     * Notify the loader that the callback passed to {@link #asyncGetCube(int, int, int, Requirement, Consumer)} isn't
+     * interested in the cube anymore. If nothing else is waiting for the cube, it won't be loaded unless the load has
+     * already started.
+     */
+    public void dropQueuedCubeLoad(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        Consumer<Cube> onLoad = removeQueuedCallback(queuedCubeLoads, new CubePos(cubeX, cubeY, cubeZ), callback);
+        if (onLoad != null) {
+            AsyncWorldIOExecutor.dropQueuedCubeLoad(worldServer, cubeX, cubeY, cubeZ, onLoad);
+        }
+    }
+
+    private void promoteCube(@Nullable Cube cube, Requirement req, Consumer<Cube> callback) {
+        if (cube == null || req.compareTo(Requirement.GENERATE) <= 0) {
+            callback.accept(cube);
+        } else {
+            cubeStatusScheduler.schedule(cube, req, callback);
+        }
+    }
+
+    /**
+     * Generate a cube on a worker thread, if the cube generator supports it. The cube is added to the world and passed to
+     * the callback during one of the next ticks. Only the terrain is generated, population and lighting are left to
+     * {@link #getCube(int, int, int, Requirement)}.
+     * <p>
+     * This doesn't attempt to load the cube, so it should only be used for cubes that are known not to exist on disk.
+     *
+     * @param cubeX Cube x position
+     * @param cubeY Cube y position
+     * @param cubeZ Cube z position
+     * @param callback Callback to be called with the generated cube
+     *
+     * @return <code>true</code> if the cube has been queued for generation or is already loaded, <code>false</code> if
+     * it can't be generated asynchronously. In the latter case the callback is never called.
+     */
+    public boolean asyncGenerateCube(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        if (!asyncGenerator.isEnabled()) {
+            return false;
+        }
+        Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+        if (cube != null) {
+            callback.accept(cube);
+            return true;
+        }
+        asyncGenerator.queueGenerate(cubeX, cubeY, cubeZ, callback);
+        return true;
+    }
+
+    /**
+     * Notify the generator and the population/lighting scheduler that the callback passed to
+     * {@link #asyncGenerateCube(int, int, int, Consumer)} or {@link #asyncGetCube(int, int, int, Requirement, Consumer)}
+     * isn't interested in the cube anymore. Callbacks still waiting for the cube to load may be called anyway.
+     */
+    public void dropQueuedCubeGenerate(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        // callbacks passed to asyncGetCube are wrapped to promote the cube once it's generated
+        Consumer<Cube> onGenerate = removeQueuedCallback(queuedCubeGenerates, new CubePos(cubeX, cubeY, cubeZ), callback);
+        asyncGenerator.dropQueuedGenerate(cubeX, cubeY, cubeZ, onGenerate == null ? callback : onGenerate);
+        cubeStatusScheduler.drop(cubeX, cubeY, cubeZ, callback);
     }
 
     @Nullable @Override
@@ -406,7 +560,32 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
      * @return The generated cube
      */
     private Cube generateCube(int cubeX, int cubeY, int cubeZ, IColumn column) {
-        ICubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        ICubePrimer primer = null;
+        // if it's already being generated on a worker thread, wait for it instead of generating it again
+        AsyncCubeGenerator.GeneratingCube task = asyncGenerator.take(cubeX, cubeY, cubeZ);
+        if (task != null) {
+            primer = task.join(new CubePos(cubeX, cubeY, cubeZ));
+        }
+        if (primer == null) {
+            primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+        }
+        Cube cube = addGeneratedCube(column, cubeY, primer);
+        if (task != null) {
+            task.runCallbacks(cube);
+        }
+        return cube;
+    }
+
+    /**
+     * Create a cube from a generated primer and add it to the world
+     *
+     * @param column Column of the cube
+     * @param cubeY Cube y position
+     * @param primer The generated blocks
+     *
+     * @return The generated cube
+     */
+    private Cube addGeneratedCube(IColumn column, int cubeY, ICubePrimer primer) {
         Cube cube = new Cube(column, cubeY, primer);
 
         onCubeLoaded(cube, column);
@@ -418,17 +597,38 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
     }
 
     /**
-     * Populate a cube at the specified position, generating surrounding cubes as necessary
+     * Add a cube generated by {@link AsyncCubeGenerator} to the world. Called from the server thread.
+     *
+     * @param pos Position of the cube
+     * @param primer The generated blocks, or <code>null</code> if generation failed on the worker thread
+     * @param task The generation task, holds the callbacks waiting for this cube
+     */
+    private void onCubeGeneratedAsync(CubePos pos, @Nullable ICubePrimer primer, AsyncCubeGenerator.GeneratingCube task) {
+        Cube cube = getLoadedCube(pos);
+        if (cube == null) {
+            IColumn column = getColumn(pos.getX(), pos.getZ(), Requirement.GENERATE);
+            assert column != null;
+            if (primer == null) {
+                primer = cubeGen.generateCube(pos.getX(), pos.getY(), pos.getZ());
+            }
+            cube = addGeneratedCube(column, pos.getY(), primer);
+        }
+        task.runCallbacks(cube);
+    }
+
+    /**
+     * Populate a cube at the specified position, generating surrounding cubes as necessary.
+     * <p>
+     * When called from {@link CubeStatusScheduler} all the cubes that could be generated here are already loaded.
+     * Synchronous {@link #getCube(int, int, int, Requirement)} still generates them recursively.
      *
      * @param cube The cube to populate
      */
-    private void populateCube(Cube cube) {
+    void populateCube(Cube cube) {
         int cubeX = cube.getX();
         int cubeY = cube.getY();
         int cubeZ = cube.getZ();
 
-        // TODO: redo this part properly. It's broken.
-
         cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) -> {
             Cube popcube = getCube(x + cubeX, y + cubeY, z + cubeZ);
             if (!popcube.isPopulated()) {
@@ -437,7 +637,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
             }
         });
         
-        if (!(cubeGen instanceof VanillaCompatibilityGenerator) && CubicChunks.Config.BoolOptions.USE_VANILLA_CHUNK_WORLD_GENERATORS.getValue()) {
+        if (populatesVanillaChunks()) {
+            // the cubes in VANILLA_POPULATION_AREA, from the top
             for (int x = 0; x < 2; x++) {
                 for (int z = 0; z < 2; z++) {
                     for (int y = 15; y >= 0; y--) {
@@ -455,12 +656,20 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         cube.setFullyPopulated(true);
     }
 
+    /**
+     * @return <code>true</code> if {@link #populateCube(Cube)} also populates the cubes in
+     * {@link #VANILLA_POPULATION_AREA} and runs vanilla chunk generators
+     */
+    boolean populatesVanillaChunks() {
+        return !(cubeGen instanceof VanillaCompatibilityGenerator) && CubicChunks.Config.BoolOptions.USE_VANILLA_CHUNK_WORLD_GENERATORS.getValue();
+    }
+
     /**
      * Initialize skylight for the cube at the specified position, generating surrounding cubes as needed.
      *
      * @param cube The cube to light up
      */
-    private void calculateDiffuseSkylight(Cube cube) {
+    void calculateDiffuseSkylight(Cube cube) {
         if (LightingManager.NO_SUNLIGHT_PROPAGATION) {
             cube.setInitialLightingDone(true);
             return;
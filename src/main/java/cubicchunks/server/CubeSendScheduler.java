@@ -0,0 +1,270 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.world.cube.Cube;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import io.netty.channel.Channel;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Streams cubes to players without sending more than their connection can take.
+ * <p>
+ * Each player has a queue of cubes to send, and token buckets limiting how many cubes and how many bytes can be sent to
+ * them per tick. Players take turns sending a few cubes at a time until the per tick limit for all players is used up,
+ * so that players with a fast connection don't delay everyone else. Nothing is sent to players whose connection isn't
+ * writable, because Netty is still busy sending what was sent before.
+ * <p>
+ * This class is not thread safe, all methods must be called from the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeSendScheduler {
+
+    // how many cubes a player can send in one turn before the next player gets a turn
+    private static final int CUBES_PER_TURN = 16;
+    // how many ticks worth of tokens can be saved up when there is nothing to send
+    private static final int MAX_BURST_TICKS = 4;
+    // bytes charged for a cube taken from the queue of a player who wasn't sent any cube yet
+    private static final int DEFAULT_CUBE_BYTES = 8 * 1024;
+
+    private final Map<EntityPlayerMP, PlayerQueue> queues = new HashMap<>();
+    private final List<PlayerQueue> activeQueues = new ArrayList<>();
+    private final BiConsumer<EntityPlayerMP, List<Cube>> sender;
+    private final Predicate<EntityPlayerMP> isWritable;
+    // the player who gets the first turn in the next tick
+    private int nextTurn;
+
+    /**
+     * @param sender sends a packet with the given cubes to the player. The bytes it sends are paid for with
+     * {@link #charge(EntityPlayerMP, Cube, int)}
+     */
+    CubeSendScheduler(BiConsumer<EntityPlayerMP, List<Cube>> sender) {
+        this(sender, CubeSendScheduler::isWritable);
+    }
+
+    /**
+     * @param sender sends a packet with the given cubes to the player
+     * @param isWritable returns false if nothing should be sent to the player in this tick
+     */
+    CubeSendScheduler(BiConsumer<EntityPlayerMP, List<Cube>> sender, Predicate<EntityPlayerMP> isWritable) {
+        this.sender = sender;
+        this.isWritable = isWritable;
+    }
+
+    void schedule(EntityPlayerMP player, Cube cube) {
+        getQueue(player).pending.add(cube);
+    }
+
+    /**
+     * Schedules a cube that was already taken from the queue to be sent again. It's sent before cubes scheduled using
+     * {@link #schedule(EntityPlayerMP, Cube)}, so that it doesn't lose the place it had in the queue.
+     */
+    void reschedule(EntityPlayerMP player, Cube cube) {
+        PlayerQueue queue = getQueue(player);
+        queue.pending.remove(cube);
+        queue.rescheduled.add(cube);
+        queue.refund(cube);
+    }
+
+    private PlayerQueue getQueue(EntityPlayerMP player) {
+        PlayerQueue queue = queues.computeIfAbsent(player, PlayerQueue::new);
+        if (!queue.active) {
+            queue.active = true;
+            activeQueues.add(queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Charges the player for the bytes sent for a cube. The size of a cube is only known once it's encoded, so an
+     * estimate is taken from the player's tokens when the cube is taken from the queue, and the difference is settled
+     * here.
+     */
+    void charge(EntityPlayerMP player, Cube cube, int bytes) {
+        PlayerQueue queue = queues.get(player);
+        if (queue != null) {
+            queue.byteTokens -= bytes - queue.estimates.remove(cube);
+            queue.estimatedCubeBytes = bytes;
+        }
+    }
+
+    /**
+     * @return true if the cube is waiting to be sent to the player
+     */
+    boolean isPending(EntityPlayerMP player, Cube cube) {
+        PlayerQueue queue = queues.get(player);
+        return queue != null && (queue.pending.contains(cube) || queue.rescheduled.contains(cube));
+    }
+
+    /**
+     * Don't send the cube to the player, if it wasn't sent yet
+     */
+    void cancel(EntityPlayerMP player, Cube cube) {
+        PlayerQueue queue = queues.get(player);
+        if (queue != null) {
+            queue.pending.remove(cube);
+            queue.rescheduled.remove(cube);
+            queue.refund(cube);
+        }
+    }
+
+    void removePlayer(EntityPlayerMP player) {
+        PlayerQueue queue = queues.remove(player);
+        if (queue != null) {
+            queue.pending.clear();
+            queue.rescheduled.clear();
+        }
+    }
+
+    void tick() {
+        tick(CubicChunks.Config.IntOptions.MAX_CUBES_SENT_PER_PLAYER_PER_TICK.getValue(),
+                (int) Math.min(Integer.MAX_VALUE, CubicChunks.Config.IntOptions.MAX_KILOBYTES_SENT_PER_PLAYER_PER_TICK.getValue() * 1024L),
+                CubicChunks.Config.IntOptions.MAX_CUBES_SENT_PER_TICK.getValue());
+    }
+
+    /**
+     * @param maxCubesPerPlayer how many cubes can be sent to a player per tick
+     * @param maxBytesPerPlayer how many bytes can be sent to a player per tick
+     * @param maxCubes how many cubes can be sent to all players together in this tick
+     */
+    void tick(int maxCubesPerPlayer, int maxBytesPerPlayer, int maxCubes) {
+        for (PlayerQueue queue : queues.values()) {
+            queue.refill(maxCubesPerPlayer, maxBytesPerPlayer);
+        }
+        activeQueues.removeIf(queue -> {
+            queue.active = !queue.isEmpty() && queues.get(queue.player) == queue;
+            return !queue.active;
+        });
+        if (activeQueues.isEmpty()) {
+            return;
+        }
+
+        int budget = maxCubes;
+        int first = nextTurn % activeQueues.size();
+        nextTurn = first + 1;
+        boolean anySent = true;
+        while (budget > 0 && anySent) {
+            anySent = false;
+            for (int i = 0; i < activeQueues.size() && budget > 0; i++) {
+                PlayerQueue queue = activeQueues.get((first + i) % activeQueues.size());
+                int taken = isWritable.test(queue.player) ? queue.takeTurn(Math.min(budget, CUBES_PER_TURN)) : 0;
+                budget -= taken;
+                anySent |= taken > 0;
+            }
+        }
+
+        for (PlayerQueue queue : activeQueues) {
+            if (!queue.toSend.isEmpty()) {
+                sender.accept(queue.player, queue.toSend);
+                queue.toSend = new ArrayList<>();
+            }
+        }
+    }
+
+    private static final class PlayerQueue {
+
+        final EntityPlayerMP player;
+        final Set<Cube> pending = new LinkedHashSet<>();
+        // sent before pending
+        final Set<Cube> rescheduled = new LinkedHashSet<>();
+        // bytes taken from byteTokens for cubes that were taken from the queue, but not charged for yet
+        final TObjectIntMap<Cube> estimates = new TObjectIntHashMap<>();
+        List<Cube> toSend = new ArrayList<>();
+        boolean active;
+        double cubeTokens;
+        double byteTokens;
+        int maxBytesPerTick;
+        // size of the last cube sent to the player
+        int estimatedCubeBytes = DEFAULT_CUBE_BYTES;
+
+        PlayerQueue(EntityPlayerMP player) {
+            this.player = player;
+        }
+
+        void refill(int maxCubes, int maxBytes) {
+            cubeTokens = Math.min(cubeTokens + maxCubes, (double) maxCubes * MAX_BURST_TICKS);
+            byteTokens = Math.min(byteTokens + maxBytes, (double) maxBytes * MAX_BURST_TICKS);
+            maxBytesPerTick = maxBytes;
+        }
+
+        /** Gives back the estimated bytes taken for the cube, if it won't be sent */
+        void refund(Cube cube) {
+            byteTokens += estimates.remove(cube);
+        }
+
+        boolean isEmpty() {
+            return pending.isEmpty() && rescheduled.isEmpty();
+        }
+
+        /**
+         * Moves up to maxCubes cubes from rescheduled and pending to toSend, as far as tokens allow
+         *
+         * @return the number of cubes taken
+         */
+        int takeTurn(int maxCubes) {
+            int taken = take(rescheduled, maxCubes);
+            return taken + take(pending, maxCubes - taken);
+        }
+
+        private int take(Set<Cube> cubes, int maxCubes) {
+            int taken = 0;
+            Iterator<Cube> it = cubes.iterator();
+            int estimate = estimatedCubeBytes;
+            // a cube bigger than the limit can still be sent once a full tick worth of bytes is saved up, the player
+            // then waits until the byte tokens are paid back
+            double minByteTokens = Math.min(estimate, maxBytesPerTick);
+            while (it.hasNext() && taken < maxCubes && cubeTokens >= 1 && byteTokens >= minByteTokens) {
+                Cube cube = it.next();
+                it.remove();
+                toSend.add(cube);
+                estimates.adjustOrPutValue(cube, estimate, estimate);
+                cubeTokens--;
+                byteTokens -= estimate;
+                taken++;
+            }
+            return taken;
+        }
+    }
+
+    private static boolean isWritable(EntityPlayerMP player) {
+        Channel channel = player.connection.getNetworkManager().channel();
+        return channel == null || channel.isWritable();
+    }
+}
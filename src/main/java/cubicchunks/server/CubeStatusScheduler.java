@@ -0,0 +1,315 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.Box;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.IProviderExtras.Requirement;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.profiler.Profiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Promotes loaded cubes through the generation stages ({@link Requirement#GENERATE}, {@link Requirement#POPULATE},
+ * {@link Requirement#LIGHT}) without recursively loading or generating neighbors on the server thread.
+ * <p>
+ * Each stage needs some neighboring cubes to be loaded before it can run. Missing neighbors are requested
+ * asynchronously and the cube waits until all of them are loaded. Cubes that have all their dependencies are then
+ * promoted in bounded batches from {@link #tick(Profiler)}. If a needed cube can't be loaded, the promotion fails and
+ * its callbacks get <code>null</code>.
+ * <p>
+ * This class is not thread safe, all methods must be called from the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeStatusScheduler {
+
+    /**
+     * Cubes needed to calculate initial diffuse skylight, see {@link CubeProviderServer#calculateDiffuseSkylight(Cube)}
+     */
+    private static final Box LIGHT_DEPENDENCIES = new Box(-2, -2, -2, 2, 2, 2);
+
+    private final CubeProviderServer provider;
+
+    // all requested promotions
+    private final Map<CubePos, PromotionRequest> requests = new HashMap<>();
+    // cubes being loaded for requests that depend on them
+    private final Map<CubePos, List<PromotionRequest>> waitingFor = new HashMap<>();
+    // requests that don't wait for any cube to load
+    private final ArrayDeque<PromotionRequest> ready = new ArrayDeque<>();
+
+    private int populatedLastTick;
+    private int litLastTick;
+    private long lastTickTimeNs;
+
+    CubeStatusScheduler(CubeProviderServer provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Request the cube to be promoted to the given stage. The callback is called from {@link #tick(Profiler)} when the
+     * cube reaches that stage, or immediately if it's already there. It's called with <code>null</code> if the cube or
+     * any cube needed to promote it can't be loaded.
+     *
+     * @param cube The cube to promote
+     * @param target The stage to promote the cube to
+     * @param callback Callback to be called with the promoted cube
+     */
+    void schedule(Cube cube, Requirement target, Consumer<Cube> callback) {
+        if (cube.getStatus().compareTo(target) >= 0) {
+            callback.accept(cube);
+            return;
+        }
+        PromotionRequest request = requests.get(cube.getCoords());
+        if (request == null) {
+            request = new PromotionRequest(cube.getCoords(), target);
+            requests.put(request.pos, request);
+            ready.add(request);
+        } else if (request.target.compareTo(target) < 0) {
+            request.target = target;
+        }
+        request.callbacks.add(callback);
+    }
+
+    /**
+     * Remove a callback added by {@link #schedule(Cube, Requirement, Consumer)}. The cube is no longer promoted when
+     * there are no callbacks left.
+     */
+    void drop(int cubeX, int cubeY, int cubeZ, Consumer<Cube> callback) {
+        CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+        PromotionRequest request = requests.get(pos);
+        if (request == null) {
+            return;
+        }
+        request.callbacks.remove(callback);
+        if (request.callbacks.isEmpty()) {
+            requests.remove(pos);
+            request.cancelled = true;
+            request.releaseCubes();
+        }
+    }
+
+    /**
+     * Promote cubes whose dependencies are loaded, one stage at a time, until the per tick limit is reached.
+     */
+    void tick(Profiler profiler) {
+        long start = System.nanoTime();
+        int populated = 0;
+        int lit = 0;
+        int budget = CubicChunks.Config.IntOptions.MAX_GENERATED_CUBES_PER_TICK.getValue();
+        long maxTimeNs = CubicChunks.Config.IntOptions.MAX_POPULATION_MILLIS_PER_TICK.getValue() * 1_000_000L;
+
+        while (populated + lit < budget && !ready.isEmpty() && System.nanoTime() - start < maxTimeNs) {
+            PromotionRequest request = ready.poll();
+            if (request.cancelled || request.missing > 0) {
+                continue; // will be added back when the dependencies are loaded
+            }
+            Cube cube = provider.getLoadedCube(request.pos);
+            if (cube == null) {
+                // unloaded while waiting for other cubes
+                waitFor(request, request.pos);
+                continue;
+            }
+            Requirement status = cube.getStatus();
+            if (status.compareTo(request.target) >= 0) {
+                complete(request, cube);
+                continue;
+            }
+            if (status == Requirement.GENERATE) {
+                if (!requestDependencies(request, cube, getPopulationDependencies(cube))) {
+                    continue;
+                }
+                profiler.startSection("populate");
+                provider.populateCube(cube);
+                profiler.endSection();
+                populated++;
+            } else {
+                if (!requestDependencies(request, cube, LIGHT_DEPENDENCIES)) {
+                    continue;
+                }
+                profiler.startSection("light");
+                provider.calculateDiffuseSkylight(cube);
+                profiler.endSection();
+                lit++;
+            }
+            if (cube.getStatus().compareTo(request.target) >= 0) {
+                complete(request, cube);
+            } else {
+                ready.add(request);
+            }
+        }
+
+        this.populatedLastTick = populated;
+        this.litLastTick = lit;
+        this.lastTickTimeNs = System.nanoTime() - start;
+    }
+
+    /**
+     * Population of a cube can write into the cubes around it, and population of the cubes in population requirement
+     * of a cube also writes into them. All of them have to be loaded, otherwise population would generate them.
+     * <p>
+     * When vanilla chunk generators are used, {@link CubeProviderServer#populateCube(Cube)} also populates all cubes
+     * in {@link CubeProviderServer#VANILLA_POPULATION_AREA}, so their dependencies are needed too.
+     */
+    private Box getPopulationDependencies(Cube cube) {
+        Box requirement = provider.getCubeGenerator().getPopulationRequirement(cube);
+        Box dependencies = requirement.add(requirement.negate());
+        if (provider.populatesVanillaChunks()) {
+            dependencies = CubeProviderServer.VANILLA_POPULATION_AREA.add(dependencies);
+        }
+        return dependencies;
+    }
+
+    /**
+     * Queue loading of all unloaded cubes in the box relative to the cube. All the cubes get a ticket until the
+     * request is completed or cancelled, so that they aren't unloaded before they are used.
+     *
+     * @return <code>true</code> if all the cubes are already loaded
+     */
+    private boolean requestDependencies(PromotionRequest request, Cube cube, Box dependencies) {
+        int cubeX = cube.getX();
+        int cubeY = cube.getY();
+        int cubeZ = cube.getZ();
+        dependencies.forEachPoint((dx, dy, dz) -> {
+            Cube dependency = provider.getLoadedCube(cubeX + dx, cubeY + dy, cubeZ + dz);
+            if (dependency == null) {
+                waitFor(request, new CubePos(cubeX + dx, cubeY + dy, cubeZ + dz));
+            } else {
+                request.holdCube(dependency);
+            }
+        });
+        return request.missing == 0;
+    }
+
+    private void waitFor(PromotionRequest request, CubePos pos) {
+        request.missing++;
+        List<PromotionRequest> waiting = waitingFor.get(pos);
+        if (waiting != null) {
+            waiting.add(request);
+            return;
+        }
+        waiting = new ArrayList<>(4);
+        waiting.add(request);
+        waitingFor.put(pos, waiting);
+        provider.asyncGetCube(pos.getX(), pos.getY(), pos.getZ(), Requirement.GENERATE, c -> onDependencyLoaded(pos, c));
+    }
+
+    private void onDependencyLoaded(CubePos pos, @Nullable Cube cube) {
+        List<PromotionRequest> waiting = waitingFor.remove(pos);
+        if (waiting == null) {
+            return;
+        }
+        for (PromotionRequest request : waiting) {
+            request.missing--;
+            if (request.cancelled) {
+                continue;
+            }
+            if (cube == null) {
+                // requesting the cube again would most likely fail again, for example when it's outside of the world
+                fail(request);
+                continue;
+            }
+            request.holdCube(cube);
+            if (request.missing == 0) {
+                ready.add(request);
+            }
+        }
+    }
+
+    /**
+     * Give up promoting the cube of the request, and tell the callbacks it can't be promoted. Other cubes the request
+     * still waits for are ignored when they are loaded.
+     */
+    private void fail(PromotionRequest request) {
+        requests.remove(request.pos);
+        request.cancelled = true;
+        request.releaseCubes();
+        for (Consumer<Cube> callback : request.callbacks) {
+            callback.accept(null);
+        }
+        request.callbacks.clear();
+    }
+
+    private void complete(PromotionRequest request, Cube cube) {
+        requests.remove(request.pos);
+        request.releaseCubes();
+        for (Consumer<Cube> callback : request.callbacks) {
+            callback.accept(cube);
+        }
+        request.callbacks.clear();
+    }
+
+    @Override public String toString() {
+        return String.format("%d cubes to promote (%d ready, %d loading), last tick: %d populated, %d lit in %.2fms",
+                requests.size(), ready.size(), waitingFor.size(), populatedLastTick, litLastTick, lastTickTimeNs / 1e6);
+    }
+
+    private static final class PromotionRequest implements ITicket {
+
+        final CubePos pos;
+        final List<Consumer<Cube>> callbacks = new ArrayList<>(1);
+        // dependencies this request holds a ticket for
+        private final Set<Cube> heldCubes = new HashSet<>();
+        Requirement target;
+        // the number of cubes this request waits for
+        int missing = 0;
+        boolean cancelled = false;
+
+        PromotionRequest(CubePos pos, Requirement target) {
+            this.pos = pos;
+            this.target = target;
+        }
+
+        void holdCube(Cube cube) {
+            if (heldCubes.add(cube)) {
+                cube.getTickets().add(this);
+            }
+        }
+
+        void releaseCubes() {
+            for (Cube cube : heldCubes) {
+                cube.getTickets().remove(this);
+            }
+            heldCubes.clear();
+        }
+
+        @Override public boolean shouldTick() {
+            return false;
+        }
+    }
+}
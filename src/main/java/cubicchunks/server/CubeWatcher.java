@@ -31,7 +31,6 @@ import cubicchunks.lighting.LightingManager;
 import cubicchunks.network.PacketCubeBlockChange;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.network.PacketUnloadCube;
-import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZAddressable;
@@ -64,8 +63,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class CubeWatcher implements XYZAddressable, ITicket {
 
     private final Consumer<Cube> consumer = (c) -> {
+        if (this.invalid) {
+            return; // the cube finished loading after this watcher was removed, don't keep it loaded
+        }
         this.cube = c;
         this.loading = false;
+        this.generating = false;
         if (this.cube != null) {
             this.cube.getTickets().add(this);
         }
@@ -79,6 +82,8 @@ public class CubeWatcher implements XYZAddressable, ITicket {
     private long previousWorldTime = 0;
     private boolean sentToPlayers = false;
     private boolean loading = true;
+    private boolean generating = false;
+    private boolean invalid = false;
 
     // CHECKED: 1.10.2-12.18.1.2092
     CubeWatcher(PlayerCubeMap playerCubeMap, CubePos cubePos) {
@@ -101,6 +106,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
             this.previousWorldTime = this.getWorldTime();
         }
         this.players.put(player.getEntityId(), new WatcherPlayerEntry(player));
+        playerCubeMap.onPlayersChanged(this);
 
         if (this.sentToPlayers) {
             this.sendToPlayer(player);
@@ -118,33 +124,44 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         // If we haven't loaded yet don't load the chunk just so we can clean it up
         if (this.cube == null) {
             this.players.remove(player.getEntityId());
+            playerCubeMap.onPlayersChanged(this);
 
             if (this.players.isEmpty()) {
-                if (loading) {
-                    AsyncWorldIOExecutor.dropQueuedCubeLoad(this.playerCubeMap.getWorld(),
-                            cubePos.getX(), cubePos.getY(), cubePos.getZ(),
-                            c -> this.cube = c);
-                }
+                dropQueuedCube();
+                invalid = true;
                 playerCubeMap.removeEntry(this);
             }
             return;
         }
 
         if (this.sentToPlayers) {
+            playerCubeMap.cancelCubeSend(cube, player);
             PacketDispatcher.sendTo(new PacketUnloadCube(this.cubePos), player);
         }
 
         this.players.remove(player.getEntityId());
+        playerCubeMap.onPlayersChanged(this);
         MinecraftForge.EVENT_BUS.post(new CubeUnWatchEvent(cube, cubePos, this, player));
 
         if (this.players.isEmpty()) {
+            dropQueuedCube();
+            invalid = true;
             playerCubeMap.removeEntry(this);
         }
     }
 
+    private void dropQueuedCube() {
+        if (loading || generating) {
+            cubeCache.dropQueuedCubeLoad(cubePos.getX(), cubePos.getY(), cubePos.getZ(), consumer);
+        }
+        if (generating) {
+            cubeCache.dropQueuedCubeGenerate(cubePos.getX(), cubePos.getY(), cubePos.getZ(), consumer);
+        }
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     boolean providePlayerCube(boolean canGenerate) {
-        if (loading) {
+        if (loading || generating) {
             return false;
         }
         if (this.cube != null && (!canGenerate || (cube.isFullyPopulated() && cube.isInitialLightingDone() && !cube.hasLightUpdates()))) {
@@ -156,12 +173,24 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 
         playerCubeMap.getWorld().getProfiler().startSection("getCube");
         if (canGenerate) {
-            this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT);
+            // generate, populate and light the cube without blocking the server thread.
+            // The consumer will be called when it's done, and pending light updates are processed here next time
+            generating = true;
+            if (this.cube == null) {
+                // loading it already returned null, so it's not on disk
+                this.cubeCache.asyncGetCubeWithoutLoading(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT, consumer);
+            } else {
+                this.cubeCache.asyncGetCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT, consumer);
+            }
+            if (generating) { // the consumer resets it if the cube is already lit
+                playerCubeMap.getWorld().getProfiler().endSection();
+                return false;
+            }
         } else {
             this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LOAD);
-        }
-        if (this.cube != null) {
-            this.cube.getTickets().add(this);
+            if (this.cube != null) {
+                this.cube.getTickets().add(this);
+            }
         }
         playerCubeMap.getWorld().getProfiler().endStartSection("light");
         if (this.cube != null) {
@@ -335,15 +364,28 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         return playerCubeMap.getWorldServer().getWorldTime();
     }
 
+    private boolean isWaitingForCube(EntityPlayerMP player) {
+        return cube != null && playerCubeMap.isCubeSendPending(cube, player);
+    }
+
+    // players still waiting for the whole cube don't need updates, they will get them with the cube
     private void sendPacketToAllPlayers(Packet<?> packet) {
         for (WatcherPlayerEntry entry : this.players.valueCollection()) {
-            entry.player.connection.sendPacket(packet);
+            if (isWaitingForCube(entry.player)) {
+                playerCubeMap.onPendingCubeChanged(cube, entry.player);
+            } else {
+                entry.player.connection.sendPacket(packet);
+            }
         }
     }
 
     public void sendPacketToAllPlayers(IMessage packet) {
         for (WatcherPlayerEntry entry : this.players.valueCollection()) {
-            PacketDispatcher.sendTo(packet, entry.player);
+            if (isWaitingForCube(entry.player)) {
+                playerCubeMap.onPendingCubeChanged(cube, entry.player);
+            } else {
+                PacketDispatcher.sendTo(packet, entry.player);
+            }
         }
     }
 
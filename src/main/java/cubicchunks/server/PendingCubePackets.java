@@ -0,0 +1,140 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.network.EncodedCube;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.BiConsumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cube packets waiting for their cubes to be encoded. Packets to each player are sent in the order they were added, as
+ * soon as all cubes in them are encoded.
+ * <p>
+ * This class is not thread safe, all methods must be called from the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class PendingCubePackets {
+
+    private final Map<EntityPlayerMP, PlayerPackets> players = new HashMap<>();
+    private final BiConsumer<EntityPlayerMP, List<EncodedCube>> sender;
+
+    /**
+     * @param sender sends a packet with the given encoded cubes to the player
+     */
+    PendingCubePackets(BiConsumer<EntityPlayerMP, List<EncodedCube>> sender) {
+        this.sender = sender;
+    }
+
+    void add(EntityPlayerMP player, List<EncodedCube> cubes) {
+        PlayerPackets packets = players.computeIfAbsent(player, p -> new PlayerPackets());
+        packets.batches.add(cubes);
+        for (EncodedCube cube : cubes) {
+            packets.cubes.put(cube.getCube(), cube);
+        }
+    }
+
+    /**
+     * @return true if the cube is in a packet to the player that wasn't sent yet
+     */
+    boolean contains(EntityPlayerMP player, Cube cube) {
+        PlayerPackets packets = players.get(player);
+        return packets != null && packets.cubes.containsKey(cube);
+    }
+
+    /**
+     * Removes the cube from packets to the player that weren't sent yet
+     *
+     * @return true if the cube was removed
+     */
+    boolean cancel(EntityPlayerMP player, Cube cube) {
+        PlayerPackets packets = players.get(player);
+        return packets != null && packets.cubes.remove(cube) != null;
+    }
+
+    void removePlayer(EntityPlayerMP player) {
+        players.remove(player);
+    }
+
+    /**
+     * Sends all packets where all cubes are encoded, unless an earlier packet to the same player is still waiting
+     */
+    void sendEncoded() {
+        Iterator<Map.Entry<EntityPlayerMP, PlayerPackets>> it = players.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<EntityPlayerMP, PlayerPackets> entry = it.next();
+            PlayerPackets packets = entry.getValue();
+            while (!packets.batches.isEmpty() && isEncoded(packets.batches.peek())) {
+                List<EncodedCube> batch = packets.batches.poll();
+                batch.removeIf(cube -> {
+                    if (packets.cubes.get(cube.getCube()) != cube) {
+                        // cancelled, or cancelled and added again in a later packet
+                        return true;
+                    }
+                    packets.cubes.remove(cube.getCube());
+                    if (cube.isFailed()) {
+                        CubicChunks.LOGGER.error("Could not encode cube at {} for {}", cube.getCube().getCoords(), entry.getKey().getName());
+                        return true;
+                    }
+                    return false;
+                });
+                if (!batch.isEmpty()) {
+                    sender.accept(entry.getKey(), batch);
+                }
+            }
+            if (packets.batches.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private static boolean isEncoded(List<EncodedCube> batch) {
+        for (EncodedCube cube : batch) {
+            if (!cube.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class PlayerPackets {
+
+        final Queue<List<EncodedCube>> batches = new ArrayDeque<>();
+        // cubes in batches that weren't cancelled, to the latest encoded version of each
+        final Map<Cube, EncodedCube> cubes = new IdentityHashMap<>();
+    }
+}
@@ -29,20 +29,21 @@ import static net.minecraft.util.math.MathHelper.clamp;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import cubicchunks.CubicChunks;
 import cubicchunks.lighting.LightingManager;
+import cubicchunks.network.CubeEncodingCache;
+import cubicchunks.network.EncodedCube;
 import cubicchunks.network.PacketCubes;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.util.CubePos;
-import cubicchunks.util.WatchersSortingList;
+import cubicchunks.util.WatcherPriorityQueue;
 import cubicchunks.util.XYZMap;
 import cubicchunks.util.XZMap;
 import cubicchunks.visibility.CubeSelector;
 import cubicchunks.visibility.CuboidalCubeSelector;
+import cubicchunks.visibility.EllipsoidalCubeSelector;
+import cubicchunks.visibility.SurfaceOcclusionCubeSelector;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
@@ -61,11 +62,9 @@ import net.minecraftforge.common.ForgeChunkManager;
 import net.minecraftforge.common.ForgeChunkManager.Ticket;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -86,29 +85,11 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
-    /**
-     * Comparator that specifies order in which cubes will be generated and sent to clients
-     */
-    private static final Comparator<CubeWatcher> CUBE_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
-
-    /**
-     * Comparator that specifies order in which columns will be generated and sent to clients
-     */
-    private static final Comparator<ColumnWatcher> COLUMN_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
-
     /**
      * Cube selector is used to find which cube positions need to be loaded/unloaded
-     * By default use CuboidalCubeSelector.
+     * Chosen per dimension by {@link CubicChunks.Config#getCubeSelector(int)}.
      */
-    private final CubeSelector cubeSelector = new CuboidalCubeSelector();
+    private final CubeSelector cubeSelector;
 
     /**
      * Mapping if entityId to PlayerCubeMap.PlayerWrapper objects.
@@ -146,7 +127,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Note that this is not the same as cubesToGenerate list.
      * Cube can be loaded while not being fully generated yet (not in the last GeneratorStageRegistry stage).
      */
-    private final WatchersSortingList<CubeWatcher> cubesToSendToClients = new WatchersSortingList<CubeWatcher>(CUBE_ORDER);
+    private final WatcherPriorityQueue<CubeWatcher> cubesToSendToClients = new WatcherPriorityQueue<>(CubeWatcher::getClosestPlayerDistance);
 
     /**
      * Contains all CubeWatchers that still need to be loaded/generated.
@@ -154,7 +135,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Technically it can generate it, using the world's IGeneratorPipeline,
      * but spectator players can't generate chunks if spectatorsGenerateChunks gamerule is set.
      */
-    private final WatchersSortingList<CubeWatcher> cubesToGenerate = new WatchersSortingList<CubeWatcher>(CUBE_ORDER);
+    private final WatcherPriorityQueue<CubeWatcher> cubesToGenerate = new WatcherPriorityQueue<>(CubeWatcher::getClosestPlayerDistance);
 
     /**
      * Contains all ColumnWatchers that need to be sent to clients,
@@ -163,13 +144,13 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      * Note that this is not the same as columnsToGenerate list.
      * Columns can be loaded while not being fully generated yet
      */
-    private final WatchersSortingList<ColumnWatcher> columnsToSendToClients = new WatchersSortingList<ColumnWatcher>(COLUMN_ORDER);
+    private final WatcherPriorityQueue<ColumnWatcher> columnsToSendToClients = new WatcherPriorityQueue<>(ColumnWatcher::getClosestPlayerDistance);
 
     /**
      * Contains all ColumnWatchers that still need to be loaded/generated.
      * ColumnWatcher constructor attempts to load column from disk, but it won't generate it.
      */
-    private final WatchersSortingList<ColumnWatcher> columnsToGenerate = new WatchersSortingList<ColumnWatcher>(COLUMN_ORDER);
+    private final WatcherPriorityQueue<ColumnWatcher> columnsToGenerate = new WatcherPriorityQueue<>(ColumnWatcher::getClosestPlayerDistance);
 
     private int horizontalViewDistance;
     private int verticalViewDistance;
@@ -179,12 +160,19 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
      */
     private long previousWorldTime = 0;
 
-    private boolean toGenerateNeedSort = true;
-    private boolean toSendToClientNeedSort = true;
+    // players that moved to another cube since the priorities of their watchers were last updated,
+    // separately for the queues to generate and to send as they are updated on different ticks
+    private final Set<EntityPlayerMP> movedBeforeGenerateSort = new HashSet<>();
+    private final Set<EntityPlayerMP> movedBeforeSendSort = new HashSet<>();
 
     private final CubeProviderServer cubeCache;
+    private final CubePrefetcher cubePrefetcher;
 
-    private final Multimap<EntityPlayerMP, Cube> cubesToSend = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
+    // cubes sent to more than one player in a tick are only encoded once
+    private final CubeEncodingCache cubeEncodingCache = new CubeEncodingCache();
+    private final CubeSendScheduler cubeSendScheduler = new CubeSendScheduler(this::encodeCubes);
+    // cube packets are sent once their cubes are encoded by the encoder threads
+    private final PendingCubePackets pendingCubePackets = new PendingCubePackets(this::sendCubes);
     private volatile int maxGeneratedCubesPerTick = CubicChunks.Config.IntOptions.MAX_GENERATED_CUBES_PER_TICK.getValue();
 
     // these player adds will be processed on the next tick
@@ -199,6 +187,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     public PlayerCubeMap(ICubicWorldServer worldServer) {
         super((WorldServer) worldServer);
         this.cubeCache = getWorld().getCubeCache();
+        this.cubeSelector = createCubeSelector(CubicChunks.getConfig().getCubeSelector(getWorld().getProvider().getDimension()), cubeCache);
+        this.cubePrefetcher = new CubePrefetcher(cubeCache, cubeSelector, this::contains);
         this.setPlayerViewDistance(worldServer.getMinecraftServer().getPlayerList().getViewDistance(),
                 ((ICubicPlayerList) worldServer.getMinecraftServer().getPlayerList()).getVerticalViewDistance());
         worldServer.getLightingManager().registerHeightChangeListener(this);
@@ -265,18 +255,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         this.columnWatchersToUpdate.clear();
 
         getWorld().getProfiler().endStartSection("sortToGenerate");
-        //sort toLoadPending if needed, but at most every 4 ticks
-        if (this.toGenerateNeedSort && currentTime % 4L == 0L) {
-            this.toGenerateNeedSort = false;
-            this.cubesToGenerate.sort();
-            this.columnsToGenerate.sort();
+        //update priorities of watchers to generate whose players changed or moved, at most every 4 ticks
+        if (currentTime % 4L == 0L) {
+            updatePriorities(this.cubesToGenerate, this.columnsToGenerate, this.movedBeforeGenerateSort);
         }
         getWorld().getProfiler().endStartSection("sortToSend");
-        //sort cubesToSendToClients every other 4 ticks
-        if (this.toSendToClientNeedSort && currentTime % 4L == 2L) {
-            this.toSendToClientNeedSort = false;
-            this.cubesToSendToClients.sort();
-            this.columnsToSendToClients.sort();
+        //update priorities of cubesToSendToClients every other 4 ticks
+        if (currentTime % 4L == 2L) {
+            updatePriorities(this.cubesToSendToClients, this.columnsToSendToClients, this.movedBeforeSendSort);
         }
 
         getWorld().getProfiler().endStartSection("generate");
@@ -367,13 +353,20 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                     --toSend;
                 } else if (state == CubeWatcher.SendToPlayersResult.WAITING_LIGHT) {
                     if (!cubesToGenerate.contains(playerInstance)) {
-                        cubesToGenerate.appendToStart(playerInstance);
+                        cubesToGenerate.addFirst(playerInstance);
                     }
                 }
             }
             getWorld().getProfiler().endSection(); // cubes
         }
 
+        getWorld().getProfiler().endStartSection("prefetch");
+        List<EntityPlayerMP> playerEntities = new ArrayList<>(this.players.size());
+        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+            playerEntities.add(playerWrapper.playerEntity);
+        }
+        this.cubePrefetcher.tick(playerEntities, horizontalViewDistance, verticalViewDistance);
+
         getWorld().getProfiler().endStartSection("unload");
         //if there are no players - unload everything
         if (this.players.isEmpty()) {
@@ -384,17 +377,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         }
         getWorld().getProfiler().endStartSection("sendCubes");//unload
-        for (EntityPlayerMP player : cubesToSend.keySet()) {
-            Collection<Cube> cubes = cubesToSend.get(player);
-            PacketCubes packet = new PacketCubes(new ArrayList<>(cubes));
-            PacketDispatcher.sendTo(packet, player);
-            //Sending entities per cube.
-            for (Cube cube : cubes) {
-                this.getWorld().getCubicEntityTracker()
-                        .sendLeashedEntitiesInCube(player, cube);
-            }
-        }
-        cubesToSend.clear();
+        this.pendingCubePackets.sendEncoded();
+        this.cubeSendScheduler.tick();
+        // cubes can change before the next batch is sent
+        this.cubeEncodingCache.clear();
         getWorld().getProfiler().endSection();//sendCubes
         getWorld().getProfiler().endSection();//playerCubeMapTick
     }
@@ -428,14 +414,14 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             if (cubeWatcher.getCube() == null ||
                     !cubeWatcher.getCube().isFullyPopulated() ||
                     !cubeWatcher.getCube().isInitialLightingDone()) {
-                this.cubesToGenerate.appendToEnd(cubeWatcher);
+                this.cubesToGenerate.add(cubeWatcher);
             }
             // vanilla has the below check, which causes the cubes to be sent to client too early and sometimes in too big amounts
             // if they are sent too earlu, client won't have the right player position and renderer positions are wrong
             // which cause some cubes to not be rendered
             // DO NOT make it the same as vanilla until it's confirmed that Mojang fixed MC-120079
             //if (!cubeWatcher.sendToPlayers()) {
-                this.cubesToSendToClients.appendToEnd(cubeWatcher);
+                this.cubesToSendToClients.add(cubeWatcher);
             //}
         }
         return cubeWatcher;
@@ -451,10 +437,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             columnWatcher = new ColumnWatcher(this, chunkPos);
             this.columnWatchers.put(columnWatcher);
             if (columnWatcher.getColumn() == null) {
-                this.columnsToGenerate.appendToEnd(columnWatcher);
+                this.columnsToGenerate.add(columnWatcher);
             }
             if (!columnWatcher.sendToPlayers()) {
-                this.columnsToSendToClients.appendToEnd(columnWatcher);
+                this.columnsToSendToClients.add(columnWatcher);
             }
         }
         return columnWatcher;
@@ -514,7 +500,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             cubeWatcher.addPlayer(player);
         });
         this.players.put(player.getEntityId(), playerWrapper);
-        this.setNeedSort();
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -529,7 +514,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         // so we need to use managerPosition there
         CubePos playerCubePos = CubePos.fromEntityCoords(player.managedPosX, playerWrapper.managedPosY, player.managedPosZ);
 
-        this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (cubePos) -> {
+        // the selector may have hidden some of the cubes the player is watching since they were added
+        this.cubeSelector.forAllInRangeOf(playerCubePos, horizontalViewDistance, verticalViewDistance, (cubePos) -> {
 
             // get the watcher
             CubeWatcher watcher = getCubeWatcher(cubePos);
@@ -549,7 +535,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
             }
         });
         this.players.remove(player.getEntityId());
-        this.setNeedSort();
+        this.cubeSendScheduler.removePlayer(player);
+        this.pendingCubePackets.removePlayer(player);
+        this.movedBeforeGenerateSort.remove(player);
+        this.movedBeforeSendSort.remove(player);
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -573,51 +562,46 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
         playerWrapper.updateManagedPos();
-        this.setNeedSort();
+        this.movedBeforeGenerateSort.add(player);
+        this.movedBeforeSendSort.add(player);
     }
 
     private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
         getWorld().getProfiler().startSection("updateMovedPlayer");
-        Set<CubePos> cubesToRemove = new HashSet<>();
-        Set<CubePos> cubesToLoad = new HashSet<>();
-        Set<ChunkPos> columnsToRemove = new HashSet<>();
-        Set<ChunkPos> columnsToLoad = new HashSet<>();
-
-        getWorld().getProfiler().startSection("findChanges");
-        // calculate new visibility
-        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
-                columnsToLoad);
-
-        getWorld().getProfiler().endStartSection("createColumns");
-        //order is important, columns first
-        columnsToLoad.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos);
-            assert columnWatcher.getPos().equals(pos);
-            columnWatcher.addPlayer(entry.playerEntity);
-        });
-        getWorld().getProfiler().endStartSection("createCubes");
-        cubesToLoad.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-            assert cubeWatcher.getCubePos().equals(pos);
-            cubeWatcher.addPlayer(entry.playerEntity);
-        });
-        getWorld().getProfiler().endStartSection("removeCubes");
-        cubesToRemove.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
-            if (cubeWatcher != null) {
-                assert cubeWatcher.getCubePos().equals(pos);
-                cubeWatcher.removePlayer(entry.playerEntity);
-            }
-        });
-        getWorld().getProfiler().endStartSection("removeColumns");
-        columnsToRemove.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
-            if (columnWatcher != null) {
-                assert columnWatcher.getPos().equals(pos);
-                columnWatcher.removePlayer(entry.playerEntity);
-            }
-        });
-        getWorld().getProfiler().endSection();//removeColumns
+        EntityPlayerMP player = entry.playerEntity;
+        // the selector reports columns to load first, then cubes to load, cubes to remove and columns to remove
+        this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance,
+                cubePos -> {
+                    CubeWatcher cubeWatcher = this.cubeWatchers.get(CubePos.unpackX(cubePos), CubePos.unpackY(cubePos), CubePos.unpackZ(cubePos));
+                    if (cubeWatcher != null) {
+                        cubeWatcher.removePlayer(player);
+                    }
+                },
+                cubePos -> {
+                    int x = CubePos.unpackX(cubePos);
+                    int y = CubePos.unpackY(cubePos);
+                    int z = CubePos.unpackZ(cubePos);
+                    CubeWatcher cubeWatcher = this.cubeWatchers.get(x, y, z);
+                    if (cubeWatcher == null) {
+                        cubeWatcher = this.getOrCreateCubeWatcher(new CubePos(x, y, z));
+                    }
+                    cubeWatcher.addPlayer(player);
+                },
+                columnPos -> {
+                    ColumnWatcher columnWatcher = this.columnWatchers.get(CubeSelector.columnX(columnPos), CubeSelector.columnZ(columnPos));
+                    if (columnWatcher != null) {
+                        columnWatcher.removePlayer(player);
+                    }
+                },
+                columnPos -> {
+                    int x = CubeSelector.columnX(columnPos);
+                    int z = CubeSelector.columnZ(columnPos);
+                    ColumnWatcher columnWatcher = this.columnWatchers.get(x, z);
+                    if (columnWatcher == null) {
+                        columnWatcher = this.getOrCreateColumnWatcher(new ChunkPos(x, z));
+                    }
+                    columnWatcher.addPlayer(player);
+                });
         getWorld().getProfiler().endSection();//updateMovedPlayer
     }
 
@@ -634,7 +618,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         CubeWatcher watcher = this.getCubeWatcher(new CubePos(cubeX, cubeY, cubeZ));
         return watcher != null &&
                 watcher.containsPlayer(player) &&
-                watcher.isSentToPlayers();
+                watcher.isSentToPlayers() &&
+                !this.isCubeSendPending(watcher.getCube(), player);
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -700,7 +685,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
                     CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
                     if (cubeWatcher != null && cubeWatcher.containsPlayer(player)) {
                         cubeWatcher.removePlayer(player);
-                    } else {
+                    } else if (!this.cubeSelector.canHideCubes()) {
+                        // with selectors that hide cubes this is normal
                         CubicChunks.LOGGER.warn("cubeWatcher null or doesn't contain player on render distance change");
                     }
                 });
@@ -717,12 +703,74 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
 
         this.horizontalViewDistance = newHorizontalViewDistance;
         this.verticalViewDistance = newVerticalViewDistance;
-        this.setNeedSort();
     }
 
-    private void setNeedSort() {
-        this.toGenerateNeedSort = true;
-        this.toSendToClientNeedSort = true;
+    private static CubeSelector createCubeSelector(int type, CubeProviderServer cubeCache) {
+        switch (type) {
+            case 1:
+                return new EllipsoidalCubeSelector();
+            case 2:
+                return new SurfaceOcclusionCubeSelector(cubeCache);
+            default:
+                return new CuboidalCubeSelector();
+        }
+    }
+
+    /**
+     * Marks the queued watchers of the moved players, and updates priorities of all marked watchers. Watchers of
+     * players that didn't move keep their priority without computing it again.
+     * <p>
+     * Only watchers in view distance of the cube a player is in now are looked up, all watchers of the player are
+     * there.
+     */
+    private void updatePriorities(WatcherPriorityQueue<CubeWatcher> cubes, WatcherPriorityQueue<ColumnWatcher> columns,
+            Set<EntityPlayerMP> movedPlayers) {
+        if (!cubes.isEmpty() || !columns.isEmpty()) {
+            for (EntityPlayerMP player : movedPlayers) {
+                PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+                if (playerWrapper != null) {
+                    markWatchersOf(playerWrapper, cubes, columns);
+                }
+            }
+        }
+        movedPlayers.clear();
+        cubes.updateChanged();
+        columns.updateChanged();
+    }
+
+    private void markWatchersOf(PlayerWrapper playerWrapper, WatcherPriorityQueue<CubeWatcher> cubes,
+            WatcherPriorityQueue<ColumnWatcher> columns) {
+        EntityPlayerMP player = playerWrapper.playerEntity;
+        CubePos pos = playerWrapper.getManagedCubePos();
+        for (int x = pos.getX() - horizontalViewDistance; x <= pos.getX() + horizontalViewDistance; x++) {
+            for (int z = pos.getZ() - horizontalViewDistance; z <= pos.getZ() + horizontalViewDistance; z++) {
+                if (!columns.isEmpty()) {
+                    ColumnWatcher columnWatcher = this.columnWatchers.get(x, z);
+                    if (columnWatcher != null && columnWatcher.containsPlayer(player)) {
+                        columns.markChanged(columnWatcher);
+                    }
+                }
+                if (cubes.isEmpty()) {
+                    continue;
+                }
+                for (int y = pos.getY() - verticalViewDistance; y <= pos.getY() + verticalViewDistance; y++) {
+                    CubeWatcher cubeWatcher = this.cubeWatchers.get(x, y, z);
+                    if (cubeWatcher != null && cubeWatcher.containsPlayer(player)) {
+                        cubes.markChanged(cubeWatcher);
+                    }
+                }
+            }
+        }
+    }
+
+    void onPlayersChanged(CubeWatcher cubeWatcher) {
+        this.cubesToGenerate.markChanged(cubeWatcher);
+        this.cubesToSendToClients.markChanged(cubeWatcher);
+    }
+
+    void onPlayersChanged(ColumnWatcher columnWatcher) {
+        this.columnsToGenerate.markChanged(columnWatcher);
+        this.columnsToSendToClients.markChanged(columnWatcher);
     }
 
     @Override
@@ -767,7 +815,48 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
     }
 
     public void scheduleSendCubeToPlayer(Cube cube, EntityPlayerMP player) {
-        cubesToSend.put(player, cube);
+        cubeSendScheduler.schedule(player, cube);
+    }
+
+    /**
+     * @return true if the cube was scheduled to be sent to the player, but wasn't sent yet
+     */
+    boolean isCubeSendPending(Cube cube, EntityPlayerMP player) {
+        return cubeSendScheduler.isPending(player, cube) || pendingCubePackets.contains(player, cube);
+    }
+
+    void cancelCubeSend(Cube cube, EntityPlayerMP player) {
+        cubeSendScheduler.cancel(player, cube);
+        pendingCubePackets.cancel(player, cube);
+    }
+
+    /**
+     * Called when a cube that is waiting to be sent to the player changes. If the cube is already being encoded, the
+     * change may be missing from the encoded data, so the cube is sent again.
+     */
+    void onPendingCubeChanged(Cube cube, EntityPlayerMP player) {
+        if (pendingCubePackets.cancel(player, cube)) {
+            cubeSendScheduler.reschedule(player, cube);
+        }
+    }
+
+    private void encodeCubes(EntityPlayerMP player, List<Cube> cubes) {
+        List<EncodedCube> encoded = new ArrayList<>(cubes.size());
+        for (Cube cube : cubes) {
+            encoded.add(cubeEncodingCache.encode(cube));
+        }
+        pendingCubePackets.add(player, encoded);
+    }
+
+    private void sendCubes(EntityPlayerMP player, List<EncodedCube> cubes) {
+        PacketCubes packet = new PacketCubes(cubes, cubeEncodingCache);
+        PacketDispatcher.sendTo(packet, player);
+        //Sending entities per cube.
+        for (EncodedCube cube : cubes) {
+            cubeSendScheduler.charge(player, cube.getCube(), cube.getSize());
+            this.getWorld().getCubicEntityTracker()
+                    .sendLeashedEntitiesInCube(player, cube.getCube());
+        }
     }
 
     @Nullable public CubeWatcher getCubeWatcher(CubePos pos) {
@@ -786,6 +875,27 @@ public class PlayerCubeMap extends PlayerChunkMap implements LightingManager.IHe
         return this.cubeWatchers.get(coords.getX(), coords.getY(), coords.getZ()) != null;
     }
 
+    /**
+     * @return squared distance from the cube to the closest player watching it. If no player watches the cube, the
+     * horizontal distance to the closest player watching its column, or {@link Double#MAX_VALUE} if there is none.
+     */
+    public double getClosestWatchingPlayerDistanceSq(int cubeX, int cubeY, int cubeZ) {
+        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
+        if (cubeWatcher != null) {
+            return cubeWatcher.getClosestPlayerDistance();
+        }
+        return getClosestWatchingPlayerDistanceSq(cubeX, cubeZ);
+    }
+
+    /**
+     * @return horizontal squared distance from the column to the closest player watching it, or
+     * {@link Double#MAX_VALUE} if there is none
+     */
+    public double getClosestWatchingPlayerDistanceSq(int columnX, int columnZ) {
+        ColumnWatcher columnWatcher = this.columnWatchers.get(columnX, columnZ);
+        return columnWatcher == null ? Double.MAX_VALUE : columnWatcher.getClosestPlayerDistance();
+    }
+
     private static final class PlayerWrapper {
 
         final EntityPlayerMP playerEntity;
@@ -0,0 +1,212 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.BlockStateData;
+import cubicchunks.util.Coords;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Flat binary cube format. Block data and light are written directly as byte arrays, only entities, tile entities,
+ * scheduled ticks and lighting info are stored as NBT (in the same layout as {@link IONbtWriter#writeSyncPart}).
+ * <p>
+ * Layout:
+ * <pre>
+ * byte     MAGIC
+ * byte     VERSION
+ * int      x, y, z
+ * byte     flags
+ * byte[]   blocks (4096), metadata (2048), add (2048, optional), block light (2048), sky light (2048, optional)
+ *          only if the cube has block storage, if all blocks are the same the block arrays are replaced by the int
+ *          block state id of all blocks
+ * NBT      the rest of the cube, uncompressed
+ * </pre>
+ * The first byte of uncompressed NBT is always a tag type (10 for compound), so {@link #MAGIC} tells the two formats
+ * apart. Cubes stored as NBT are still read and are converted to this format when they are saved again.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class BinaryCubeFormat {
+
+    private static final byte MAGIC = (byte) 0xCB;
+    // version 2 added uniform cubes
+    private static final byte VERSION = 2;
+
+    private static final int FLAG_POPULATED = 1;
+    private static final int FLAG_SURFACE_TRACKED = 1 << 1;
+    private static final int FLAG_FULLY_POPULATED = 1 << 2;
+    private static final int FLAG_INIT_LIGHT_DONE = 1 << 3;
+    private static final int FLAG_HAS_BLOCKS = 1 << 4;
+    private static final int FLAG_HAS_ADD = 1 << 5;
+    private static final int FLAG_HAS_SKY_LIGHT = 1 << 6;
+    private static final int FLAG_UNIFORM_BLOCKS = 1 << 7;
+
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int NIBBLES = BLOCKS / 2;
+
+    static boolean isBinary(ByteBuffer raw) {
+        return raw.hasRemaining() && raw.get(raw.position()) == MAGIC;
+    }
+
+    /**
+     * Serializes a cube snapshot. Can be called from any thread.
+     */
+    static byte[] write(CubeSnapshot cube) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(cube.hasBlocks() ? 16 * 1024 : 512);
+        DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(cube.x);
+            out.writeInt(cube.y);
+            out.writeInt(cube.z);
+
+            int flags = 0;
+            flags |= cube.populated ? FLAG_POPULATED : 0;
+            flags |= cube.surfaceTracked ? FLAG_SURFACE_TRACKED : 0;
+            flags |= cube.fullyPopulated ? FLAG_FULLY_POPULATED : 0;
+            flags |= cube.initialLightingDone ? FLAG_INIT_LIGHT_DONE : 0;
+            if (!cube.hasBlocks()) {
+                out.writeByte(flags);
+            } else {
+                assert cube.blockLight != null;
+                flags |= FLAG_HAS_BLOCKS;
+                flags |= cube.skyLight != null ? FLAG_HAS_SKY_LIGHT : 0;
+
+                int uniformId = cube.getUniformBlockId();
+                if (uniformId >= 0) {
+                    out.writeByte(flags | FLAG_UNIFORM_BLOCKS);
+                    out.writeInt(uniformId);
+                } else {
+                    byte[] blocks = new byte[BLOCKS];
+                    byte[] meta = new byte[NIBBLES];
+                    byte[] add = new byte[NIBBLES];
+                    boolean hasAdd = cube.getBlockData(blocks, meta, add);
+
+                    flags |= hasAdd ? FLAG_HAS_ADD : 0;
+                    out.writeByte(flags);
+
+                    out.write(blocks);
+                    out.write(meta);
+                    if (hasAdd) {
+                        out.write(add);
+                    }
+                }
+                out.write(cube.blockLight);
+                if (cube.skyLight != null) {
+                    out.write(cube.skyLight);
+                }
+            }
+            CompressedStreamTools.write(cube.syncPart, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen when writing to byte array
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * Reads the block data of the cube. The returned {@link ICubeIO.PartialCubeData} contains the NBT part of the cube,
+     * to be read by {@link IONbtReader#readCubeSyncPart}.
+     *
+     * @return the partially read cube, or null if the data is for a different cube
+     */
+    @Nullable
+    static ICubeIO.PartialCubeData readAsyncPart(IColumn column, int cubeY, ByteBuffer raw) throws IOException {
+        ByteBuffer in = raw.duplicate();
+        try {
+            in.get(); // magic
+            byte version = in.get();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Cube has unsupported binary format version " + version);
+            }
+            int x = in.getInt();
+            int y = in.getInt();
+            int z = in.getInt();
+            if (x != column.getX() || y != cubeY || z != column.getZ()) {
+                CubicChunks.LOGGER.error(String.format("Cube is corrupted! Expected (%d,%d,%d) but got (%d,%d,%d). Cube will be regenerated.",
+                        column.getX(), cubeY, column.getZ(), x, y, z));
+                return null;
+            }
+            int flags = in.get() & 0xFF;
+
+            Cube cube = new Cube(column, cubeY);
+            cube.setPopulated((flags & FLAG_POPULATED) != 0);
+            cube.setSurfaceTracked((flags & FLAG_SURFACE_TRACKED) != 0);
+            cube.setFullyPopulated((flags & FLAG_FULLY_POPULATED) != 0);
+            cube.setInitialLightingDone((flags & FLAG_INIT_LIGHT_DONE) != 0);
+
+            if ((flags & FLAG_HAS_BLOCKS) != 0) {
+                boolean hasSkyLight = column.getCubicWorld().getProvider().hasSkyLight();
+                ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSkyLight);
+
+                if ((flags & FLAG_UNIFORM_BLOCKS) != 0) {
+                    BlockStateData.setUniformId(ebs.getData(), in.getInt());
+                } else {
+                    byte[] blocks = readBytes(in, BLOCKS);
+                    NibbleArray meta = new NibbleArray(readBytes(in, NIBBLES));
+                    NibbleArray add = (flags & FLAG_HAS_ADD) != 0 ? new NibbleArray(readBytes(in, NIBBLES)) : null;
+                    ebs.getData().setDataFromNBT(blocks, meta, add);
+                }
+
+                ebs.setBlockLight(new NibbleArray(readBytes(in, NIBBLES)));
+                if ((flags & FLAG_HAS_SKY_LIGHT) != 0) {
+                    byte[] skyLight = readBytes(in, NIBBLES);
+                    if (hasSkyLight) {
+                        ebs.setSkyLight(new NibbleArray(skyLight));
+                    }
+                }
+
+                ebs.recalculateRefCounts();
+                cube.setStorage(ebs);
+            }
+            NBTTagCompound nbt = IONbtReader.readNbt(in);
+            return new ICubeIO.PartialCubeData(cube, nbt);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of cube data", e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int length) {
+        byte[] data = new byte[length];
+        in.get(data);
+        return data;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.BlockStateData;
+import cubicchunks.world.cube.Cube;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable copy of everything needed to save a cube, so that it can be serialized outside of the server thread.
+ * <p>
+ * Taking a snapshot only copies arrays: block states are copied in their palette form using
+ * {@link BlockStateContainer#write(PacketBuffer)}, light arrays are cloned. The exception is entities, tile entities
+ * and scheduled ticks, which can only be safely written to NBT on the server thread.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeSnapshot {
+
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+
+    final int x, y, z;
+    final boolean populated;
+    final boolean surfaceTracked;
+    final boolean fullyPopulated;
+    final boolean initialLightingDone;
+
+    // BlockStateContainer in network format, null if the cube has no block storage
+    @Nullable private final byte[] blockStates;
+    @Nullable final byte[] blockLight;
+    @Nullable final byte[] skyLight;
+    final NBTTagCompound syncPart;
+
+    /**
+     * @param blockStates BlockStateContainer in network format, null if the cube has no block storage
+     * @param syncPart NBT written by {@link IONbtWriter#writeSyncPart}
+     */
+    CubeSnapshot(int x, int y, int z, boolean populated, boolean surfaceTracked, boolean fullyPopulated,
+            boolean initialLightingDone, @Nullable byte[] blockStates, @Nullable byte[] blockLight, @Nullable byte[] skyLight,
+            NBTTagCompound syncPart) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.populated = populated;
+        this.surfaceTracked = surfaceTracked;
+        this.fullyPopulated = fullyPopulated;
+        this.initialLightingDone = initialLightingDone;
+        this.blockStates = blockStates;
+        this.blockLight = blockLight;
+        this.skyLight = skyLight;
+        this.syncPart = syncPart;
+    }
+
+    /**
+     * Must be called from the server thread.
+     */
+    static CubeSnapshot of(Cube cube) {
+        ExtendedBlockStorage ebs = cube.getStorage();
+        byte[] blockStates = null;
+        byte[] blockLight = null;
+        byte[] skyLight = null;
+        if (ebs != null) {
+            BlockStateContainer data = ebs.getData();
+            PacketBuffer buf = new PacketBuffer(Unpooled.buffer(data.getSerializedSize()));
+            data.write(buf);
+            blockStates = buf.array();
+            blockLight = ebs.getBlockLight().getData().clone();
+            NibbleArray sky = cube.getCubicWorld().getProvider().hasSkyLight() ? ebs.getSkyLight() : null;
+            skyLight = sky == null ? null : sky.getData().clone();
+        }
+        return new CubeSnapshot(cube.getX(), cube.getY(), cube.getZ(),
+                cube.isPopulated(), cube.isSurfaceTracked(), cube.isFullyPopulated(), cube.isInitialLightingDone(),
+                blockStates, blockLight, skyLight, IONbtWriter.writeSyncPart(cube));
+    }
+
+    boolean hasBlocks() {
+        return blockStates != null;
+    }
+
+    /**
+     * Converts the block states to the vanilla block id, metadata and add arrays, like
+     * {@link BlockStateContainer#getDataForNBT}.
+     *
+     * @param blockIds 4096 byte array for the low 8 bits of block ids
+     * @param meta 2048 byte nibble array for metadata
+     * @param add 2048 byte nibble array for the high 4 bits of block ids
+     * @return true if any block id needs the add array
+     */
+    boolean getBlockData(byte[] blockIds, byte[] meta, byte[] add) {
+        assert blockStates != null;
+        int[] ids = BlockStateData.readIds(blockStates);
+        boolean hasAdd = false;
+        for (int i = 0; i < BLOCKS; i++) {
+            int id = ids[i];
+            blockIds[i] = (byte) (id >> 4);
+            setNibble(meta, i, id);
+            int addBits = id >> 12 & 0xF;
+            if (addBits != 0) {
+                hasAdd = true;
+                setNibble(add, i, addBits);
+            }
+        }
+        return hasAdd;
+    }
+
+    /**
+     * @return the global block state id of all blocks if they are all the same, -1 otherwise
+     */
+    int getUniformBlockId() {
+        assert blockStates != null;
+        return BlockStateData.getUniformId(blockStates);
+    }
+
+    // same layout as NibbleArray
+    private static void setNibble(byte[] nibbles, int index, int value) {
+        int i = index >> 1;
+        if ((index & 1) == 0) {
+            nibbles[i] = (byte) (nibbles[i] & 0xF0 | value & 0xF);
+        } else {
+            nibbles[i] = (byte) (nibbles[i] & 0x0F | (value & 0xF) << 4);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decompresses GZIP data directly from a heap {@link ByteBuffer}, reusing the {@link Inflater} and output buffer of the
+ * current thread. Equivalent to reading through a {@link java.util.zip.GZIPInputStream}, but without allocating streams
+ * and buffers for each entry.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class GzipDecoder {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    // don't keep huge buffers around after loading an unusually big entry
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<GzipDecoder> DECODERS = ThreadLocal.withInitial(GzipDecoder::new);
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private GzipDecoder() {
+    }
+
+    /**
+     * @return the decompressed data. The returned buffer is reused by the next call on the same thread.
+     */
+    static ByteBuffer decode(ByteBuffer data) throws IOException {
+        return DECODERS.get().inflate(data);
+    }
+
+    private ByteBuffer inflate(ByteBuffer data) throws IOException {
+        if (!data.hasArray()) {
+            byte[] array = new byte[data.remaining()];
+            data.duplicate().get(array);
+            data = ByteBuffer.wrap(array);
+        }
+        byte[] in = data.array();
+        int start = data.arrayOffset() + data.position();
+        int end = start + data.remaining();
+
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        int bodyStart = skipHeader(in, start, end);
+        int length = inflate(in, bodyStart, end);
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    private int inflate(byte[] in, int start, int end) throws IOException {
+        inflater.reset();
+        crc.reset();
+        inflater.setInput(in, start, end - start);
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Unexpected end of compressed data");
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        crc.update(buffer, 0, length);
+
+        int trailer = end - inflater.getRemaining();
+        if (end - trailer < 8) {
+            throw new ZipException("Missing GZIP trailer");
+        }
+        if (readIntLE(in, trailer) != (int) crc.getValue() || readIntLE(in, trailer + 4) != length) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        return length;
+    }
+
+    private static int skipHeader(byte[] in, int pos, int end) throws IOException {
+        if (end - pos < 10 || readShortLE(in, pos) != GZIP_MAGIC || in[pos + 2] != 8) {
+            throw new ZipException("Not in GZIP format");
+        }
+        int flags = in[pos + 3] & 0xFF;
+        pos += 10;
+        if ((flags & FEXTRA) != 0) {
+            pos += 2 + readShortLE(in, pos);
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(in, pos, end);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(in, pos, end);
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos > end) {
+            throw new ZipException("Corrupt GZIP header");
+        }
+        return pos;
+    }
+
+    private static int skipZeroTerminated(byte[] in, int pos, int end) throws IOException {
+        while (pos < end && in[pos] != 0) {
+            pos++;
+        }
+        if (pos == end) {
+            throw new ZipException("Corrupt GZIP header");
+        }
+        return pos + 1;
+    }
+
+    private static int readShortLE(byte[] in, int pos) {
+        return (in[pos] & 0xFF) | (in[pos + 1] & 0xFF) << 8;
+    }
+
+    private static int readIntLE(byte[] in, int pos) {
+        return readShortLE(in, pos) | readShortLE(in, pos + 2) << 16;
+    }
+}
@@ -23,11 +23,15 @@
  */
 package cubicchunks.server.chunkio;
 
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.column.IColumn;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.world.storage.IThreadedFileIO;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -40,12 +44,42 @@ public interface ICubeIO extends IThreadedFileIO {
 
 	@Nullable PartialCubeData loadCubeAsyncPart(IColumn column, int cubeY) throws IOException;
 
+	/**
+	 * Load the async part of many cubes at once. Implementations can use this to load cubes that are stored close to each
+	 * other together. Cubes that can't be loaded are logged and left out of the result.
+	 *
+	 * @param cubes positions of the cubes to load, mapped to their columns
+	 *
+	 * @return partially read cubes that exist
+	 */
+	default Map<CubePos, PartialCubeData> loadCubesAsyncPart(Map<CubePos, IColumn> cubes) {
+		Map<CubePos, PartialCubeData> loaded = new HashMap<>();
+		for (Map.Entry<CubePos, IColumn> entry : cubes.entrySet()) {
+			try {
+				PartialCubeData data = loadCubeAsyncPart(entry.getValue(), entry.getKey().getY());
+				if (data != null) {
+					loaded.put(entry.getKey(), data);
+				}
+			} catch (IOException e) {
+				CubicChunks.LOGGER.error("Could not load cube at {}", entry.getKey(), e);
+			}
+		}
+		return loaded;
+	}
+
 	void loadCubeSyncPart(PartialCubeData info);
 
 	void saveColumn(IColumn column);
 
 	void saveCube(Cube cube);
 
+	/**
+	 * @return Human readable statistics about pending and recent saves, for debugging
+	 */
+	default String getSaveStats() {
+		return "";
+	}
+
 	/**
 	 * Stores partially read cube, before sync read but after async read
 	 */
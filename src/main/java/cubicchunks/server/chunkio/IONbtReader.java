@@ -35,6 +35,8 @@ import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTSizeTracker;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
@@ -45,6 +47,12 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.util.Constants;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -52,6 +60,21 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class IONbtReader {
 
+    /**
+     * @param raw uncompressed binary NBT
+     */
+    static NBTTagCompound readNbt(ByteBuffer raw) throws IOException {
+        InputStream in;
+        if (raw.hasArray()) {
+            in = new ByteArrayInputStream(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+        } else {
+            byte[] array = new byte[raw.remaining()];
+            raw.duplicate().get(array);
+            in = new ByteArrayInputStream(array);
+        }
+        return CompressedStreamTools.read(new DataInputStream(in), NBTSizeTracker.INFINITE);
+    }
+
     @Nullable
     static IColumn readColumn(ICubicWorld world, int x, int z, NBTTagCompound nbt) {
         NBTTagCompound level = nbt.getCompoundTag("Level");
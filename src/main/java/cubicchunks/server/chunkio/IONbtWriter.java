@@ -48,7 +48,9 @@ import net.minecraftforge.event.world.ChunkDataEvent;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -60,12 +62,6 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 class IONbtWriter {
     
-    static byte[] writeNbtBytes(NBTTagCompound nbt) throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        CompressedStreamTools.writeCompressed(nbt, buf);
-        return buf.toByteArray();
-    }
-
     static NBTTagCompound write(IColumn column) {
         NBTTagCompound columnNbt = new NBTTagCompound();
         NBTTagCompound level = new NBTTagCompound();
@@ -80,14 +76,24 @@ class IONbtWriter {
     }
 
     static NBTTagCompound write(final Cube cube) {
+        NBTTagCompound cubeNbt = writeSyncPart(cube);
+        NBTTagCompound level = cubeNbt.getCompoundTag("Level");
+        writeBaseCube(cube, level);
+        writeBlocks(cube, level);
+        return cubeNbt;
+    }
+
+    /**
+     * Writes only the parts of the cube that are read by {@link IONbtReader#readCubeSyncPart}: entities, tile
+     * entities, scheduled ticks and lighting info.
+     */
+    static NBTTagCompound writeSyncPart(final Cube cube) {
         NBTTagCompound cubeNbt = new NBTTagCompound();
         //Added to preserve compatibility with vanilla NBT chunk format.
         NBTTagCompound level = new NBTTagCompound();
         cubeNbt.setTag("Level", level);
         cubeNbt.setInteger("DataVersion", FMLCommonHandler.instance().getDataFixer().version);
         FMLCommonHandler.instance().getDataFixer().writeVersionData(cubeNbt);
-        writeBaseCube(cube, level);
-        writeBlocks(cube, level);
         writeEntities(cube, level);
         writeTileEntities(cube, level);
         writeScheduledTicks(cube, level);
@@ -95,6 +101,19 @@ class IONbtWriter {
         return cubeNbt;
     }
 
+    /**
+     * @return uncompressed binary NBT
+     */
+    static byte[] writeNbtBytes(NBTTagCompound nbt) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            CompressedStreamTools.write(nbt, new DataOutputStream(buf));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen when writing to byte array
+        }
+        return buf.toByteArray();
+    }
+
     private static void writeBaseColumn(IColumn column, NBTTagCompound nbt) {// coords
         nbt.setInteger("x", column.getX());
         nbt.setInteger("z", column.getZ());
@@ -206,7 +225,7 @@ class IONbtWriter {
         cubeNbt.setTag("LightingInfo", lightingInfo);
 
         int[] lastHeightmap = cube.getColumn().getHeightMap();
-        lightingInfo.setIntArray("LastHeightMap", lastHeightmap); //TODO: why are we storing the height map on a Cube???
+        lightingInfo.setIntArray("LastHeightMap", lastHeightmap.clone()); //TODO: why are we storing the height map on a Cube???
         byte edgeNeedSkyLightUpdate = 0;
         for (int i = 0; i < cube.edgeNeedSkyLightUpdate.length; i++) {
             if (cube.edgeNeedSkyLightUpdate[i])
@@ -24,7 +24,6 @@
 package cubicchunks.server.chunkio;
 
 import cubicchunks.CubicChunks;
-import cubicchunks.regionlib.api.region.key.IKey;
 import cubicchunks.regionlib.impl.EntryLocation2D;
 import cubicchunks.regionlib.impl.EntryLocation3D;
 import cubicchunks.regionlib.impl.SaveCubeColumns;
@@ -32,42 +31,55 @@ import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
-import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.storage.ThreadedFileIOBase;
+import net.minecraftforge.common.util.CompoundDataFixer;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.apache.logging.log4j.Logger;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 public class RegionCubeIO implements ICubeIO {
 
-    private static final long kB = 1024;
-    private static final long MB = kB * 1024;
     private static final Logger LOGGER = CubicChunks.LOGGER;
+    // how long a single writeNextIO() call on the Forge IO thread waits for the writer before yielding
+    private static final long WRITE_WAIT_MILLIS = 100;
+    // groups cubes by the 16x16x16 region they are in
+    private static final Comparator<CubePos> REGION_ORDER = Comparator
+            .comparingInt((CubePos p) -> p.getX() >> 4)
+            .thenComparingInt(p -> p.getY() >> 4)
+            .thenComparingInt(p -> p.getZ() >> 4)
+            .thenComparingInt(p -> p.getX() & 15)
+            .thenComparingInt(p -> p.getY() & 15)
+            .thenComparingInt(p -> p.getZ() & 15);
+
+    @Nullable private static volatile NBTBase currentModVersions;
 
     @Nonnull private ICubicWorldServer world;
     @Nonnull private SaveCubeColumns save;
-    @Nonnull private ConcurrentMap<ChunkPos, SaveEntry<EntryLocation2D>> columnsToSave;
-    @Nonnull private ConcurrentMap<CubePos, SaveEntry<EntryLocation3D>> cubesToSave;
-    
+    @Nonnull private RegionCubeWriter writer;
+    private final boolean binaryCubes;
+
     public RegionCubeIO(ICubicWorldServer world) throws IOException {
         this.world = world;
         WorldProvider prov = world.getProvider();
-        
+
         Path path = this.world.getSaveHandler().getWorldDirectory().toPath();
         if (prov.getSaveFolder() != null) {
             path = path.resolve(prov.getSaveFolder());
@@ -75,16 +87,20 @@ public class RegionCubeIO implements ICubeIO {
         this.save = SaveCubeColumns.create(path);
 
         // init chunk save queue
-        this.columnsToSave = new ConcurrentHashMap<>();
-        this.cubesToSave = new ConcurrentHashMap<>();
+        StorageCodec codec = StorageCodec.byId(CubicChunks.Config.IntOptions.STORAGE_CODEC.getValue());
+        this.writer = new RegionCubeWriter(save, codec, path.getFileName().toString());
+        this.binaryCubes = CubicChunks.Config.BoolOptions.USE_BINARY_CUBE_FORMAT.getValue();
     }
 
     @Override public void flush() throws IOException {
-        if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
+        if (!writer.isIdle()) {
             LOGGER.error("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
-            while (this.writeNextIO()) {
-                ;
-            }
+        }
+        try {
+            writer.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving remaining cubes", e);
         }
 
         try {
@@ -92,43 +108,42 @@ public class RegionCubeIO implements ICubeIO {
         } catch (Exception ex) {
             CubicChunks.LOGGER.catching(ex);
         }
-        //if (!this.save.isClosed()) {
-        //	this.db.close();
-        //} else {
-        //	err("DB already closed!");
-        //}
     }
 
     @Override @Nullable public IColumn loadColumn(int chunkX, int chunkZ) throws IOException {
-        NBTTagCompound nbt;
-        SaveEntry<EntryLocation2D> saveEntry;
-        if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null) {
-            nbt = saveEntry.nbt;
-        } else {
+        ByteBuffer raw = writer.getQueuedColumn(new ChunkPos(chunkX, chunkZ));
+        if (raw == null) {
             // IOException makes using Optional impossible :(
             Optional<ByteBuffer> buf = this.save.load(new EntryLocation2D(chunkX, chunkZ));
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            raw = StorageCodec.decode(buf.get());
         }
+        NBTTagCompound nbt = fixData(IONbtReader.readNbt(raw));
         return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
     }
 
     @Override @Nullable public ICubeIO.PartialCubeData loadCubeAsyncPart(IColumn column, int cubeY) throws IOException {
 
-        NBTTagCompound nbt;
-        SaveEntry<EntryLocation3D> saveEntry;
-        if ((saveEntry = this.cubesToSave.get(new CubePos(column.getX(), cubeY, column.getZ()))) != null) {
-            nbt = saveEntry.nbt;
-        } else {
+        ByteBuffer raw = writer.getQueuedCube(new CubePos(column.getX(), cubeY, column.getZ()));
+        if (raw == null) {
             // does the database have the cube?
             Optional<ByteBuffer> buf = this.save.load(new EntryLocation3D(column.getX(), cubeY, column.getZ()));
             if (!buf.isPresent()) {
                 return null;
             }
-            nbt = FMLCommonHandler.instance().getDataFixer().process(FixTypes.CHUNK, CompressedStreamTools.readCompressed(new ByteArrayInputStream(buf.get().array())));
+            raw = StorageCodec.decode(buf.get());
+        }
+
+        if (BinaryCubeFormat.isBinary(raw)) {
+            ICubeIO.PartialCubeData data = BinaryCubeFormat.readAsyncPart(column, cubeY, raw);
+            if (data == null) {
+                return null;
+            }
+            return new ICubeIO.PartialCubeData(data.cube, fixData(data.nbt));
         }
+        NBTTagCompound nbt = fixData(IONbtReader.readNbt(raw));
 
         // restore the cube - async part
         Cube cube = IONbtReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), nbt);
@@ -138,119 +153,101 @@ public class RegionCubeIO implements ICubeIO {
         return new ICubeIO.PartialCubeData(cube, nbt);
     }
 
+    /**
+     * Loads the cubes one by one, grouped by region so that lookups in the same region file follow each other. Each
+     * cube is still a separate lookup in the save, RegionLib doesn't tell where entries are in the file, so they can't
+     * be read in file order.
+     */
+    @Override public Map<CubePos, ICubeIO.PartialCubeData> loadCubesAsyncPart(Map<CubePos, IColumn> cubes) {
+        List<CubePos> sorted = new ArrayList<>(cubes.keySet());
+        sorted.sort(REGION_ORDER);
+        Map<CubePos, ICubeIO.PartialCubeData> loaded = new HashMap<>();
+        for (CubePos pos : sorted) {
+            try {
+                ICubeIO.PartialCubeData data = loadCubeAsyncPart(cubes.get(pos), pos.getY());
+                if (data != null) {
+                    loaded.put(pos, data);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Could not load cube at {}", pos, e);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Runs the data fixer on the given NBT, unless it was written by the current version of Minecraft and all mods, in
+     * which case there is nothing to fix.
+     */
+    private static NBTTagCompound fixData(NBTTagCompound nbt) {
+        CompoundDataFixer fixer = FMLCommonHandler.instance().getDataFixer();
+        if (nbt.getInteger("DataVersion") == fixer.version && Objects.equals(getCurrentModVersions(), nbt.getTag("ForgeDataVersion"))) {
+            return nbt;
+        }
+        return fixer.process(FixTypes.CHUNK, nbt);
+    }
+
+    @Nullable private static NBTBase getCurrentModVersions() {
+        NBTBase versions = currentModVersions;
+        if (versions == null) {
+            // mods can't register fixers after init, so this never changes after first use
+            NBTTagCompound tag = new NBTTagCompound();
+            FMLCommonHandler.instance().getDataFixer().writeVersionData(tag);
+            currentModVersions = versions = tag.getTag("ForgeDataVersion");
+        }
+        return versions;
+    }
+
     @Override public void loadCubeSyncPart(ICubeIO.PartialCubeData info) {
         IONbtReader.readCubeSyncPart(info.cube, world, info.nbt);
     }
 
     @Override public void saveColumn(IColumn column) {
         // NOTE: this function blocks the world thread
-        // make it as fast as possible by offloading processing to the IO thread
+        // make it as fast as possible by offloading processing to the IO threads
         // except we have to write the NBT in this thread to avoid problems
         // with concurrent access to world data structures
 
         // add the column to the save queue
-        this.columnsToSave
-                .put(column.getPos(), new SaveEntry<>(new EntryLocation2D(column.getX(), column.getZ()), IONbtWriter.write(column)));
+        // columns are small, and their NBT references live arrays, so serialize it right away
+        byte[] raw = IONbtWriter.writeNbtBytes(IONbtWriter.write(column));
+        writer.queueColumn(column.getPos(), () -> raw);
         column.markSaved();
 
-        // signal the IO thread to process the save queue
+        // let the Forge IO thread track the save so that waitForFinish() also waits for it
         ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
     }
 
     @Override public void saveCube(Cube cube) {
         // NOTE: this function blocks the world thread, so make it fast
 
-        this.cubesToSave.put(cube.getCoords(), new SaveEntry<>(new EntryLocation3D(cube.getX(), cube.getY(), cube.getZ()), IONbtWriter.write(cube)));
+        if (binaryCubes) {
+            // only copy the data here, it's serialized by the IO threads
+            CubeSnapshot snapshot = CubeSnapshot.of(cube);
+            writer.queueCube(cube.getCoords(), () -> BinaryCubeFormat.write(snapshot));
+        } else {
+            byte[] raw = IONbtWriter.writeNbtBytes(IONbtWriter.write(cube));
+            writer.queueCube(cube.getCoords(), () -> raw);
+        }
         cube.markSaved();
 
-        // signal the IO thread to process the save queue
+        // let the Forge IO thread track the save so that waitForFinish() also waits for it
         ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
     }
 
+    @Override public String getSaveStats() {
+        return writer.getStats();
+    }
+
     @Override
     public boolean writeNextIO() {
+        // NOTE: return true to redo this call
+        // the actual writing happens in RegionCubeWriter, this only keeps the Forge IO thread busy until it's done
         try {
-            // NOTE: return true to redo this call (used for batching)
-
-            final int ColumnsBatchSize = 25;
-            final int CubesBatchSize = 250;
-
-            int numColumnsSaved = 0;
-            int numColumnsRemaining;
-            int numColumnBytesSaved = 0;
-            int numCubesSaved = 0;
-            int numCubesRemaining;
-            int numCubeBytesSaved = 0;
-            long start = System.currentTimeMillis();
-
-            // save a batch of columns
-            Iterator<SaveEntry<EntryLocation2D>> colIt = columnsToSave.values().iterator();
-            for (SaveEntry<EntryLocation2D> entry; colIt.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-                entry = colIt.next();
-                try {
-                    // save the column
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    this.save.save2d(entry.pos, ByteBuffer.wrap(data));
-                    //column can be removed from toSave queue only after writing to disk
-                    //to avoid race conditions
-                    colIt.remove();
-                    numColumnBytesSaved += data.length;
-                } catch (Throwable t) {
-                    LOGGER.error(String.format("Unable to write column (%d, %d)", entry.pos.getEntryX(), entry.pos.getEntryZ()), t);
-                }
-            }
-
-            boolean hasMoreColumns = colIt.hasNext();
-
-            Iterator<SaveEntry<EntryLocation3D>> cubeIt = cubesToSave.values().iterator();
-            // save a batch of cubes
-
-            for (SaveEntry<EntryLocation3D> entry; cubeIt.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-                entry = cubeIt.next();
-                try {
-                    // save the cube
-                    byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-                    try {
-                        this.save.save3d(entry.pos, ByteBuffer.wrap(data));
-                    } finally {
-                        //cube can be removed from toSave queue only after writing to disk
-                        //to avoid race conditions
-                        cubeIt.remove();
-                    }
-
-                    numCubeBytesSaved += data.length;
-                } catch (Throwable t) {
-                    LOGGER.error(
-                            String.format("Unable to write cube %d, %d, %d", entry.pos.getEntryX(), entry.pos.getEntryY(), entry.pos.getEntryZ()), t);
-                }
-            }
-            boolean hasMoreCubes = cubeIt.hasNext();
-
-            numColumnsRemaining = this.columnsToSave.size();
-            numCubesRemaining = this.cubesToSave.size();
-
-            long diff = System.currentTimeMillis() - start;
-            LOGGER.debug("Wrote {} columns ({} remaining) ({}k) and {} cubes ({} remaining) ({}k) in {} ms",
-                    numColumnsSaved, numColumnsRemaining, numColumnBytesSaved / 1024,
-                    numCubesSaved, numCubesRemaining, numCubeBytesSaved / 1024, diff
-            );
-
-            return hasMoreColumns || hasMoreCubes;
-        } catch (Throwable t) {
-            LOGGER.error("Exception occurred when saving cubes", t);
-            return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+            return !writer.awaitIdle(WRITE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return !writer.isIdle();
         }
     }
-
-    private static class SaveEntry<T extends IKey<?>> {
-
-        private final T pos;
-        private final NBTTagCompound nbt;
-
-        SaveEntry(T pos, NBTTagCompound nbt) {
-            this.pos = pos;
-            this.nbt = nbt;
-        }
-    }
-
 }
@@ -0,0 +1,418 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.regionlib.api.region.key.IKey;
+import cubicchunks.regionlib.impl.EntryLocation2D;
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.regionlib.impl.SaveCubeColumns;
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Write-behind queue for cubes and columns. Serialized entries are compressed with the {@link StorageCodec} in
+ * parallel on a shared worker pool, and compressed entries are grouped by region file and written sequentially by one
+ * writer thread per save.
+ * <p>
+ * Entries stay readable through {@link #getQueuedCube(CubePos)} and {@link #getQueuedColumn(ChunkPos)} until they are
+ * written to disk. When an entry is saved again before the previous version is written, only the newest version is
+ * written.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class RegionCubeWriter {
+
+    private static final Logger LOGGER = CubicChunks.LOGGER;
+
+    private static final int MIN_BATCH_SIZE = 64;
+    private static final int MAX_BATCH_SIZE = 4096;
+    // region sizes in entries per axis, as used by RegionLib
+    private static final int REGION_BITS_2D = 5;
+    private static final int REGION_BITS_3D = 4;
+
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final long RATE_WINDOW_NS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final ThreadPoolExecutor compressionPool;
+
+    static {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        compressionPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "Cube Compression Thread #" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        compressionPool.allowCoreThreadTimeOut(true);
+    }
+
+    private final EntryWriter<EntryLocation2D> columnWriter;
+    private final EntryWriter<EntryLocation3D> cubeWriter;
+    private final StorageCodec codec;
+    private final String name;
+
+    private final ConcurrentMap<ChunkPos, SaveEntry<ChunkPos, EntryLocation2D>> columnsToSave = new ConcurrentHashMap<>();
+    private final ConcurrentMap<CubePos, SaveEntry<CubePos, EntryLocation3D>> cubesToSave = new ConcurrentHashMap<>();
+
+    // compressed entries, grouped by region
+    private final ConcurrentMap<Long, Queue<SaveEntry<ChunkPos, EntryLocation2D>>> compressedColumns = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Queue<SaveEntry<CubePos, EntryLocation3D>>> compressedCubes = new ConcurrentHashMap<>();
+
+    // entries queued but not yet written or dropped
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger compressingCount = new AtomicInteger();
+
+    private final Object lock = new Object();
+    @Nullable private Thread writerThread;
+    private boolean stopRequested;
+
+    // statistics
+    private final AtomicLong totalBytesWritten = new AtomicLong();
+    private final AtomicLong totalEntriesWritten = new AtomicLong();
+    private final long[] latencySamples = new long[LATENCY_SAMPLES];
+    private int latencySampleCount;
+    private int latencySampleIndex;
+    private long rateWindowStart = System.nanoTime();
+    private long rateWindowBytes;
+    private volatile long bytesPerSecond;
+
+    RegionCubeWriter(SaveCubeColumns save, StorageCodec codec, String name) {
+        this(save::save2d, save::save3d, codec, name);
+    }
+
+    RegionCubeWriter(EntryWriter<EntryLocation2D> columnWriter, EntryWriter<EntryLocation3D> cubeWriter, StorageCodec codec,
+            String name) {
+        this.columnWriter = columnWriter;
+        this.cubeWriter = cubeWriter;
+        this.codec = codec;
+        this.name = name;
+    }
+
+    /**
+     * @return uncompressed data of the column, if it's waiting to be written
+     */
+    @Nullable ByteBuffer getQueuedColumn(ChunkPos pos) {
+        SaveEntry<ChunkPos, EntryLocation2D> entry = columnsToSave.get(pos);
+        return entry == null ? null : ByteBuffer.wrap(entry.getRaw());
+    }
+
+    /**
+     * @return uncompressed data of the cube, if it's waiting to be written
+     */
+    @Nullable ByteBuffer getQueuedCube(CubePos pos) {
+        SaveEntry<CubePos, EntryLocation3D> entry = cubesToSave.get(pos);
+        return entry == null ? null : ByteBuffer.wrap(entry.getRaw());
+    }
+
+    /**
+     * @param serializer produces uncompressed data of the column, called once from any thread
+     */
+    void queueColumn(ChunkPos key, Supplier<byte[]> serializer) {
+        EntryLocation2D location = new EntryLocation2D(key.x, key.z);
+        long region = regionKey(key.x >> REGION_BITS_2D, 0, key.z >> REGION_BITS_2D);
+        queue(new SaveEntry<>(key, location, serializer, region), columnsToSave, compressedColumns);
+    }
+
+    /**
+     * @param serializer produces uncompressed data of the cube, called once from any thread
+     */
+    void queueCube(CubePos key, Supplier<byte[]> serializer) {
+        EntryLocation3D location = new EntryLocation3D(key.getX(), key.getY(), key.getZ());
+        long region = regionKey(key.getX() >> REGION_BITS_3D, key.getY() >> REGION_BITS_3D, key.getZ() >> REGION_BITS_3D);
+        queue(new SaveEntry<>(key, location, serializer, region), cubesToSave, compressedCubes);
+    }
+
+    private <K, T extends IKey<?>> void queue(SaveEntry<K, T> entry, ConcurrentMap<K, SaveEntry<K, T>> toSave,
+            ConcurrentMap<Long, Queue<SaveEntry<K, T>>> compressed) {
+        toSave.put(entry.key, entry);
+        pendingCount.incrementAndGet();
+        compressingCount.incrementAndGet();
+        ensureWriterRunning();
+        compressionPool.execute(() -> {
+            try {
+                if (toSave.get(entry.key) != entry) {
+                    entryDone(); // saved again in the meantime, only write the newest version
+                    return;
+                }
+                entry.data = codec.encode(entry.getRaw());
+                // add inside compute() so that the writer never removes a queue that is being added to
+                compressed.compute(entry.region, (r, queue) -> {
+                    if (queue == null) {
+                        queue = new ConcurrentLinkedQueue<>();
+                    }
+                    queue.add(entry);
+                    return queue;
+                });
+            } catch (Throwable t) {
+                LOGGER.error("Unable to compress {}", entry.location, t);
+                toSave.remove(entry.key, entry);
+                entryDone();
+            } finally {
+                compressingCount.decrementAndGet();
+                signal();
+            }
+        });
+    }
+
+    private void ensureWriterRunning() {
+        synchronized (lock) {
+            if (writerThread != null) {
+                return;
+            }
+            stopRequested = false;
+            writerThread = new Thread(this::runWriter, "Cube Writer Thread (" + name + ")");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            synchronized (lock) {
+                while (compressedColumns.isEmpty() && compressedCubes.isEmpty()) {
+                    if (stopRequested && pendingCount.get() == 0) {
+                        writerThread = null;
+                        lock.notifyAll();
+                        return;
+                    }
+                    try {
+                        lock.wait(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        writerThread = null;
+                        return;
+                    }
+                }
+            }
+            try {
+                writeBatch();
+            } catch (Throwable t) {
+                LOGGER.error("Exception occurred when saving cubes", t);
+            }
+            signal();
+        }
+    }
+
+    /**
+     * Writes whole regions until at least the current batch size is reached. The batch size grows with the number of
+     * entries waiting so that the writer keeps up under load, but stays small when the queue is short.
+     */
+    private void writeBatch() {
+        int batchSize = Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, pendingCount.get() / 4));
+        long start = System.nanoTime();
+
+        int[] columnStats = writeRegions(compressedColumns, columnsToSave, columnWriter, batchSize);
+        int[] cubeStats = writeRegions(compressedCubes, cubesToSave, cubeWriter, batchSize);
+
+        long end = System.nanoTime();
+        updateRate(columnStats[1] + cubeStats[1], end);
+        LOGGER.debug("{}: wrote {} columns ({}k) and {} cubes ({}k) in {} ms, {}", name,
+                columnStats[0], columnStats[1] / 1024, cubeStats[0], cubeStats[1] / 1024, (end - start) / 1000000, getStats());
+    }
+
+    /**
+     * @return number of entries and number of bytes written
+     */
+    private <K, T extends IKey<?>> int[] writeRegions(ConcurrentMap<Long, Queue<SaveEntry<K, T>>> compressed,
+            ConcurrentMap<K, SaveEntry<K, T>> toSave, EntryWriter<T> writer, int batchSize) {
+        int written = 0;
+        int bytes = 0;
+        List<SaveEntry<K, T>> regionEntries = new ArrayList<>();
+        Iterator<Long> it = compressed.keySet().iterator();
+        while (it.hasNext() && written < batchSize) {
+            // compression threads will create a new queue for this region if needed
+            Queue<SaveEntry<K, T>> queue = compressed.remove(it.next());
+            if (queue == null) {
+                continue;
+            }
+            regionEntries.clear();
+            SaveEntry<K, T> entry;
+            while ((entry = queue.poll()) != null) {
+                regionEntries.add(entry);
+            }
+            for (SaveEntry<K, T> e : regionEntries) {
+                try {
+                    // a newer version may have been queued after this one was compressed
+                    if (toSave.get(e.key) == e) {
+                        assert e.data != null;
+                        writer.write(e.location, ByteBuffer.wrap(e.data));
+                        written++;
+                        bytes += e.data.length;
+                        addLatencySample(System.nanoTime() - e.queuedNanos);
+                    }
+                } catch (Throwable t) {
+                    LOGGER.error("Unable to write {}", e.location, t);
+                } finally {
+                    // can be removed from toSave queue only after writing to disk to avoid race conditions
+                    toSave.remove(e.key, e);
+                    entryDone();
+                }
+            }
+        }
+        totalEntriesWritten.addAndGet(written);
+        totalBytesWritten.addAndGet(bytes);
+        return new int[]{written, bytes};
+    }
+
+    private void entryDone() {
+        pendingCount.decrementAndGet();
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until all queued entries are written, or the timeout runs out.
+     *
+     * @return <code>true</code> if there is nothing left to write
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            long remaining;
+            while (pendingCount.get() != 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                lock.wait(remaining);
+            }
+            return pendingCount.get() == 0;
+        }
+    }
+
+    /**
+     * Writes all queued entries and stops the writer thread. It will be started again if anything is queued later.
+     */
+    void flush() throws InterruptedException {
+        synchronized (lock) {
+            stopRequested = true;
+            lock.notifyAll();
+            while (writerThread != null) {
+                lock.wait(1000);
+            }
+        }
+    }
+
+    boolean isIdle() {
+        return pendingCount.get() == 0;
+    }
+
+    private synchronized void addLatencySample(long nanos) {
+        latencySamples[latencySampleIndex] = nanos;
+        latencySampleIndex = (latencySampleIndex + 1) % LATENCY_SAMPLES;
+        latencySampleCount = Math.min(latencySampleCount + 1, LATENCY_SAMPLES);
+    }
+
+    private synchronized void updateRate(int bytes, long now) {
+        rateWindowBytes += bytes;
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= RATE_WINDOW_NS) {
+            bytesPerSecond = rateWindowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            rateWindowBytes = 0;
+            rateWindowStart = now;
+        }
+    }
+
+    /**
+     * @return Queue depth, write throughput and save latency percentiles for the most recent writes
+     */
+    synchronized String getStats() {
+        long[] sorted = Arrays.copyOf(latencySamples, latencySampleCount);
+        Arrays.sort(sorted);
+        return String.format("save queue: %d pending (%d compressing), %d kB/s, %d written (%d kB), latency p50/p95/p99: %.1f/%.1f/%.1f ms",
+                pendingCount.get(), compressingCount.get(), bytesPerSecond / 1024,
+                totalEntriesWritten.get(), totalBytesWritten.get() / 1024,
+                percentileMillis(sorted, 0.5), percentileMillis(sorted, 0.95), percentileMillis(sorted, 0.99));
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) (sorted.length * percentile));
+        return sorted[index] / 1e6;
+    }
+
+    private static long regionKey(int x, int y, int z) {
+        return ((long) x & 0x1FFFFF) << 42 | ((long) y & 0x1FFFFF) << 21 | ((long) z & 0x1FFFFF);
+    }
+
+    @FunctionalInterface
+    interface EntryWriter<T> {
+
+        void write(T location, ByteBuffer data) throws IOException;
+    }
+
+    private static class SaveEntry<K, T extends IKey<?>> {
+
+        private final K key;
+        private final T location;
+        // serialized lazily, either by compression threads or by a load of the queued entry
+        @Nullable private Supplier<byte[]> serializer;
+        @Nullable private byte[] raw;
+        private final long region;
+        private final long queuedNanos = System.nanoTime();
+        @Nullable private volatile byte[] data;
+
+        SaveEntry(K key, T location, Supplier<byte[]> serializer, long region) {
+            this.key = key;
+            this.location = location;
+            this.serializer = serializer;
+            this.region = region;
+        }
+
+        synchronized byte[] getRaw() {
+            if (raw == null) {
+                assert serializer != null;
+                raw = serializer.get();
+                serializer = null;
+            }
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import cubicchunks.util.Lz4Block;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encoding used for cubes and columns stored on disk. Codecs only deal with bytes, the data itself is either
+ * uncompressed NBT or a cube in {@link BinaryCubeFormat}.
+ * <p>
+ * {@link #GZIP} entries are plain GZIP compressed data, exactly like in older versions. All other codecs write a 2 byte
+ * header: {@link #HEADER_MAGIC} followed by the codec id. GZIP data always starts with 0x1f, so both kinds of entries
+ * can be told apart and a world can contain any mix of them.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public enum StorageCodec {
+    GZIP(0) {
+        @Override byte[] encode(byte[] raw) throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(raw.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(buf, 8192)) {
+                out.write(raw);
+            }
+            return buf.toByteArray();
+        }
+    },
+    LZ4(1) {
+        @Override byte[] encode(byte[] raw) throws IOException {
+            byte[] out = new byte[HEADER_SIZE + 4 + Lz4Block.maxCompressedLength(raw.length)];
+            writeHeader(out);
+            ByteBuffer.wrap(out, HEADER_SIZE, 4).putInt(raw.length);
+            int end = Lz4Block.compress(raw, raw.length, out, HEADER_SIZE + 4);
+            return Arrays.copyOf(out, end);
+        }
+    },
+    NONE(2) {
+        @Override byte[] encode(byte[] raw) throws IOException {
+            byte[] out = new byte[HEADER_SIZE + raw.length];
+            writeHeader(out);
+            System.arraycopy(raw, 0, out, HEADER_SIZE, raw.length);
+            return out;
+        }
+    };
+
+    private static final byte HEADER_MAGIC = (byte) 0xCC;
+    private static final int HEADER_SIZE = 2;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> DECODE_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private final byte id;
+
+    StorageCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    abstract byte[] encode(byte[] raw) throws IOException;
+
+    /**
+     * @param id the codec id, as used in the config
+     * @return the codec with that id, or {@link #GZIP} if there is none
+     */
+    public static StorageCodec byId(int id) {
+        for (StorageCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return GZIP;
+    }
+
+    /**
+     * Decodes an entry written by any of the codecs.
+     *
+     * @return the decoded data. The returned buffer may be reused by the next call on the same thread.
+     */
+    static ByteBuffer decode(ByteBuffer data) throws IOException {
+        if (data.remaining() < HEADER_SIZE || data.get(data.position()) != HEADER_MAGIC) {
+            return GzipDecoder.decode(data);
+        }
+        byte codecId = data.get(data.position() + 1);
+
+        if (codecId == NONE.id) {
+            ByteBuffer raw = data.duplicate();
+            raw.position(raw.position() + HEADER_SIZE);
+            return raw.slice();
+        }
+        if (codecId == LZ4.id) {
+            if (!data.hasArray()) {
+                byte[] array = new byte[data.remaining()];
+                data.duplicate().get(array);
+                data = ByteBuffer.wrap(array);
+            }
+            byte[] in = data.array();
+            int start = data.arrayOffset() + data.position();
+            int end = start + data.remaining();
+            int length = ByteBuffer.wrap(in, start + HEADER_SIZE, 4).getInt();
+            if (length < 0) {
+                throw new IOException("Invalid uncompressed length " + length);
+            }
+            byte[] buffer = DECODE_BUFFER.get();
+            if (buffer.length < length) {
+                buffer = new byte[Integer.highestOneBit(length - 1) << 1];
+                if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+                    DECODE_BUFFER.set(buffer);
+                }
+            }
+            Lz4Block.decompress(in, start + HEADER_SIZE + 4, end, buffer, length);
+            return ByteBuffer.wrap(buffer, 0, length);
+        }
+        throw new IOException("Unknown storage codec " + codecId);
+    }
+
+    void writeHeader(byte[] out) {
+        out[0] = HEADER_MAGIC;
+        out[1] = id;
+    }
+}
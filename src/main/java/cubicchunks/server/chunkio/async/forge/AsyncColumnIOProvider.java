@@ -61,6 +61,10 @@ class AsyncColumnIOProvider extends AsyncIOProvider<IColumn> {
         runCallbacks();
     }
 
+    @Override double computePriority() {
+        return AsyncWorldIOExecutor.getWatchingPlayerDistanceSq(colInfo.world, colInfo.x, colInfo.z);
+    }
+
     @Nullable @Override IColumn get() {
         return column;
     }
@@ -19,13 +19,15 @@
 
 package cubicchunks.server.chunkio.async.forge;
 
-import cubicchunks.CubicChunks;
 import cubicchunks.server.chunkio.ICubeIO;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
 
-import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
@@ -52,19 +54,33 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
     }
 
     @Override
-    public synchronized void run() {
+    public void run() {
+        if (!claim()) {
+            // already loaded together with another cube from the same region
+            return;
+        }
+        List<AsyncCubeIOProvider> batch = AsyncWorldIOExecutor.claimRegionBatch(this);
         try {
-            cubeData = this.loader.loadCubeAsyncPart(futureColumn.get(), this.cubeInfo.y);
-        } catch (IOException e) {
-            CubicChunks.LOGGER
-                    .error("Could not load cube in {} @ ({}, {}, {})", this.cubeInfo.world, this.cubeInfo.x, this.cubeInfo.y, this.cubeInfo.z, e);
+            Map<CubePos, IColumn> request = new HashMap<>();
+            IColumn column = futureColumn.get();
+            if (column != null) {
+                request.put(getPos(), column);
+            }
+            for (AsyncCubeIOProvider other : batch) {
+                request.put(other.getPos(), other.futureColumn.getNow(null));
+            }
+            Map<CubePos, ICubeIO.PartialCubeData> loaded = this.loader.loadCubesAsyncPart(request);
+            cubeData = loaded.get(getPos());
+            for (AsyncCubeIOProvider other : batch) {
+                other.cubeData = loaded.get(other.getPos());
+            }
         } catch (InterruptedException e) {
             throw new Error(e);
         } catch (ExecutionException e) {
             throw new RuntimeException(e);
         } finally {
-            this.finished = true;
-            this.notifyAll();
+            this.finish();
+            batch.forEach(AsyncIOProvider::finish);
         }
     }
 
@@ -81,11 +97,32 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
         this.runCallbacks();
     }
 
+    @Override double computePriority() {
+        double distance = AsyncWorldIOExecutor.getWatchingPlayerDistanceSq(cubeInfo.world, cubeInfo.x, cubeInfo.y, cubeInfo.z);
+        // a cube waiting for its column would only block the thread, prefer any cube that can be loaded right away
+        return futureColumn.isDone() ? distance : distance + AsyncWorldIOExecutor.COLUMN_NOT_LOADED_PENALTY;
+    }
+
     @Nullable @Override
     public Cube get() {
         return cubeData == null ? null : cubeData.getCube();
     }
 
+    QueuedCube getCubeInfo() {
+        return cubeInfo;
+    }
+
+    /**
+     * @return true if this cube can be loaded without waiting for its column
+     */
+    boolean isColumnReady() {
+        return futureColumn.getNow(null) != null;
+    }
+
+    private CubePos getPos() {
+        return new CubePos(cubeInfo.x, cubeInfo.y, cubeInfo.z);
+    }
+
     public void setColumn(@Nullable IColumn IColumn) {
         this.futureColumn.complete(IColumn);
     }
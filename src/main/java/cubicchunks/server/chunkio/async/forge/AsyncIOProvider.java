@@ -21,7 +21,10 @@ package cubicchunks.server.chunkio.async.forge;
 
 import mcp.MethodsReturnNonnullByDefault;
 
+import java.util.Comparator;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -35,8 +38,21 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 abstract class AsyncIOProvider<T> implements Runnable {
 
+    /**
+     * Orders tasks by priority, then by the order in which they were created.
+     */
+    static final Comparator<Runnable> PRIORITY_ORDER = Comparator
+            .comparingDouble((Runnable r) -> ((AsyncIOProvider<?>) r).priority)
+            .thenComparingLong(r -> ((AsyncIOProvider<?>) r).order);
+
+    private static final AtomicLong orderCounter = new AtomicLong();
+
     private final ConcurrentLinkedQueue<Consumer<T>> callbacks = new ConcurrentLinkedQueue<>();
     volatile boolean finished = false;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final long order = orderCounter.getAndIncrement();
+    // lower is more important. Only changed while the task isn't in an executor queue
+    private volatile double priority;
 
     /**
      * Add a callback to this access group, to be executed when the load finishes
@@ -79,6 +95,31 @@ abstract class AsyncIOProvider<T> implements Runnable {
         return finished;
     }
 
+    /**
+     * Mark this task as taken by a thread that will load it. A task can be claimed only once, so that it isn't loaded
+     * twice when it's loaded together with other tasks.
+     *
+     * @return <code>true</code> if the calling thread should load this task
+     */
+    boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    /**
+     * @return <code>true</code> if a thread has already taken this task
+     */
+    boolean isClaimed() {
+        return claimed.get();
+    }
+
+    /**
+     * Mark this task as finished and wake up threads waiting for it
+     */
+    synchronized void finish() {
+        this.finished = true;
+        this.notifyAll();
+    }
+
     /**
      * Check if any callbacks are registered as waiting for this load.
      *
@@ -88,6 +129,18 @@ abstract class AsyncIOProvider<T> implements Runnable {
         return !callbacks.isEmpty();
     }
 
+    /**
+     * Recalculate the priority of this task. Must not be called while the task is in a priority queue.
+     */
+    void updatePriority() {
+        this.priority = computePriority();
+    }
+
+    /**
+     * @return priority of this task, lower values are loaded first
+     */
+    abstract double computePriority();
+
     /**
      * Finalize the loading operating synchronously from the main thread.
      */
@@ -25,29 +25,35 @@ import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import cubicchunks.CubicChunks;
 import cubicchunks.server.CubeProviderServer;
+import cubicchunks.server.PlayerCubeMap;
 import cubicchunks.server.chunkio.ICubeIO;
 import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.server.MinecraftServer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
-import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -60,15 +66,22 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @Mod.EventBusSubscriber
 public class AsyncWorldIOExecutor {
 
-    private static final int BASE_THREADS = 1;
-    private static final int PLAYERS_PER_THREAD = 50;
+    // loading is mostly waiting for disk and decompression, more threads than that don't help.
+    // The queues are unbounded, so a pool never starts more threads than its core size, which is set to this.
+    // Idle threads time out.
+    private static final int MAX_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // how often queued tasks are re-sorted as players move, in ticks
+    private static final int PRIORITY_UPDATE_INTERVAL = 10;
+    static final double COLUMN_NOT_LOADED_PENALTY = 1e12;
+    // upper limit of cubes loaded together with a task, so that a single thread doesn't hold back too many cubes
+    private static final int MAX_REGION_BATCH = 64;
 
     private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = Maps.newConcurrentMap();
     private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
 
     private static final AtomicInteger threadCounter = new AtomicInteger();
-    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+    private static final ThreadPoolExecutor cubeThreadPool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(64, AsyncIOProvider.PRIORITY_ORDER),
 
             // Sponge start: Use lambda
             r -> {
@@ -81,8 +94,8 @@ public class AsyncWorldIOExecutor {
 
     // use separate thread pool for cubes and columns to avoid situation where only cube tasks are being executed
     // all waiting for their columns
-    private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(),
+    private static final ThreadPoolExecutor columnThreadPool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(64, AsyncIOProvider.PRIORITY_ORDER),
 
             // Sponge start: Use lambda
             r -> {
@@ -93,11 +106,22 @@ public class AsyncWorldIOExecutor {
             // Sponge end
     );
 
+    static {
+        cubeThreadPool.allowCoreThreadTimeOut(true);
+        columnThreadPool.allowCoreThreadTimeOut(true);
+    }
+
+    // queued cube tasks by the 16x16x16 region they are stored in, so that a worker can load other cubes from the same
+    // region file in one pass. Keys are QueuedCubes with region coordinates
+    private static final Map<QueuedCube, Set<AsyncCubeIOProvider>> queuedCubesByRegion = Maps.newConcurrentMap();
+
     // this keeps track of which columns need to be kept loaded for which currently being loaded cubes
     // this allows to avoid a column being unloaded while a cube that uses it is being loaded, which would lead to hard to debug errors
     private static final Multimap<QueuedColumn, QueuedCube> loadingCubesColumnMap =
             Multimaps.newMultimap(new ConcurrentHashMap<>(), Sets::newConcurrentHashSet);
 
+    private static int ticksSincePriorityUpdate;
+
     /**
      * Load a cube, directly.
      *
@@ -116,7 +140,9 @@ public class AsyncWorldIOExecutor {
         QueuedCube key = new QueuedCube(cubeX, cubeY, cubeZ, world);
         AsyncCubeIOProvider task = cubeTasks.remove(key); // Remove task because we will call the sync callbacks directly
         if (task != null) {
+            task.setColumn(column);
             runTask(task);
+            onCubeTaskRemoved(key);
         } else {
             task = new AsyncCubeIOProvider(key, loader);
             task.setColumn(column);
@@ -169,22 +195,21 @@ public class AsyncWorldIOExecutor {
      * Uses the given ThreadPoolExecutor.
      */
     private static void runTask(ThreadPoolExecutor executor, AsyncIOProvider task) {
-        if (!executor.remove(task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
+        if (executor.remove(task)) {
+            // If the task was not run yet we still need to load the Cube
+            task.run();
+        }
+        // If it was already taken by an async thread, possibly together with other cubes, wait for it to finish
+        synchronized (task) // Warn incorrect - task shared via map
         {
-            synchronized (task) // Warn incorrect - task shared via map
-            {
-                while (!task.isFinished()) {
-                    try {
-                        task.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("Failed to wait for cube/column load", e);
-                    }
+            while (!task.isFinished()) {
+                try {
+                    task.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Failed to wait for cube/column load", e);
                 }
             }
-        } else {
-            // If the task was not run yet we still need to load the Cube
-            task.run();
         }
     }
 
@@ -215,21 +240,22 @@ public class AsyncWorldIOExecutor {
         if (task == null) {
             task = new AsyncCubeIOProvider(key, loader);
             task.addCallback(runnable); // Add before calling execute for thread safety
-            task.addCallback(c -> loadingCubesColumnMap.remove(columnKey, key));// add only the first time
             cubeTasks.put(key, task);
+
+            IColumn loadedIColumn;
+            if ((loadedIColumn = cache.getLoadedColumn(x, z)) == null) {
+                cache.asyncGetColumn(x, z, IProviderExtras.Requirement.LIGHT, task::setColumn);
+            } else {
+                //it's already there, tell the task to use it
+                task.setColumn(loadedIColumn);
+            }
+            task.updatePriority();
+            queuedCubesByRegion.computeIfAbsent(regionOf(key), k -> Sets.newConcurrentHashSet()).add(task);
             cubeThreadPool.execute(task);
         } else {
             task.addCallback(runnable);
         }
 
-        IColumn loadedIColumn;
-        if ((loadedIColumn = cache.getLoadedColumn(x, z)) == null) {
-            cache.asyncGetColumn(x, z, IProviderExtras.Requirement.LIGHT, task::setColumn);
-        } else {
-            //it's already there, tell the task to use it
-            task.setColumn(loadedIColumn);
-        }
-
     }
 
     /**
@@ -248,6 +274,7 @@ public class AsyncWorldIOExecutor {
             task = new AsyncColumnIOProvider(key, loader, ((CubeProviderServer) world.getCubeCache()).getCubeGenerator());
             task.addCallback(runnable); // Add before calling execute for thread safety
             columnTasks.put(key, task);
+            task.updatePriority();
             columnThreadPool.execute(task);
         } else {
             task.addCallback(runnable);
@@ -273,10 +300,8 @@ public class AsyncWorldIOExecutor {
 
         task.removeCallback(runnable);
 
-        // TODO this is not threadsafe
         if (!task.hasCallbacks()) {
-            cubeTasks.remove(key);
-            cubeThreadPool.remove(task);
+            cancelCubeTask(key, task);
         }
     }
 
@@ -299,8 +324,7 @@ public class AsyncWorldIOExecutor {
         task.removeCallback(runnable);
 
         if (!task.hasCallbacks()) {
-            columnTasks.remove(key);
-            columnThreadPool.remove(task);
+            cancelColumnTask(key, task);
         }
 
         //TODO: remove all queued cube tasks for that column
@@ -310,13 +334,15 @@ public class AsyncWorldIOExecutor {
      * Run a synchronous tick, finishing the loading process for load tasks that are ready
      */
     public static void tick() {
-        Iterator<AsyncCubeIOProvider> cubeItr = cubeTasks.values().iterator();
+        Iterator<Map.Entry<QueuedCube, AsyncCubeIOProvider>> cubeItr = cubeTasks.entrySet().iterator();
         while (cubeItr.hasNext()) {
-            AsyncCubeIOProvider task = cubeItr.next();
+            Map.Entry<QueuedCube, AsyncCubeIOProvider> entry = cubeItr.next();
+            AsyncCubeIOProvider task = entry.getValue();
             if (task.isFinished()) {
                 task.runSynchronousPart();
 
                 cubeItr.remove();
+                onCubeTaskRemoved(entry.getKey());
             }
         }
 
@@ -329,38 +355,136 @@ public class AsyncWorldIOExecutor {
                 columnIter.remove();
             }
         }
+
+        if (++ticksSincePriorityUpdate >= PRIORITY_UPDATE_INTERVAL) {
+            ticksSincePriorityUpdate = 0;
+            updatePriorities(cubeThreadPool, cubeTasks, (key, task) -> {
+                onCubeTaskRemoved(key);
+                removeFromRegionQueue(task);
+            });
+            updatePriorities(columnThreadPool, columnTasks, (key, task) -> {});
+        }
     }
 
     /**
-     * Resize async loading pool thread count when players join or leave
-     *
-     * @param players New player count
+     * Re-sorts tasks still waiting in the executor queue by their current distance to players, and cancels tasks nothing
+     * is waiting for anymore. Tasks can't change priority while in the queue, so they are all taken out and put back.
      */
-    private static void adjustPoolSize(int players) {
-        cubeThreadPool.setCorePoolSize(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+    private static <K, T extends AsyncIOProvider<?>> void updatePriorities(ThreadPoolExecutor executor, Map<K, T> tasks,
+            BiConsumer<K, T> onCancel) {
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        if (queue.isEmpty()) {
+            return;
+        }
+        List<Runnable> queued = new ArrayList<>(queue.size());
+        queue.drainTo(queued);
+        Set<Runnable> cancelled = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Runnable r : queued) {
+            AsyncIOProvider<?> task = (AsyncIOProvider<?>) r;
+            if (task.isClaimed()) {
+                // already loaded together with another task, running it would do nothing
+                cancelled.add(task);
+            } else if (task.hasCallbacks()) {
+                task.updatePriority();
+            } else {
+                cancelled.add(task);
+            }
+        }
+        queued.removeAll(cancelled);
+        queue.addAll(queued);
+
+        if (!cancelled.isEmpty()) {
+            tasks.entrySet().removeIf(e -> {
+                if (cancelled.contains(e.getValue()) && !e.getValue().isClaimed()) {
+                    onCancel.accept(e.getKey(), e.getValue());
+                    return true;
+                }
+                return false;
+            });
+        }
     }
 
-    public static boolean canDropColumn(ICubicWorld world, int x, int z) {
-        return !loadingCubesColumnMap.containsKey(new QueuedColumn(x, z, world));
+    private static void cancelCubeTask(QueuedCube key, AsyncCubeIOProvider task) {
+        if (cubeThreadPool.remove(task)) {
+            cubeTasks.remove(key);
+            onCubeTaskRemoved(key);
+            removeFromRegionQueue(task);
+        }
+        // otherwise it's already being loaded, let it finish so that the cube isn't loaded twice
     }
 
-    // Resize thread pool based on player count
-    @SubscribeEvent
-    public static void onPlayerLoggedIn(@Nonnull PlayerEvent.PlayerLoggedInEvent evt) {
-        MinecraftServer server = evt.player.getServer();
-        if (server != null) {
-            adjustPoolSize(server.getCurrentPlayerCount());
+    /**
+     * Claims up to {@link #MAX_REGION_BATCH} other queued cube tasks stored in the same region as the given task, so that
+     * they can be loaded together with it. Tasks still waiting for their column are skipped.
+     *
+     * @param task the task that is about to be loaded
+     *
+     * @return claimed tasks, not including the given one
+     */
+    static List<AsyncCubeIOProvider> claimRegionBatch(AsyncCubeIOProvider task) {
+        QueuedCube region = regionOf(task.getCubeInfo());
+        Set<AsyncCubeIOProvider> queued = queuedCubesByRegion.get(region);
+        if (queued == null) {
+            return Collections.emptyList();
         }
+        queued.remove(task);
+        List<AsyncCubeIOProvider> batch = new ArrayList<>();
+        for (AsyncCubeIOProvider other : queued) {
+            if (batch.size() >= MAX_REGION_BATCH) {
+                break;
+            }
+            if (other.isColumnReady() && other.claim()) {
+                queued.remove(other);
+                batch.add(other);
+            }
+        }
+        queuedCubesByRegion.computeIfPresent(region, (k, v) -> v.isEmpty() ? null : v);
+        return batch;
     }
 
-    @SubscribeEvent
-    public static void onPlayerLoggedOut(@Nonnull PlayerEvent.PlayerLoggedOutEvent evt) {
-        MinecraftServer server = evt.player.getServer();
-        if (server != null) {
-            adjustPoolSize(server.getCurrentPlayerCount());
+    private static void removeFromRegionQueue(AsyncCubeIOProvider task) {
+        QueuedCube region = regionOf(task.getCubeInfo());
+        Set<AsyncCubeIOProvider> queued = queuedCubesByRegion.get(region);
+        if (queued != null) {
+            queued.remove(task);
+            queuedCubesByRegion.computeIfPresent(region, (k, v) -> v.isEmpty() ? null : v);
+        }
+    }
+
+    private static QueuedCube regionOf(QueuedCube cube) {
+        return new QueuedCube(cube.x >> 4, cube.y >> 4, cube.z >> 4, cube.world);
+    }
+
+    private static void cancelColumnTask(QueuedColumn key, AsyncColumnIOProvider task) {
+        if (columnThreadPool.remove(task)) {
+            columnTasks.remove(key);
         }
     }
 
+    private static void onCubeTaskRemoved(QueuedCube key) {
+        loadingCubesColumnMap.remove(new QueuedColumn(key.x, key.z, key.world), key);
+    }
+
+    /**
+     * @return squared distance from the cube to the closest player waiting for it, see
+     * {@link PlayerCubeMap#getClosestWatchingPlayerDistanceSq(int, int, int)}. Must be called from the server thread.
+     */
+    static double getWatchingPlayerDistanceSq(ICubicWorld world, int cubeX, int cubeY, int cubeZ) {
+        return ((ICubicWorldServer) world).getPlayerCubeMap().getClosestWatchingPlayerDistanceSq(cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * @return horizontal squared distance from the column to the closest player waiting for it, see
+     * {@link PlayerCubeMap#getClosestWatchingPlayerDistanceSq(int, int)}. Must be called from the server thread.
+     */
+    static double getWatchingPlayerDistanceSq(ICubicWorld world, int columnX, int columnZ) {
+        return ((ICubicWorldServer) world).getPlayerCubeMap().getClosestWatchingPlayerDistanceSq(columnX, columnZ);
+    }
+
+    public static boolean canDropColumn(ICubicWorld world, int x, int z) {
+        return !loadingCubesColumnMap.containsKey(new QueuedColumn(x, z, world));
+    }
+
     // Sync completion of loading
     @SubscribeEvent
     public static void onWorldTick(TickEvent.WorldTickEvent evt) {
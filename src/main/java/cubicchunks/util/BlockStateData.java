@@ -0,0 +1,154 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Reads block states in the format written by {@link BlockStateContainer#write(PacketBuffer)}, without creating a
+ * BlockStateContainer. Can be used from any thread. Also fills containers with a single block state.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class BlockStateData {
+
+    private static final int BLOCKS = 16 * 16 * 16;
+    private static final int NIBBLES = BLOCKS / 2;
+
+    private BlockStateData() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * @param data block states in network format
+     * @return global block state ids of all blocks, in BlockStateContainer index order
+     */
+    public static int[] readIds(byte[] data) {
+        int[] ids = new int[BLOCKS];
+        read(data, ids);
+        return ids;
+    }
+
+    /**
+     * @param data block states in network format
+     * @return global block state id of all blocks if they are all the same, -1 otherwise
+     */
+    public static int getUniformId(byte[] data) {
+        return read(data, null);
+    }
+
+    /**
+     * Sets all blocks in the container to the same state, without looking up the palette for each block. Unlike the
+     * rest of this class, this must only be used by the thread that owns the container.
+     *
+     * @param data the container to fill
+     * @param id global block state id
+     */
+    public static void setUniformId(BlockStateContainer data, int id) {
+        byte[] blocks = new byte[BLOCKS];
+        Arrays.fill(blocks, (byte) (id >> 4));
+        NibbleArray meta = new NibbleArray(filledNibbles(id));
+        NibbleArray add = (id >> 12 & 0xF) != 0 ? new NibbleArray(filledNibbles(id >> 12)) : null;
+        data.setDataFromNBT(blocks, meta, add);
+    }
+
+    private static byte[] filledNibbles(int value) {
+        byte[] nibbles = new byte[NIBBLES];
+        Arrays.fill(nibbles, (byte) ((value & 0xF) * 0x11));
+        return nibbles;
+    }
+
+    /**
+     * Decodes the block state ids into out, or if out is null checks if all ids are the same.
+     *
+     * @return the id of all blocks, or -1 if they are not all the same
+     */
+    private static int read(byte[] data, @Nullable int[] out) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int bits = in.get() & 0xFF;
+
+        int paletteSize = readVarInt(in);
+        int[] palette = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = readVarInt(in);
+        }
+        long[] storage = new long[readVarInt(in)];
+        for (int i = 0; i < storage.length; i++) {
+            storage[i] = in.getLong();
+        }
+
+        long mask = (1L << bits) - 1;
+        int first = -1;
+        for (int i = 0; i < BLOCKS; i++) {
+            int value = getAt(storage, bits, mask, i);
+            // an empty palette means values are global ids
+            int id = paletteSize == 0 ? value : palette[value];
+            if (out != null) {
+                out[i] = id;
+            }
+            if (i == 0) {
+                first = id;
+            } else if (id != first) {
+                if (out == null) {
+                    return -1;
+                }
+                first = -1;
+            }
+        }
+        return first;
+    }
+
+    // same as BitArray.getAt
+    private static int getAt(long[] storage, int bits, long mask, int index) {
+        long bitIndex = (long) index * bits;
+        int start = (int) (bitIndex >> 6);
+        int end = (int) (((long) (index + 1) * bits - 1) >> 6);
+        int offset = (int) (bitIndex ^ (long) start << 6);
+        if (start == end) {
+            return (int) (storage[start] >>> offset & mask);
+        }
+        return (int) ((storage[start] >>> offset | storage[end] << (64 - offset)) & mask);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -43,6 +43,20 @@ public class Box {
         this.z2 = z2;
     }
 
+    /**
+     * Returns a box containing all points that are a sum of a point in this box and a point in the other box.
+     */
+    public Box add(Box other) {
+        return new Box(x1 + other.x1, y1 + other.y1, z1 + other.z1, x2 + other.x2, y2 + other.y2, z2 + other.z2);
+    }
+
+    /**
+     * Returns a box containing all points of this box, negated.
+     */
+    public Box negate() {
+        return new Box(-x2, -y2, -z2, -x1, -y1, -z1);
+    }
+
     public void forEachPoint(XYZFunction function) {
         for (int x = x1; x <= x2; x++) {
             for (int y = y1; y <= y2; y++) {
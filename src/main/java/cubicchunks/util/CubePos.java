@@ -280,4 +280,31 @@ public class CubePos {
     public static CubePos fromBlockCoords(BlockPos pos) {
         return CubePos.fromBlockCoords(pos.getX(), pos.getY(), pos.getZ());
     }
+
+    /**
+     * Packs cube coordinates into a long, for use where allocating a CubePos for each position would be too slow.
+     *
+     * @return The packed position, unpacked by {@link #unpackX(long)}, {@link #unpackY(long)} and {@link #unpackZ(long)}
+     */
+    public static long asLong(int cubeX, int cubeY, int cubeZ) {
+        return Bits.packSignedToLong(cubeX, X_BITS, X_BIT_OFFSET)
+                | Bits.packSignedToLong(cubeY, Y_BITS, Y_BIT_OFFSET)
+                | Bits.packSignedToLong(cubeZ, Z_BITS, Z_BIT_OFFSET);
+    }
+
+    public static int unpackX(long packed) {
+        return Bits.unpackSigned(packed, X_BITS, X_BIT_OFFSET);
+    }
+
+    public static int unpackY(long packed) {
+        return Bits.unpackSigned(packed, Y_BITS, Y_BIT_OFFSET);
+    }
+
+    public static int unpackZ(long packed) {
+        return Bits.unpackSigned(packed, Z_BITS, Z_BIT_OFFSET);
+    }
+
+    public static CubePos fromLong(long packed) {
+        return new CubePos(unpackX(packed), unpackY(packed), unpackZ(packed));
+    }
 }
@@ -0,0 +1,201 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A minimal implementation of the LZ4 block format. The compressor is a simple single-pass greedy matcher, which
+ * compresses worse than the reference implementation but is fast, and its output can be read by any LZ4 decoder.
+ * <p>
+ * Used both for saved cubes and for cubes sent to clients.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class Lz4Block {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    // the last match must start at least 12 bytes before the end of input
+    private static final int MF_LIMIT = 12;
+    // the last 5 bytes are always literals
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    private Lz4Block() {
+        throw new Error();
+    }
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses <code>src[0..srcLen)</code> into <code>dst</code> starting at <code>dstOff</code>, which must have at
+     * least {@link #maxCompressedLength(int)} bytes of space.
+     *
+     * @return the end offset of compressed data in <code>dst</code>
+     */
+    public static int compress(byte[] src, int srcLen, byte[] dst, int dstOff) {
+        int[] table = HASH_TABLE.get();
+        Arrays.fill(table, -1);
+
+        int anchor = 0;
+        int dp = dstOff;
+        if (srcLen > MF_LIMIT) {
+            int limit = srcLen - MF_LIMIT;
+            int matchLimit = srcLen - LAST_LITERALS;
+            int pos = 0;
+            while (pos < limit) {
+                int seq = readInt(src, pos);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = pos;
+                if (ref < 0 || pos - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    // skip faster through incompressible data
+                    pos += 1 + ((pos - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+                while (pos > anchor && ref > 0 && src[pos - 1] == src[ref - 1]) {
+                    pos--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (pos + matchLen < matchLimit && src[pos + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                dp = writeSequence(src, anchor, pos - anchor, dst, dp, pos - ref, matchLen);
+                pos += matchLen;
+                anchor = pos;
+            }
+        }
+        // last literals
+        int literals = srcLen - anchor;
+        dp = writeLiteralLength(dst, dp, literals, 0);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        return dp + literals;
+    }
+
+    /**
+     * Decompresses <code>src[srcOff..srcEnd)</code> into <code>dst</code>, which must be exactly the size of the
+     * uncompressed data.
+     */
+    public static void decompress(byte[] src, int srcOff, int srcEnd, byte[] dst, int dstLen) throws IOException {
+        int sp = srcOff;
+        int dp = 0;
+        try {
+            while (true) {
+                int token = src[sp++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 0xF) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        literals += b;
+                    } while (b == 0xFF);
+                }
+                if (literals > srcEnd - sp || literals > dstLen - dp) {
+                    throw new IOException("Malformed LZ4 data: literals out of bounds");
+                }
+                System.arraycopy(src, sp, dst, dp, literals);
+                sp += literals;
+                dp += literals;
+                if (sp == srcEnd) {
+                    break;
+                }
+                int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+                sp += 2;
+                int matchLen = token & 0xF;
+                if (matchLen == 0xF) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 0xFF);
+                }
+                matchLen += MIN_MATCH;
+                int ref = dp - offset;
+                if (offset == 0 || ref < 0 || matchLen > dstLen - dp) {
+                    throw new IOException("Malformed LZ4 data: match out of bounds");
+                }
+                // can't use arraycopy, the match may overlap with its own output
+                for (int end = dp + matchLen; dp < end; ) {
+                    dst[dp++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 data: unexpected end of input", e);
+        }
+        if (dp != dstLen) {
+            throw new IOException("Malformed LZ4 data: expected " + dstLen + " bytes, got " + dp);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int litOff, int literals, byte[] dst, int dp, int offset, int matchLen) {
+        int matchCode = matchLen - MIN_MATCH;
+        dp = writeLiteralLength(dst, dp, literals, Math.min(matchCode, 0xF));
+        System.arraycopy(src, litOff, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        if (matchCode >= 0xF) {
+            dp = writeLength(dst, dp, matchCode - 0xF);
+        }
+        return dp;
+    }
+
+    private static int writeLiteralLength(byte[] dst, int dp, int literals, int matchToken) {
+        if (literals >= 0xF) {
+            dst[dp++] = (byte) (0xF0 | matchToken);
+            return writeLength(dst, dp, literals - 0xF);
+        }
+        dst[dp++] = (byte) (literals << 4 | matchToken);
+        return dp;
+    }
+
+    private static int writeLength(byte[] dst, int dp, int length) {
+        while (length >= 0xFF) {
+            dst[dp++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 | (buf[pos + 2] & 0xFF) << 16 | (buf[pos + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import cubicchunks.world.cube.Cube;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Priority queue of cube and column watchers, ordered by squared distance to the closest player.
+ * <p>
+ * Elements are kept in buckets of equal squared distance (in cubes), so adding, removing and re-keying an element is
+ * O(1) and no comparisons are needed. Elements in the same bucket are in no particular order. The key of an element is
+ * computed when it's added, and only computed again by {@link #update(Object)}, {@link #updateChanged()} and
+ * {@link #updateAll()}. Elements whose players changed or moved to another cube should be passed to
+ * {@link #markChanged(Object)}, so that {@link #updateChanged()} only needs to look at them.
+ * <p>
+ * Elements may be added and removed while iterating. Elements added to a bucket that was already passed by the iterator
+ * are not visited, and removing elements other than the current one with {@link #remove(Object)} may cause an element to
+ * be skipped. Both will be handled in the next iteration.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@SuppressWarnings("unchecked")
+public class WatcherPriorityQueue<T> implements Iterable<T> {
+
+    /** Bucket for elements added with {@link #addFirst(Object)} */
+    private static final int FIRST_BUCKET = 0;
+    /** Bucket for elements that are further away than any view distance, or have no players */
+    private static final int LAST_BUCKET = 4096;
+    private static final double BLOCKS_PER_BUCKET = Cube.SIZE * Cube.SIZE;
+    private static final long NOT_CONTAINED = -1;
+
+    private final ToDoubleFunction<T> distanceSq;
+
+    private final Object[][] buckets = new Object[LAST_BUCKET + 1][];
+    private final int[] bucketSizes = new int[LAST_BUCKET + 1];
+    /** Bucket and index of each element, packed into a long */
+    private final TObjectLongMap<T> positions = new TObjectLongHashMap<>(64, 0.5f, NOT_CONTAINED);
+    /** No bucket below this one contains elements */
+    private int minBucket = LAST_BUCKET + 1;
+    /** Elements to update in the next {@link #updateChanged()} */
+    private final Set<T> changed = new HashSet<>();
+
+    /**
+     * @param distanceSq Function returning squared distance in blocks between an element and the closest player
+     */
+    public WatcherPriorityQueue(ToDoubleFunction<T> distanceSq) {
+        this.distanceSq = distanceSq;
+    }
+
+    /**
+     * Add element with priority based on its current distance.
+     *
+     * @throws IllegalArgumentException if queue already contains such element.
+     */
+    public void add(T element) {
+        addToBucket(element, bucketFor(element));
+    }
+
+    /**
+     * Add element with the highest priority, until it's updated.
+     *
+     * @throws IllegalArgumentException if queue already contains such element.
+     */
+    public void addFirst(T element) {
+        addToBucket(element, FIRST_BUCKET);
+    }
+
+    /** Remove element if it is contained in the queue. */
+    public void remove(T element) {
+        long pos = positions.remove(element);
+        if (pos != NOT_CONTAINED) {
+            removeAt(bucket(pos), index(pos));
+            changed.remove(element);
+        }
+    }
+
+    /**
+     * Remove such elements {@code a} whom return {@code true} on call {@code predicate.test(a)}.
+     */
+    public void removeIf(Predicate<T> predicate) {
+        Iterator<T> it = iterator();
+        while (it.hasNext()) {
+            if (predicate.test(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /** @return {@code true} if queue contains element. */
+    public boolean contains(T element) {
+        return positions.containsKey(element);
+    }
+
+    public boolean isEmpty() {
+        return positions.isEmpty();
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * @return element with the highest priority, or null if the queue is empty
+     */
+    @Nullable public T peek() {
+        for (int b = minBucket; b <= LAST_BUCKET; b++) {
+            if (bucketSizes[b] > 0) {
+                minBucket = b;
+                return (T) buckets[b][0];
+            }
+        }
+        return null;
+    }
+
+    /** Recompute priority of the given element, if it's in the queue. */
+    public void update(T element) {
+        long pos = positions.get(element);
+        if (pos == NOT_CONTAINED) {
+            return;
+        }
+        int newBucket = bucketFor(element);
+        if (newBucket != bucket(pos)) {
+            positions.remove(element);
+            removeAt(bucket(pos), index(pos));
+            addToBucket(element, newBucket);
+        }
+    }
+
+    /**
+     * Mark element to have its priority recomputed by the next {@link #updateChanged()}. Does nothing if the element isn't
+     * in the queue.
+     */
+    public void markChanged(T element) {
+        if (positions.containsKey(element)) {
+            changed.add(element);
+        }
+    }
+
+    /** Recompute priorities of elements marked with {@link #markChanged(Object)} since the last call. */
+    public void updateChanged() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        // elements removed since they were marked are ignored by update
+        for (T element : changed) {
+            update(element);
+        }
+        changed.clear();
+    }
+
+    /** Recompute priorities of all elements. */
+    public void updateAll() {
+        changed.clear();
+        for (int b = minBucket; b <= LAST_BUCKET; b++) {
+            Object[] bucket = buckets[b];
+            // elements moved to later buckets are checked again there, which is cheap as their key doesn't change
+            for (int i = 0; i < bucketSizes[b]; ) {
+                T element = (T) bucket[i];
+                int newBucket = bucketFor(element);
+                if (newBucket == b) {
+                    i++;
+                    continue;
+                }
+                positions.remove(element);
+                removeAt(b, i);
+                addToBucket(element, newBucket);
+            }
+        }
+    }
+
+    /**
+     * Return iterator over elements of the queue, from the highest priority to the lowest. The iterator supports
+     * removing elements.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            int bucket = minBucket;
+            int index = 0;
+            @Nullable T current = null;
+
+            private boolean findNext() {
+                while (bucket <= LAST_BUCKET && index >= bucketSizes[bucket]) {
+                    bucket++;
+                    index = 0;
+                }
+                return bucket <= LAST_BUCKET;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return findNext();
+            }
+
+            @Override
+            public T next() {
+                if (!findNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = (T) buckets[bucket][index++];
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                T element = current;
+                current = null;
+                long pos = positions.get(element);
+                if (pos == NOT_CONTAINED) {
+                    return;
+                }
+                positions.remove(element);
+                removeAt(bucket(pos), index(pos));
+                changed.remove(element);
+                if (bucket(pos) == bucket && index(pos) < index) {
+                    // the last element of the bucket was moved into the removed slot, visit it next
+                    index--;
+                }
+            }
+        };
+    }
+
+    private int bucketFor(T element) {
+        double dist = distanceSq.applyAsDouble(element) / BLOCKS_PER_BUCKET;
+        // the first bucket is reserved for elements added with addFirst
+        return dist >= LAST_BUCKET - 2 ? LAST_BUCKET : (int) dist + 1;
+    }
+
+    private void addToBucket(T element, int b) {
+        if (positions.containsKey(element)) {
+            throw new IllegalArgumentException("Queue already contains element " + element);
+        }
+        Object[] bucket = buckets[b];
+        int size = bucketSizes[b];
+        if (bucket == null) {
+            bucket = buckets[b] = new Object[16];
+        } else if (size == bucket.length) {
+            Object[] newBucket = new Object[size * 2];
+            System.arraycopy(bucket, 0, newBucket, 0, size);
+            bucket = buckets[b] = newBucket;
+        }
+        bucket[size] = element;
+        bucketSizes[b] = size + 1;
+        positions.put(element, position(b, size));
+        if (b < minBucket) {
+            minBucket = b;
+        }
+    }
+
+    /** Removes the element at the given position, moving the last element of the bucket in its place. */
+    private void removeAt(int b, int index) {
+        Object[] bucket = buckets[b];
+        int last = --bucketSizes[b];
+        if (index != last) {
+            T moved = (T) bucket[last];
+            bucket[index] = moved;
+            positions.put(moved, position(b, index));
+        }
+        bucket[last] = null;
+    }
+
+    private static long position(int bucket, int index) {
+        return (long) bucket << 32 | index;
+    }
+
+    private static int bucket(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int index(long position) {
+        return (int) position;
+    }
+}
@@ -25,46 +25,52 @@ package cubicchunks.util.cache;
 
 import mcp.MethodsReturnNonnullByDefault;
 
-import java.util.function.Function;
-import java.util.function.ToIntFunction;
+import java.util.function.IntBinaryOperator;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * A cache keyed by 2 int coordinates, packed into a long, so that lookups don't allocate a key object.
+ * <p>
+ * Not thread safe.
+ */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class HashCache<K, V> {
+public class HashCache2d<V> {
 
     private final V[] cache;
-    private final K[] keys;
-    private final ToIntFunction<K> hashFunction;
-    private final Function<K, V> source;
+    private final long[] keys;
+    private final boolean[] present;
+    private final IntBinaryOperator hashFunction;
+    private final Source<V> source;
 
-    @SuppressWarnings("uncecked")
-    private HashCache(int size, ToIntFunction<K> hashCode, Function<K, V> source) {
+    @SuppressWarnings("unchecked")
+    private HashCache2d(int size, IntBinaryOperator hashCode, Source<V> source) {
         this.cache = (V[]) new Object[size];
-        this.keys = (K[]) new Object[size];
+        this.keys = new long[size];
+        this.present = new boolean[size];
         this.hashFunction = hashCode;
         this.source = source;
     }
 
-    public V get(K key) {
-        int index = index(hashFunction.applyAsInt(key));
-        if (!key.equals(keys[index])) {
+    public V get(int x, int z) {
+        long key = (long) x << 32 | (z & 0xFFFFFFFFL);
+        int index = Math.floorMod(hashFunction.applyAsInt(x, z), cache.length);
+        if (!present[index] || keys[index] != key) {
+            cache[index] = source.get(x, z);
             keys[index] = key;
-            cache[index] = source.apply(key);
+            present[index] = true;
         }
         return cache[index];
     }
 
-    private int index(int hash) {
-        return Math.floorMod(hash, cache.length);
+    public static <V> HashCache2d<V> create(int size, IntBinaryOperator hashCode, Source<V> source) {
+        return new HashCache2d<>(size, hashCode, source);
     }
 
-    public static <K, V> HashCache<K, V> create(int size, Function<K, V> source) {
-        return create(size, k -> k.hashCode(), source);
-    }
+    @FunctionalInterface
+    public interface Source<V> {
 
-    public static <K, V> HashCache<K, V> create(int size, ToIntFunction<K> hashCode, Function<K, V> source) {
-        return new HashCache<>(size, hashCode, source);
+        V get(int x, int z);
     }
 }
@@ -0,0 +1,95 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util.cache;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A cache of doubles keyed by 2 int coordinates, packed into a long, so that lookups don't allocate a key
+ * object.
+ * <p>
+ * Not thread safe.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class HashCacheDoubles2d {
+
+    private final double[] cache;
+    private final long[] keys;
+    private final boolean[] present;
+    private final IntBinaryOperator hashFunction;
+    private final Source source;
+
+    private HashCacheDoubles2d(int size, IntBinaryOperator hashCode, Source source) {
+        this.cache = new double[size];
+        this.keys = new long[size];
+        this.present = new boolean[size];
+        this.hashFunction = hashCode;
+        this.source = source;
+    }
+
+    public double get(int x, int z) {
+        long key = (long) x << 32 | (z & 0xFFFFFFFFL);
+        int index = Math.floorMod(hashFunction.applyAsInt(x, z), cache.length);
+        if (!present[index] || keys[index] != key) {
+            cache[index] = source.get(x, z);
+            keys[index] = key;
+            present[index] = true;
+        }
+        return cache[index];
+    }
+
+    /**
+     * @return true if the value at the given position is cached, so that {@link #get(int, int)} won't compute it
+     */
+    public boolean contains(int x, int z) {
+        long key = (long) x << 32 | (z & 0xFFFFFFFFL);
+        int index = Math.floorMod(hashFunction.applyAsInt(x, z), cache.length);
+        return present[index] && keys[index] == key;
+    }
+
+    /**
+     * Stores a value computed elsewhere, it must be the same value the source would return.
+     */
+    public void put(int x, int z, double value) {
+        int index = Math.floorMod(hashFunction.applyAsInt(x, z), cache.length);
+        cache[index] = value;
+        keys[index] = (long) x << 32 | (z & 0xFFFFFFFFL);
+        present[index] = true;
+    }
+
+    public static HashCacheDoubles2d create(int size, IntBinaryOperator hashCode, Source source) {
+        return new HashCacheDoubles2d(size, hashCode, source);
+    }
+
+    @FunctionalInterface
+    public interface Source {
+
+        double get(int x, int z);
+    }
+}
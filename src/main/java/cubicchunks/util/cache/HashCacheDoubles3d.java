@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util.cache;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A cache of doubles keyed by 3 int coordinates, so that lookups don't allocate a key object. The x and z
+ * coordinates are packed into a long, 3 ints don't fit in one so y is stored separately.
+ * <p>
+ * Not thread safe.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class HashCacheDoubles3d {
+
+    private final double[] cache;
+    private final long[] keysXZ;
+    private final int[] keysY;
+    private final boolean[] present;
+    private final Hash hashFunction;
+    private final Source source;
+
+    private HashCacheDoubles3d(int size, Hash hashCode, Source source) {
+        this.cache = new double[size];
+        this.keysXZ = new long[size];
+        this.keysY = new int[size];
+        this.present = new boolean[size];
+        this.hashFunction = hashCode;
+        this.source = source;
+    }
+
+    public double get(int x, int y, int z) {
+        long keyXZ = (long) x << 32 | (z & 0xFFFFFFFFL);
+        int index = Math.floorMod(hashFunction.hash(x, y, z), cache.length);
+        if (!present[index] || keysXZ[index] != keyXZ || keysY[index] != y) {
+            cache[index] = source.get(x, y, z);
+            keysXZ[index] = keyXZ;
+            keysY[index] = y;
+            present[index] = true;
+        }
+        return cache[index];
+    }
+
+    /**
+     * @return true if the value at the given position is cached, so that {@link #get(int, int, int)} won't compute it
+     */
+    public boolean contains(int x, int y, int z) {
+        long keyXZ = (long) x << 32 | (z & 0xFFFFFFFFL);
+        int index = Math.floorMod(hashFunction.hash(x, y, z), cache.length);
+        return present[index] && keysXZ[index] == keyXZ && keysY[index] == y;
+    }
+
+    /**
+     * Stores a value computed elsewhere, it must be the same value the source would return.
+     */
+    public void put(int x, int y, int z, double value) {
+        int index = Math.floorMod(hashFunction.hash(x, y, z), cache.length);
+        cache[index] = value;
+        keysXZ[index] = (long) x << 32 | (z & 0xFFFFFFFFL);
+        keysY[index] = y;
+        present[index] = true;
+    }
+
+    public static HashCacheDoubles3d create(int size, Hash hashCode, Source source) {
+        return new HashCacheDoubles3d(size, hashCode, source);
+    }
+
+    @FunctionalInterface
+    public interface Hash {
+
+        int hash(int x, int y, int z);
+    }
+
+    @FunctionalInterface
+    public interface Source {
+
+        double get(int x, int y, int z);
+    }
+}
@@ -29,6 +29,7 @@ import net.minecraft.util.math.ChunkPos;
 
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -38,9 +39,46 @@ public abstract class CubeSelector {
 
     public abstract void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer);
 
+    /**
+     * Calls the consumer for all cubes that this selector could select from the given position, including cubes that
+     * are currently hidden. Used to find every cube a viewer may be watching, for example when it's removed.
+     */
+    public void forAllInRangeOf(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer) {
+        forAllVisibleFrom(cubePos, horizontalViewDistance, verticalViewDistance, consumer);
+    }
+
+    /**
+     * @return true if {@link #forAllVisibleFrom(CubePos, int, int, Consumer)} can leave out cubes that
+     * {@link #forAllInRangeOf(CubePos, int, int, Consumer)} reports, so that a viewer may not watch all cubes in range
+     */
+    public boolean canHideCubes() {
+        return false;
+    }
+
+    /**
+     * Finds cubes and columns that become visible or stop being visible when moving from one position to another.
+     * Positions are reported packed into longs, cubes using {@link CubePos#asLong(int, int, int)} and columns using
+     * {@link ChunkPos#asLong(int, int)}, so that nothing is allocated for each of them.
+     * <p>
+     * All columns to load are reported first, then cubes to load, then cubes to remove, and finally columns to remove.
+     */
     public abstract void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad);
+            LongConsumer cubesToRemove, LongConsumer cubesToLoad, LongConsumer columnsToRemove, LongConsumer columnsToLoad);
 
     public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance, int newHorizontalViewDistance,
             int oldVerticalViewDistance, int newVerticalViewDistance, Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload);
+
+    /**
+     * @return X coordinate of a column packed with {@link ChunkPos#asLong(int, int)}
+     */
+    public static int columnX(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * @return Z coordinate of a column packed with {@link ChunkPos#asLong(int, int)}
+     */
+    public static int columnZ(long packed) {
+        return (int) (packed >> 32);
+    }
 }
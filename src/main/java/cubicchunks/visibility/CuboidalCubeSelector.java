@@ -29,6 +29,7 @@ import net.minecraft.util.math.ChunkPos;
 
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -50,50 +51,32 @@ public class CuboidalCubeSelector extends CubeSelector {
         }
     }
 
+    /**
+     * Only visits the slabs of the view cuboid that enter or leave the view, instead of the whole volume.
+     */
     @Override
     public void findChanged(CubePos oldPos, CubePos newPos,
             int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
-            Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+            LongConsumer cubesToRemove, LongConsumer cubesToLoad,
+            LongConsumer columnsToRemove, LongConsumer columnsToLoad) {
         int oldX = oldPos.getX();
         int oldY = oldPos.getY();
         int oldZ = oldPos.getZ();
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
 
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                //first handle columns
-                //is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
-                }
-
-                //if we moved the current point to where it would be previously,
-                //would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
-                }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    //now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
-                    }
-                }
-            }
+        // order is important, see CubeSelector
+        if (oldX != newX || oldZ != newZ) {
+            forEachColumnOutside(newX, newZ, h, oldX, oldZ, h, columnsToLoad);
+        }
+        forEachCubeOutside(newX, newY, newZ, h, v, oldX, oldY, oldZ, h, v, cubesToLoad);
+        forEachCubeOutside(oldX, oldY, oldZ, h, v, newX, newY, newZ, h, v, cubesToRemove);
+        if (oldX != newX || oldZ != newZ) {
+            forEachColumnOutside(oldX, oldZ, h, newX, newZ, h, columnsToRemove);
         }
-
-        assert cubesToLoad.stream().allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
-        assert columnsToLoad.stream().allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
     }
 
     @Override
@@ -105,27 +88,70 @@ public class CuboidalCubeSelector extends CubeSelector {
         int playerCubeY = playerPos.getY();
         int playerCubeZ = playerPos.getZ();
 
-        for (int cubeX = playerCubeX - oldHorizontalViewDistance; cubeX <= playerCubeX + oldHorizontalViewDistance; cubeX++) {
-            for (int cubeZ = playerCubeZ - oldHorizontalViewDistance; cubeZ <= playerCubeZ + oldHorizontalViewDistance; cubeZ++) {
-                if (!isPointWithinCubeVolume(playerCubeX, 0, playerCubeZ, cubeX, 0, cubeZ, newHorizontalViewDistance, newVerticalViewDistance)) {
-                    columnsToUnload.add(new ChunkPos(cubeX, cubeZ));
-                }
-                for (int cubeY = playerCubeY - oldVerticalViewDistance; cubeY <= playerCubeY + oldVerticalViewDistance; cubeY++) {
-                    if (!isPointWithinCubeVolume(playerCubeX, playerCubeY, playerCubeZ, cubeX, cubeY, cubeZ, newHorizontalViewDistance,
-                            newVerticalViewDistance)) {
-                        cubesToUnload.add(new CubePos(cubeX, cubeY, cubeZ));
+        forEachColumnOutside(playerCubeX, playerCubeZ, oldHorizontalViewDistance,
+                playerCubeX, playerCubeZ, newHorizontalViewDistance,
+                pos -> columnsToUnload.add(new ChunkPos(columnX(pos), columnZ(pos))));
+        forEachCubeOutside(playerCubeX, playerCubeY, playerCubeZ, oldHorizontalViewDistance, oldVerticalViewDistance,
+                playerCubeX, playerCubeY, playerCubeZ, newHorizontalViewDistance, newVerticalViewDistance,
+                pos -> cubesToUnload.add(CubePos.fromLong(pos)));
+    }
+
+    /**
+     * Calls the consumer with the packed position of every cube in the cuboid centered at (x, y, z) that is not in the
+     * excluded cuboid centered at (exX, exY, exZ). Rows that are fully inside the excluded cuboid are skipped without
+     * visiting each cube.
+     */
+    private static void forEachCubeOutside(int x, int y, int z, int h, int v,
+            int exX, int exY, int exZ, int exH, int exV, LongConsumer consumer) {
+        int exMinX = exX - exH;
+        int exMaxX = exX + exH;
+        int exMinY = exY - exV;
+        int exMaxY = exY + exV;
+        int exMinZ = exZ - exH;
+        int exMaxZ = exZ + exH;
+        int minZ = z - h;
+        int maxZ = z + h;
+        for (int cubeX = x - h; cubeX <= x + h; cubeX++) {
+            boolean xInside = cubeX >= exMinX && cubeX <= exMaxX;
+            for (int cubeY = y - v; cubeY <= y + v; cubeY++) {
+                if (xInside && cubeY >= exMinY && cubeY <= exMaxY) {
+                    // only the parts of the row in front of and behind the excluded cuboid
+                    for (int cubeZ = minZ; cubeZ <= maxZ && cubeZ < exMinZ; cubeZ++) {
+                        consumer.accept(CubePos.asLong(cubeX, cubeY, cubeZ));
+                    }
+                    for (int cubeZ = Math.max(minZ, exMaxZ + 1); cubeZ <= maxZ; cubeZ++) {
+                        consumer.accept(CubePos.asLong(cubeX, cubeY, cubeZ));
+                    }
+                } else {
+                    for (int cubeZ = minZ; cubeZ <= maxZ; cubeZ++) {
+                        consumer.accept(CubePos.asLong(cubeX, cubeY, cubeZ));
                     }
                 }
             }
         }
     }
 
-    private boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ, int horizontal, int vertical) {
-        int dx = cubeX - pointX;
-        int dy = cubeY - pointY;
-        int dz = cubeZ - pointZ;
-        return dx >= -horizontal && dx <= horizontal
-                && dy >= -vertical && dy <= vertical
-                && dz >= -horizontal && dz <= horizontal;
+    /**
+     * Same as {@link #forEachCubeOutside}, but for columns packed with {@link ChunkPos#asLong(int, int)}
+     */
+    private static void forEachColumnOutside(int x, int z, int h, int exX, int exZ, int exH, LongConsumer consumer) {
+        int exMinZ = exZ - exH;
+        int exMaxZ = exZ + exH;
+        int minZ = z - h;
+        int maxZ = z + h;
+        for (int columnX = x - h; columnX <= x + h; columnX++) {
+            if (columnX >= exX - exH && columnX <= exX + exH) {
+                for (int columnZ = minZ; columnZ <= maxZ && columnZ < exMinZ; columnZ++) {
+                    consumer.accept(ChunkPos.asLong(columnX, columnZ));
+                }
+                for (int columnZ = Math.max(minZ, exMaxZ + 1); columnZ <= maxZ; columnZ++) {
+                    consumer.accept(ChunkPos.asLong(columnX, columnZ));
+                }
+            } else {
+                for (int columnZ = minZ; columnZ <= maxZ; columnZ++) {
+                    consumer.accept(ChunkPos.asLong(columnX, columnZ));
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,245 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.visibility;
+
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Selects cubes within an ellipsoid with the horizontal view distance as horizontal radius and the vertical view distance
+ * as vertical radius. Compared to {@link CuboidalCubeSelector} it selects about half as many cubes for the same view
+ * distance, leaving out the corners that are the furthest away from the player.
+ * <p>
+ * Columns are selected in a circle, so that the column of every selected cube is also selected.
+ * <p>
+ * Subclasses can hide some cubes inside of the ellipsoid using {@link #getViewContext(CubePos)} and
+ * {@link #getHiddenBelow(int, int, int)}. Only cubes that become visible take that into account. Cubes are removed only
+ * once they are out of the ellipsoid, so cubes that were selected before don't get lost when what is hidden changes.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EllipsoidalCubeSelector extends CubeSelector {
+
+    /**
+     * View context in which no cubes are hidden
+     */
+    protected static final int NO_CONTEXT = 0;
+
+    @Override
+    public void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer) {
+        forAllInEllipsoid(cubePos, horizontalViewDistance, verticalViewDistance, getViewContext(cubePos), consumer);
+    }
+
+    @Override
+    public void forAllInRangeOf(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer) {
+        forAllInEllipsoid(cubePos, horizontalViewDistance, verticalViewDistance, NO_CONTEXT, consumer);
+    }
+
+    private void forAllInEllipsoid(CubePos cubePos, int h, int v, int context, Consumer<CubePos> consumer) {
+        int cubeX = cubePos.getX();
+        int cubeY = cubePos.getY();
+        int cubeZ = cubePos.getZ();
+        for (int x = cubeX - h; x <= cubeX + h; x++) {
+            int halfWidth = halfWidth(x - cubeX, h);
+            for (int z = cubeZ - halfWidth; z <= cubeZ + halfWidth; z++) {
+                int halfHeight = halfHeight(x - cubeX, z - cubeZ, h, v);
+                if (halfHeight < 0) {
+                    continue;
+                }
+                int minY = Math.max(cubeY - halfHeight, getHiddenBelow(context, x, z) + 1);
+                for (int y = minY; y <= cubeY + halfHeight; y++) {
+                    consumer.accept(new CubePos(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void findChanged(CubePos oldPos, CubePos newPos,
+            int horizontalViewDistance, int verticalViewDistance,
+            LongConsumer cubesToRemove, LongConsumer cubesToLoad,
+            LongConsumer columnsToRemove, LongConsumer columnsToLoad) {
+        int oldX = oldPos.getX();
+        int oldY = oldPos.getY();
+        int oldZ = oldPos.getZ();
+        int newX = newPos.getX();
+        int newY = newPos.getY();
+        int newZ = newPos.getZ();
+        int h = horizontalViewDistance;
+        int v = verticalViewDistance;
+        int oldContext = getViewContext(oldPos);
+        int newContext = getViewContext(newPos);
+
+        // order is important, see CubeSelector
+        forEachColumnOutside(newX, newZ, h, oldX, oldZ, h, columnsToLoad);
+
+        for (int x = newX - h; x <= newX + h; x++) {
+            int halfWidth = halfWidth(x - newX, h);
+            for (int z = newZ - halfWidth; z <= newZ + halfWidth; z++) {
+                int newHalf = halfHeight(x - newX, z - newZ, h, v);
+                if (newHalf < 0) {
+                    continue;
+                }
+                int hiddenBelow = getHiddenBelow(newContext, x, z);
+                int oldHiddenBelow = oldContext == newContext ? hiddenBelow : getHiddenBelow(oldContext, x, z);
+                int oldHalf = halfHeight(x - oldX, z - oldZ, h, v);
+                // an empty range if it wasn't visible before
+                int oldMin = oldHalf < 0 ? 1 : Math.max(oldY - oldHalf, oldHiddenBelow + 1);
+                int oldMax = oldHalf < 0 ? 0 : oldY + oldHalf;
+                forEachInRangeOutside(x, z, Math.max(newY - newHalf, hiddenBelow + 1), newY + newHalf, oldMin, oldMax, cubesToLoad);
+            }
+        }
+
+        for (int x = oldX - h; x <= oldX + h; x++) {
+            int halfWidth = halfWidth(x - oldX, h);
+            for (int z = oldZ - halfWidth; z <= oldZ + halfWidth; z++) {
+                int oldHalf = halfHeight(x - oldX, z - oldZ, h, v);
+                if (oldHalf < 0) {
+                    continue;
+                }
+                int newHalf = halfHeight(x - newX, z - newZ, h, v);
+                int newMin = newHalf < 0 ? 1 : newY - newHalf;
+                int newMax = newHalf < 0 ? 0 : newY + newHalf;
+                forEachInRangeOutside(x, z, oldY - oldHalf, oldY + oldHalf, newMin, newMax, cubesToRemove);
+            }
+        }
+
+        forEachColumnOutside(oldX, oldZ, h, newX, newZ, h, columnsToRemove);
+    }
+
+    @Override
+    public void findAllUnloadedOnViewDistanceDecrease(CubePos playerPos,
+            int oldHorizontalViewDistance, int newHorizontalViewDistance,
+            int oldVerticalViewDistance, int newVerticalViewDistance,
+            Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload) {
+        int playerX = playerPos.getX();
+        int playerY = playerPos.getY();
+        int playerZ = playerPos.getZ();
+        int oldH = oldHorizontalViewDistance;
+        int oldV = oldVerticalViewDistance;
+        int newH = newHorizontalViewDistance;
+        int newV = newVerticalViewDistance;
+
+        for (int x = playerX - oldH; x <= playerX + oldH; x++) {
+            int halfWidth = halfWidth(x - playerX, oldH);
+            for (int z = playerZ - halfWidth; z <= playerZ + halfWidth; z++) {
+                int oldHalf = halfHeight(x - playerX, z - playerZ, oldH, oldV);
+                if (oldHalf < 0) {
+                    continue;
+                }
+                int newHalf = halfHeight(x - playerX, z - playerZ, newH, newV);
+                int newMin = newHalf < 0 ? 1 : playerY - newHalf;
+                int newMax = newHalf < 0 ? 0 : playerY + newHalf;
+                forEachInRangeOutside(x, z, playerY - oldHalf, playerY + oldHalf, newMin, newMax,
+                        pos -> cubesToUnload.add(CubePos.fromLong(pos)));
+            }
+        }
+        forEachColumnOutside(playerX, playerZ, oldH, playerX, playerZ, newH,
+                pos -> columnsToUnload.add(new ChunkPos(columnX(pos), columnZ(pos))));
+    }
+
+    /**
+     * Returns a value describing what the viewer at the given position can see, passed to
+     * {@link #getHiddenBelow(int, int, int)}. Viewers with the same context must have the same cubes hidden.
+     *
+     * @param viewer position of the viewer
+     *
+     * @return the view context, {@link #NO_CONTEXT} if nothing is hidden
+     */
+    protected int getViewContext(CubePos viewer) {
+        return NO_CONTEXT;
+    }
+
+    /**
+     * @param context view context returned by {@link #getViewContext(CubePos)}
+     * @param cubeX column x position
+     * @param cubeZ column z position
+     *
+     * @return the highest cube y position in the given column hidden from viewers with the given context, or
+     * {@link Integer#MIN_VALUE} if no cubes are hidden
+     */
+    protected int getHiddenBelow(int context, int cubeX, int cubeZ) {
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Calls the consumer for cubes of the column at (x, z) between minY and maxY that are not between exMinY and exMaxY
+     */
+    private static void forEachInRangeOutside(int x, int z, int minY, int maxY, int exMinY, int exMaxY, LongConsumer consumer) {
+        for (int y = minY; y <= maxY && y < exMinY; y++) {
+            consumer.accept(CubePos.asLong(x, y, z));
+        }
+        for (int y = Math.max(minY, exMaxY + 1); y <= maxY; y++) {
+            consumer.accept(CubePos.asLong(x, y, z));
+        }
+    }
+
+    /**
+     * Calls the consumer with every column in the circle centered at (x, z) that is not in the excluded circle centered at
+     * (exX, exZ), packed with {@link ChunkPos#asLong(int, int)}
+     */
+    private static void forEachColumnOutside(int x, int z, int h, int exX, int exZ, int exH, LongConsumer consumer) {
+        if (x == exX && z == exZ && h == exH) {
+            return;
+        }
+        for (int columnX = x - h; columnX <= x + h; columnX++) {
+            int halfWidth = halfWidth(columnX - x, h);
+            int exHalfWidth = halfWidth(columnX - exX, exH);
+            int exMinZ = exHalfWidth < 0 ? 1 : exZ - exHalfWidth;
+            int exMaxZ = exHalfWidth < 0 ? 0 : exZ + exHalfWidth;
+            for (int columnZ = z - halfWidth; columnZ <= z + halfWidth && columnZ < exMinZ; columnZ++) {
+                consumer.accept(ChunkPos.asLong(columnX, columnZ));
+            }
+            for (int columnZ = Math.max(z - halfWidth, exMaxZ + 1); columnZ <= z + halfWidth; columnZ++) {
+                consumer.accept(ChunkPos.asLong(columnX, columnZ));
+            }
+        }
+    }
+
+    /**
+     * @return how far from the center a row of the circle at the given x offset reaches, or -1 if it's outside
+     */
+    private static int halfWidth(int dx, int h) {
+        double radius = h + 0.5;
+        double remaining = radius * radius - dx * dx;
+        return remaining < 0 ? -1 : (int) Math.sqrt(remaining);
+    }
+
+    /**
+     * @return how far up and down from the center the ellipsoid reaches at the given horizontal offset, or -1 if it's
+     * outside
+     */
+    private static int halfHeight(int dx, int dz, int h, int v) {
+        double radius = h + 0.5;
+        double dist = (dx * dx + dz * dz) / (radius * radius);
+        return dist > 1 ? -1 : (int) ((v + 0.5) * Math.sqrt(1 - dist));
+    }
+}
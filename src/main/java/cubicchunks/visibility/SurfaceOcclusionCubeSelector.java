@@ -0,0 +1,106 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.visibility;
+
+import cubicchunks.util.Coords;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubeProvider;
+import cubicchunks.world.column.IColumn;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An {@link EllipsoidalCubeSelector} that doesn't select cubes deep below the surface while the viewer is above it.
+ * <p>
+ * A cube is hidden if it's more than {@link #HIDDEN_DEPTH} cubes below the lowest top block of its column, so that
+ * there is solid ground between the cube and the sky everywhere in the column. Once the viewer goes below the surface
+ * of its own column, nothing is hidden. Columns that aren't loaded hide nothing.
+ * <p>
+ * The surface of a column is taken from its height map the first time it's needed, and then kept for as long as the
+ * column stays loaded. A moving viewer's previous view is computed again from the same surface it was selected with, so
+ * blocks placed or broken in between can't leave cubes out of both the previous and the new view.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class SurfaceOcclusionCubeSelector extends EllipsoidalCubeSelector {
+
+    /**
+     * How many cubes below the surface are still selected, so that players can see into small dips and holes and
+     * digging down doesn't reach missing cubes
+     */
+    private static final int HIDDEN_DEPTH = 2;
+    private static final int ABOVE_SURFACE = 1;
+
+    private final ICubeProvider cubeProvider;
+    // surface cube y of loaded columns, unloaded columns are removed by the garbage collector
+    private final Map<IColumn, Integer> surfaceSnapshots = new WeakHashMap<>();
+
+    public SurfaceOcclusionCubeSelector(ICubeProvider cubeProvider) {
+        this.cubeProvider = cubeProvider;
+    }
+
+    @Override
+    public boolean canHideCubes() {
+        return true;
+    }
+
+    @Override
+    protected int getViewContext(CubePos viewer) {
+        int surfaceY = getSurfaceCubeY(viewer.getX(), viewer.getZ());
+        return surfaceY != Integer.MIN_VALUE && viewer.getY() >= surfaceY ? ABOVE_SURFACE : NO_CONTEXT;
+    }
+
+    @Override
+    protected int getHiddenBelow(int context, int cubeX, int cubeZ) {
+        if (context != ABOVE_SURFACE) {
+            return Integer.MIN_VALUE;
+        }
+        int surfaceY = getSurfaceCubeY(cubeX, cubeZ);
+        return surfaceY == Integer.MIN_VALUE ? Integer.MIN_VALUE : surfaceY - HIDDEN_DEPTH - 1;
+    }
+
+    /**
+     * @return y position of the cube containing the lowest top block of the column when it was first checked, or
+     * {@link Integer#MIN_VALUE} if it's not known
+     */
+    private int getSurfaceCubeY(int cubeX, int cubeZ) {
+        IColumn column = cubeProvider.getLoadedColumn(cubeX, cubeZ);
+        if (column == null) {
+            return Integer.MIN_VALUE;
+        }
+        return surfaceSnapshots.computeIfAbsent(column, SurfaceOcclusionCubeSelector::computeSurfaceCubeY);
+    }
+
+    private static int computeSurfaceCubeY(IColumn column) {
+        int lowestTop = column.getOpacityIndex().getLowestTopBlockY();
+        if (lowestTop <= Coords.NO_HEIGHT) {
+            return Integer.MIN_VALUE;
+        }
+        return Coords.blockToCube(lowestTop);
+    }
+}
@@ -23,6 +23,8 @@
  */
 package cubicchunks.world;
 
+import static cubicchunks.util.Coords.blockToCube;
+
 import cubicchunks.api.worldgen.biome.CubicBiome;
 import cubicchunks.server.CubeWatcher;
 import cubicchunks.util.CubePos;
@@ -75,6 +77,7 @@ public class CubeWorldEntitySpawner extends WorldEntitySpawner {
         this.cubesForSpawn.clear();
 
         int chunkCount = addEligibleChunks(world, this.cubesForSpawn);
+        MobDensityMap density = null;
         int totalSpawnCount = 0;
 
         for (EnumCreatureType mobType : EnumCreatureType.values()) {
@@ -87,8 +90,14 @@ public class CubeWorldEntitySpawner extends WorldEntitySpawner {
             if (worldEntityCount > maxEntityCount) {
                 continue;
             }
+            if (density == null) {
+                density = new MobDensityMap(world, SPAWN_RADIUS);
+            }
+            if (!density.hasSpaceFor(mobType)) {
+                continue;
+            }
             ArrayList<CubePos> shuffled = getShuffledCopy(this.cubesForSpawn);
-            totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, shuffled);
+            totalSpawnCount += spawnCreatureTypeInAllChunks(mobType, world, shuffled, density);
         }
         return totalSpawnCount;
     }
@@ -130,7 +139,8 @@ public class CubeWorldEntitySpawner extends WorldEntitySpawner {
         return chunkCount;
     }
 
-    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, ICubicWorldServer world, ArrayList<CubePos> chunkList) {
+    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, ICubicWorldServer world, ArrayList<CubePos> chunkList,
+            MobDensityMap density) {
         BlockPos spawnPoint = world.getSpawnPoint();
         BlockPos.MutableBlockPos blockPos = new BlockPos.MutableBlockPos();
 
@@ -138,6 +148,10 @@ public class CubeWorldEntitySpawner extends WorldEntitySpawner {
 
         nextChunk:
         for (CubePos currentChunkPos : chunkList) {
+            // skip cubes that already have enough mobs without looking for a spawn point
+            if (!density.canSpawnIn(mobType, currentChunkPos.getX(), currentChunkPos.getY(), currentChunkPos.getZ())) {
+                continue;
+            }
             BlockPos blockpos = getRandomChunkPosition(world, currentChunkPos);
             if (blockpos == null) {
                 continue;
@@ -171,6 +185,9 @@ public class CubeWorldEntitySpawner extends WorldEntitySpawner {
                     float entityX = (float) entityBlockX + 0.5F;
                     float entityZ = (float) entityBlockZ + 0.5F;
 
+                    if (!density.canAddToPack(mobType, blockToCube(entityBlockX), blockToCube(entityY), blockToCube(entityBlockZ))) {
+                        continue;
+                    }
                     if (world.isAnyPlayerWithinRangeAt(entityX, entityY, entityZ, 24.0D) ||
                             spawnPoint.distanceSq(entityX, entityY, entityZ) < 576.0D) {
                         continue;
@@ -213,6 +230,7 @@ public class CubeWorldEntitySpawner extends WorldEntitySpawner {
                         if (toSpawn.isNotColliding()) {
                             ++currentPackSize;
                             world.spawnEntity(toSpawn);
+                            density.onSpawned(mobType, blockToCube(entityBlockX), blockToCube(entityY), blockToCube(entityBlockZ));
                         } else {
                             toSpawn.setDead();
                         }
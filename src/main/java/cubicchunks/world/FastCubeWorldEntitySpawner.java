@@ -31,12 +31,12 @@ import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.custom.populator.PopulatorUtils;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
-import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLiving;
 import net.minecraft.entity.EntitySpawnPlacementRegistry;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.entity.IEntityLivingData;
-import net.minecraft.entity.passive.IAnimals;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.EntitySelectors;
 import net.minecraft.util.WeightedRandom;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -57,42 +57,54 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class FastCubeWorldEntitySpawner extends WorldEntitySpawner {
 
+    // mobs don't spawn this close to players
+    private static final double PLAYER_EXCLUSION_RADIUS = 24.0D;
+    // size of the area around each player with its own mob cap, in cubes
+    private static final int MOB_AREA_RADIUS = 8;
+
     @Override
     public int findChunksForSpawning(WorldServer worldOrig, boolean hostileEnable, boolean peacefulEnable, boolean spawnOnSetTickRate) {
         if (!hostileEnable && !peacefulEnable)
             return 0;
         ICubicWorldServer world = (ICubicWorldServer) worldOrig;
+        // Count entities of all types in one pass over the entity list, both in total and near players.
+        // 'world.countEntities' do a same thing, by contain a lot
+        // methods in-between and also check if entity is instance of
+        // EntityLiving.
+        MobDensityMap density = null;
+        PlayerGrid<EntityPlayer> players = null;
         int spawned = 0;
-        next_mob_type: for (EnumCreatureType mobType : EnumCreatureType.values()) {
+        for (EnumCreatureType mobType : EnumCreatureType.values()) {
             if (!shouldSpawnType(mobType, hostileEnable, peacefulEnable, spawnOnSetTickRate)) {
                 continue;
             }
-            int worldEntityCount = 0;
+            if (density == null) {
+                density = new MobDensityMap(world, MOB_AREA_RADIUS);
+            }
             int maxEntityCount = mobType.getMaxNumberOfCreature() * world.getPlayerEntities().size();
-            Class<? extends IAnimals> mobTypeClass = mobType.getCreatureClass();
-            for (Entity entity : worldOrig.loadedEntityList) {
-                // Here we check if there is already loaded entity of a same
-                // type.
-                // 'world.countEntities' do a same thing, by contain a lot
-                // methods in-between and also check if entity is instance of
-                // EntityLiving.
-                if (mobTypeClass.isInstance(entity) && ++worldEntityCount > maxEntityCount) {
-                    continue next_mob_type;
-                }
+            if (density.getTotalCount(mobType) > maxEntityCount) {
+                continue;
             }
-            spawned += spawnCreatureTypeInAllChunks(mobType, world);
+            if (!density.hasSpaceFor(mobType)) {
+                continue;
+            }
+            if (players == null) {
+                players = createPlayerGrid(world.getPlayerEntities());
+            }
+            spawned += spawnCreatureTypeInAllChunks(mobType, world, players, density);
         }
         return spawned;
     }
 
-    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, ICubicWorldServer world) {
+    private int spawnCreatureTypeInAllChunks(EnumCreatureType mobType, ICubicWorldServer world, PlayerGrid<EntityPlayer> players,
+            MobDensityMap density) {
         Random rand = world.getRand();
         BlockPos spawnPoint = world.getSpawnPoint();
         int spawned = 0;
         Iterator<CubeWatcher> cwi = world.getPlayerCubeMap().getRandomWrappedCubeWatcherIterator(rand.nextInt());
         while (cwi.hasNext()) {
             CubeWatcher chunkInfo = cwi.next();
-            if (chunkInfo.isSentToPlayers()) {
+            if (chunkInfo.isSentToPlayers() && density.canSpawnIn(mobType, chunkInfo.getX(), chunkInfo.getY(), chunkInfo.getZ())) {
                 int minBlockX = Coords.cubeToMinBlock(chunkInfo.getX());
                 int minBlockY = Coords.cubeToMinBlock(chunkInfo.getY());
                 int minBlockZ = Coords.cubeToMinBlock(chunkInfo.getZ());
@@ -117,7 +129,11 @@ public class FastCubeWorldEntitySpawner extends WorldEntitySpawner {
                                 continue;
                         }
                     }
-                    if (world.isAnyPlayerWithinRangeAt(blockX, blockY, blockZ, 24.0D) ||
+                    // checked for each attempt, the cube can get full while spawning a pack
+                    if (!density.canAddToPack(mobType, chunkInfo.getX(), Coords.blockToCube(blockY), chunkInfo.getZ())) {
+                        continue;
+                    }
+                    if (isAnyPlayerWithinRangeAt(players, blockX, blockY, blockZ, PLAYER_EXCLUSION_RADIUS) ||
                             spawnPoint.distanceSq(blockX, blockY, blockZ) < 576.0D) {
                         continue;
                     }
@@ -166,6 +182,7 @@ public class FastCubeWorldEntitySpawner extends WorldEntitySpawner {
 
                         if (toSpawn.isNotColliding()) {
                             world.spawnEntity(toSpawn);
+                            density.onSpawned(mobType, chunkInfo.getX(), Coords.blockToCube(blockY), chunkInfo.getZ());
                             if (maxSpawnAttempts == 1) {
                                 maxPackSize = ForgeEventFactory.getMaxSpawnPackSize(toSpawn);
                                 maxSpawnAttempts = maxPackSize + 6;
@@ -184,6 +201,24 @@ public class FastCubeWorldEntitySpawner extends WorldEntitySpawner {
         return spawned;
     }
 
+    private static PlayerGrid<EntityPlayer> createPlayerGrid(List<EntityPlayer> players) {
+        // bigger than PLAYER_EXCLUSION_RADIUS, so that a query checks at most 2 cells on each axis
+        PlayerGrid<EntityPlayer> grid = new PlayerGrid<>(5);
+        for (EntityPlayer player : players) {
+            // same as World.isAnyPlayerWithinRangeAt
+            if (EntitySelectors.NOT_SPECTATING.apply(player)) {
+                grid.add(MathHelper.floor(player.posX), MathHelper.floor(player.posY), MathHelper.floor(player.posZ), player);
+            }
+        }
+        return grid;
+    }
+
+    private static boolean isAnyPlayerWithinRangeAt(PlayerGrid<EntityPlayer> players, double x, double y, double z, double range) {
+        double rangeSq = range * range;
+        return players.anyNear(MathHelper.floor(x), MathHelper.floor(y), MathHelper.floor(z), MathHelper.ceil(range),
+                player -> player.getDistanceSq(x, y, z) < rangeSq);
+    }
+
     private static boolean shouldSpawnType(EnumCreatureType type, boolean hostile, boolean peaceful, boolean spawnOnSetTickRate) {
         return !((type.getPeacefulCreature() && !peaceful) ||
                 (!type.getPeacefulCreature() && !hostile) ||
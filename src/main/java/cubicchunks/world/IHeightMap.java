@@ -44,6 +44,21 @@ public interface IHeightMap {
      */
     void onOpacityChange(int localX, int blockY, int localZ, int opacity);
 
+    /**
+     * Sets the opacity of all blocks from minBlockY to maxBlockY (inclusive) at the given position to the given value.
+     *
+     * @param localX local block x-coordinate (0..15)
+     * @param minBlockY lowest global block y-coordinate
+     * @param maxBlockY highest global block y-coordinate
+     * @param localZ local block z-coordinate (0..15)
+     * @param opacity new opacity (0..255)
+     */
+    default void onOpacityChange(int localX, int minBlockY, int maxBlockY, int localZ, int opacity) {
+        for (int blockY = minBlockY; blockY <= maxBlockY; blockY++) {
+            onOpacityChange(localX, blockY, localZ, opacity);
+        }
+    }
+
     /**
      * Returns true if the block at the given position is occluded by a known non-opaque block further up.
      *
@@ -63,6 +63,9 @@ public interface IProviderExtras {
     /**
      * The effort made to retrieve a cube or column. Any further work should not be done, and returning
      * <code>null</code> is acceptable in those cases
+     * <p>
+     * {@link #GENERATE}, {@link #POPULATE} and {@link #LIGHT} are also the stages a loaded cube goes through,
+     * see {@link Cube#getStatus()}
      */
     enum Requirement {
         // Warning, don't modify order of these constants - ordinals are used in comparisons
@@ -0,0 +1,183 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world;
+
+import static cubicchunks.util.Coords.blockToCube;
+
+import cubicchunks.util.CubePos;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EnumCreatureType;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Number of mobs of each creature type in cubes near players, used to keep mobs from clustering in one place.
+ * <p>
+ * Each player has an area of cubes around them, and each area has its own mob cap, the same as the vanilla per player
+ * cap. A cube can't get new mobs if any area containing it is full. A new pack also can't start in a cube that already
+ * holds 1/8 of the cap, but once a pack has started it can go over that. Counts are taken from the positions of all
+ * loaded entities in one pass when the map is created, and updated as mobs are spawned. The map also has the total
+ * number of mobs of each type in the world, so that it doesn't have to be counted separately.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class MobDensityMap {
+
+    private static final EnumCreatureType[] MOB_TYPES = EnumCreatureType.values();
+    private static final int MAX_CUBE_SHARE_DIV = 8;
+
+    private final int radius;
+    private final TLongObjectMap<int[]> cubeCounts = new TLongObjectHashMap<>();
+    private final int[] totalCounts = new int[MOB_TYPES.length];
+    private final List<PlayerArea> areas = new ArrayList<>();
+    // areas by the position of their player
+    private final PlayerGrid<PlayerArea> areaGrid;
+
+    /**
+     * @param radius the distance in cubes from a player to the edge of their area
+     */
+    MobDensityMap(ICubicWorldServer world, int radius) {
+        this(radius);
+        for (EntityPlayer player : world.getPlayerEntities()) {
+            if (!player.isSpectator()) {
+                addPlayer(blockToCube(player.posX), blockToCube(player.posY), blockToCube(player.posZ));
+            }
+        }
+
+        for (Entity entity : ((World) world).loadedEntityList) {
+            for (EnumCreatureType mobType : MOB_TYPES) {
+                if (mobType.getCreatureClass().isInstance(entity)) {
+                    addMobs(mobType, blockToCube(entity.posX), blockToCube(entity.posY), blockToCube(entity.posZ), 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an empty map, without any players.
+     *
+     * @param radius the distance in cubes from a player to the edge of their area
+     */
+    MobDensityMap(int radius) {
+        this.radius = radius;
+        this.areaGrid = new PlayerGrid<>(PlayerGrid.cellBitsFor(radius));
+    }
+
+    /**
+     * Adds the area around a player. Mobs added before the player aren't counted in the area.
+     */
+    void addPlayer(int cubeX, int cubeY, int cubeZ) {
+        PlayerArea area = new PlayerArea(cubeX, cubeY, cubeZ);
+        areas.add(area);
+        areaGrid.add(cubeX, cubeY, cubeZ, area);
+    }
+
+    /**
+     * @return the number of mobs of the given type added to the map, in all cubes
+     */
+    int getTotalCount(EnumCreatureType mobType) {
+        return totalCounts[mobType.ordinal()];
+    }
+
+    /**
+     * @return true if there is any player area where mobs of the given type can spawn
+     */
+    boolean hasSpaceFor(EnumCreatureType mobType) {
+        for (PlayerArea area : areas) {
+            if (area.counts[mobType.ordinal()] < mobType.getMaxNumberOfCreature()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a new pack of mobs of the given type can start spawning in the given cube
+     */
+    boolean canSpawnIn(EnumCreatureType mobType, int cubeX, int cubeY, int cubeZ) {
+        int[] counts = cubeCounts.get(CubePos.asLong(cubeX, cubeY, cubeZ));
+        if (counts != null && counts[mobType.ordinal()] >= getCubeCap(mobType)) {
+            return false;
+        }
+        return canAddToPack(mobType, cubeX, cubeY, cubeZ);
+    }
+
+    /**
+     * @return true if a mob of the given type can spawn in the given cube as a part of an already started pack
+     */
+    boolean canAddToPack(EnumCreatureType mobType, int cubeX, int cubeY, int cubeZ) {
+        int type = mobType.ordinal();
+        int cap = mobType.getMaxNumberOfCreature();
+        return !areaGrid.anyNear(cubeX, cubeY, cubeZ, radius, area -> area.contains(cubeX, cubeY, cubeZ) && area.counts[type] >= cap);
+    }
+
+    void onSpawned(EnumCreatureType mobType, int cubeX, int cubeY, int cubeZ) {
+        addMobs(mobType, cubeX, cubeY, cubeZ, 1);
+    }
+
+    void addMobs(EnumCreatureType mobType, int cubeX, int cubeY, int cubeZ, int count) {
+        int type = mobType.ordinal();
+        long key = CubePos.asLong(cubeX, cubeY, cubeZ);
+        int[] counts = cubeCounts.get(key);
+        if (counts == null) {
+            counts = new int[MOB_TYPES.length];
+            cubeCounts.put(key, counts);
+        }
+        counts[type] += count;
+        totalCounts[type] += count;
+        areaGrid.forEachNear(cubeX, cubeY, cubeZ, radius, area -> {
+            if (area.contains(cubeX, cubeY, cubeZ)) {
+                area.counts[type] += count;
+            }
+        });
+    }
+
+    private static int getCubeCap(EnumCreatureType mobType) {
+        return Math.max(1, mobType.getMaxNumberOfCreature() / MAX_CUBE_SHARE_DIV);
+    }
+
+    private final class PlayerArea {
+
+        final int cubeX, cubeY, cubeZ;
+        final int[] counts = new int[MOB_TYPES.length];
+
+        PlayerArea(int cubeX, int cubeY, int cubeZ) {
+            this.cubeX = cubeX;
+            this.cubeY = cubeY;
+            this.cubeZ = cubeZ;
+        }
+
+        boolean contains(int x, int y, int z) {
+            return Math.abs(x - cubeX) <= radius && Math.abs(y - cubeY) <= radius && Math.abs(z - cubeZ) <= radius;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world;
+
+import cubicchunks.util.CubePos;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Values at integer positions, like players or areas around players, grouped into cubic cells so that values near a
+ * position can be found without checking all of them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class PlayerGrid<T> {
+
+    private final int cellBits;
+    private final TLongObjectMap<List<T>> cells = new TLongObjectHashMap<>();
+
+    /**
+     * @param cellBits log2 of the cell size. Queries are fastest when the cell size is bigger than the query range.
+     */
+    PlayerGrid(int cellBits) {
+        this.cellBits = cellBits;
+    }
+
+    void add(int x, int y, int z, T value) {
+        long key = CubePos.asLong(x >> cellBits, y >> cellBits, z >> cellBits);
+        List<T> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>();
+            cells.put(key, cell);
+        }
+        cell.add(value);
+    }
+
+    /**
+     * @return true if the predicate is true for any value added at most range away from the position on each axis.
+     * Values further away may be tested too.
+     */
+    boolean anyNear(int x, int y, int z, int range, Predicate<T> predicate) {
+        if (cells.isEmpty()) {
+            return false;
+        }
+        for (int cellX = (x - range) >> cellBits, maxX = (x + range) >> cellBits; cellX <= maxX; cellX++) {
+            for (int cellY = (y - range) >> cellBits, maxY = (y + range) >> cellBits; cellY <= maxY; cellY++) {
+                for (int cellZ = (z - range) >> cellBits, maxZ = (z + range) >> cellBits; cellZ <= maxZ; cellZ++) {
+                    List<T> cell = cells.get(CubePos.asLong(cellX, cellY, cellZ));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (T value : cell) {
+                        if (predicate.test(value)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Passes all values added at most range away from the position on each axis to the consumer. Values further away
+     * may be passed too.
+     */
+    void forEachNear(int x, int y, int z, int range, Consumer<T> consumer) {
+        anyNear(x, y, z, range, value -> {
+            consumer.accept(value);
+            return false;
+        });
+    }
+
+    /**
+     * @return log2 of the smallest power of 2 cell size bigger than the given range
+     */
+    static int cellBitsFor(int range) {
+        return 32 - Integer.numberOfLeadingZeros(range);
+    }
+}
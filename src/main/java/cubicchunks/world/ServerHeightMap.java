@@ -138,6 +138,31 @@ public class ServerHeightMap implements IHeightMap {
         this.needsHash = true;
     }
 
+    @Override
+    public void onOpacityChange(int localX, int minBlockY, int maxBlockY, int localZ, int opacity) {
+        int xzIndex = getIndex(localX, localZ);
+        // an opaque range that overlaps or touches the only opaque range of the block column just extends it
+        if (opacity == 0 || this.segments[xzIndex] != null
+                || minBlockY < CubicChunks.MIN_BLOCK_Y || maxBlockY > CubicChunks.MAX_BLOCK_Y) {
+            IHeightMap.super.onOpacityChange(localX, minBlockY, maxBlockY, localZ, opacity);
+            return;
+        }
+        int ymin = this.ymin[xzIndex];
+        int ymax = this.ymax.get(xzIndex);
+        if (ymin == Coords.NO_HEIGHT) {
+            this.ymin[xzIndex] = minBlockY;
+            this.ymax.set(xzIndex, maxBlockY);
+        } else if (minBlockY <= ymax + 1 && maxBlockY >= ymin - 1) {
+            this.ymin[xzIndex] = Math.min(ymin, minBlockY);
+            this.ymax.set(xzIndex, Math.max(ymax, maxBlockY));
+        } else {
+            IHeightMap.super.onOpacityChange(localX, minBlockY, maxBlockY, localZ, opacity);
+            return;
+        }
+        this.heightMapLowest = Coords.NO_HEIGHT;
+        this.needsHash = true;
+    }
+
     @Override
     public boolean isOccluded(int localX, int blockY, int localZ) {
         return blockY <= this.getTopBlockY(localX, localZ);
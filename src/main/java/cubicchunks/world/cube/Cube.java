@@ -27,12 +27,14 @@ import cubicchunks.CubicChunks;
 import cubicchunks.debug.Dbg;
 import cubicchunks.lighting.LightingManager;
 import cubicchunks.util.AddressTools;
+import cubicchunks.util.BlockStateData;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZAddressable;
 import cubicchunks.util.ticket.TicketList;
 import cubicchunks.world.EntityContainer;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IHeightMap;
+import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.IColumn;
 import cubicchunks.worldgen.generator.ICubePrimer;
 import mcp.MethodsReturnNonnullByDefault;
@@ -204,6 +206,33 @@ public class Cube implements XYZAddressable {
         int miny = cubeToMinBlock(cubeY);
         IHeightMap opindex = column.getOpacityIndex();
 
+        // all air and all stone cubes are common, don't look up every block of them
+        IBlockState uniform = primer.getUniformState();
+        if (uniform != null && uniform.getMaterial() == Material.AIR) {
+            isSurfaceTracked = true;
+            isModified = true;
+            return;
+        }
+        int uniformId = uniform == null ? -1 : Block.BLOCK_STATE_IDS.get(uniform);
+        if (uniformId >= 0) {
+            newStorage();
+            BlockStateData.setUniformId(storage.getData(), uniformId);
+            storage.recalculateRefCounts();
+
+            int opacity = uniform.getLightOpacity();
+            if (opacity != 0) {
+                column.setModified(true);
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    for (int z = 0; z < Cube.SIZE; z++) {
+                        opindex.onOpacityChange(x, miny, miny + Cube.SIZE - 1, z, opacity);
+                    }
+                }
+            }
+            isSurfaceTracked = true;
+            isModified = true;
+            return;
+        }
+
         for (int x = 0; x < Cube.SIZE; x++) {
             for (int z = 0; z < Cube.SIZE; z++) {
 
@@ -780,6 +809,24 @@ public class Cube implements XYZAddressable {
         this.isModified = true;
     }
 
+    /**
+     * Retrieve the most advanced generation stage this cube has reached. A loaded cube is always at least
+     * {@link IProviderExtras.Requirement#GENERATE}.
+     *
+     * @return {@link IProviderExtras.Requirement#LIGHT} if initial lighting is done,
+     * {@link IProviderExtras.Requirement#POPULATE} if the cube is fully populated, and
+     * {@link IProviderExtras.Requirement#GENERATE} otherwise
+     */
+    public IProviderExtras.Requirement getStatus() {
+        if (!isFullyPopulated) {
+            return IProviderExtras.Requirement.GENERATE;
+        }
+        if (!isInitialLightingDone) {
+            return IProviderExtras.Requirement.POPULATE;
+        }
+        return IProviderExtras.Requirement.LIGHT;
+    }
+
     public void setCubeLoaded() {
         this.isCubeLoaded = true;
     }
@@ -56,11 +56,13 @@ public abstract class BasicCubeGenerator implements ICubeGenerator {
 
     @Override
     public void generateColumn(IColumn column) {
-        this.columnBiomes = this.world.getBiomeProvider()
-                .getBiomes(this.columnBiomes,
-                        Coords.cubeToMinBlock(column.getX()),
-                        Coords.cubeToMinBlock(column.getZ()),
-                        Cube.SIZE, Cube.SIZE);
+        synchronized (WorldGenUtils.BIOME_GENERATION_LOCK) {
+            this.columnBiomes = this.world.getBiomeProvider()
+                    .getBiomes(this.columnBiomes,
+                            Coords.cubeToMinBlock(column.getX()),
+                            Coords.cubeToMinBlock(column.getZ()),
+                            Cube.SIZE, Cube.SIZE);
+        }
 
         // Copy ids to column internal biome array
         byte[] columnBiomeArray = column.getBiomeArray();
@@ -27,27 +27,117 @@ import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Cube primer that doesn't allocate the full block array while all blocks set so far are the same.
+ * <p>
+ * Most cubes in a tall world are all air or all stone. Until a second kind of block is set, only a bitset of the
+ * positions that were set is kept, so {@link #getUniformState()} can answer in constant time.
+ */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
 public class CubePrimer implements ICubePrimer {
 
-    private final char[] data = new char[4096];
+    private static final int SIZE = 4096;
+
+    // null while all blocks set so far have the same id, then blocks in uniformSet have uniformValue and the rest is air
+    @Nullable private char[] data;
+    @Nullable private long[] uniformSet;
+    private int uniformCount;
+    private char uniformValue;
 
     @Override
     public IBlockState getBlockState(int x, int y, int z) {
-        @SuppressWarnings("deprecation")
-        IBlockState iblockstate = Block.BLOCK_STATE_IDS.getByValue(this.data[getBlockIndex(x, y, z)]);
-        return iblockstate == null ? DEFAULT_STATE : iblockstate;
+        int index = getBlockIndex(x, y, z);
+        char value;
+        if (data != null) {
+            value = data[index];
+        } else if (isUniformSet(index)) {
+            value = uniformValue;
+        } else {
+            return DEFAULT_STATE;
+        }
+        return getState(value);
     }
 
     @Override
     public void setBlockState(int x, int y, int z, @Nonnull IBlockState state) {
         @SuppressWarnings("deprecation")
         char value = (char) Block.BLOCK_STATE_IDS.get(state);
-        this.data[getBlockIndex(x, y, z)] = value;
+        int index = getBlockIndex(x, y, z);
+        if (data != null) {
+            this.data[index] = value;
+            return;
+        }
+        boolean set = isUniformSet(index);
+        if (!set && value == 0) {
+            return; // already air
+        }
+        if (uniformCount == 0) {
+            uniformValue = value;
+        }
+        if (value != uniformValue) {
+            inflate();
+            this.data[index] = value;
+            return;
+        }
+        if (!set) {
+            if (uniformSet == null) {
+                uniformSet = new long[SIZE / Long.SIZE];
+            }
+            uniformSet[index >>> 6] |= 1L << index;
+            uniformCount++;
+        }
+    }
+
+    @Override
+    public void fill(IBlockState state) {
+        @SuppressWarnings("deprecation")
+        char value = (char) Block.BLOCK_STATE_IDS.get(state);
+        this.data = null;
+        this.uniformValue = value;
+        this.uniformSet = new long[SIZE / Long.SIZE];
+        Arrays.fill(uniformSet, -1L);
+        this.uniformCount = SIZE;
+    }
+
+    @Nullable @Override
+    public IBlockState getUniformState() {
+        if (data != null) {
+            return null;
+        }
+        if (uniformCount == 0) {
+            return DEFAULT_STATE;
+        }
+        return uniformCount == SIZE ? getState(uniformValue) : null;
+    }
+
+    private boolean isUniformSet(int index) {
+        return uniformSet != null && (uniformSet[index >>> 6] & 1L << index) != 0;
+    }
+
+    private void inflate() {
+        char[] data = new char[SIZE];
+        if (uniformSet != null) {
+            for (int i = 0; i < SIZE; i++) {
+                if (isUniformSet(i)) {
+                    data[i] = uniformValue;
+                }
+            }
+        }
+        this.data = data;
+        this.uniformSet = null;
+    }
+
+    private static IBlockState getState(char value) {
+        @SuppressWarnings("deprecation")
+        IBlockState iblockstate = Block.BLOCK_STATE_IDS.getByValue(value);
+        return iblockstate == null ? DEFAULT_STATE : iblockstate;
     }
 
     /**
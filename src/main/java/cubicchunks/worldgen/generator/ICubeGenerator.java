@@ -61,6 +61,24 @@ public interface ICubeGenerator {
      */
     ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ);
 
+    /**
+     * Check whether {@link ICubeGenerator#generateCube(int, int, int)} can be called from any thread, including
+     * concurrently with other calls to it and with the server thread. If this returns true, cubes will be generated on
+     * a worker thread pool and only added to the world on the server thread.
+     *
+     * @return <code>true</code> if {@link ICubeGenerator#generateCube(int, int, int)} is thread safe
+     */
+    default boolean supportsAsyncGeneration() {
+        return false;
+    }
+
+    /**
+     * Called from the server thread when the world is unloaded. Generators can release state they keep for other
+     * threads here.
+     */
+    default void onWorldUnload() {
+    }
+
     /**
      * Generate column-global information such as biome data
      *
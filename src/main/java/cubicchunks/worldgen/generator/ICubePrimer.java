@@ -27,6 +27,7 @@ import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -55,4 +56,29 @@ public interface ICubePrimer {
      * @param state the block state
      */
     void setBlockState(int x, int y, int z, IBlockState state);
+
+    /**
+     * Set all blocks to the given state
+     *
+     * @param state the block state
+     */
+    default void fill(IBlockState state) {
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    setBlockState(x, y, z, state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the block state of all blocks, if all blocks are the same. Implementations that can't tell quickly may
+     * return null even if they are.
+     *
+     * @return the state of every block, or null if they aren't all the same
+     */
+    @Nullable default IBlockState getUniformState() {
+        return null;
+    }
 }
@@ -36,6 +36,12 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class WorldGenUtils {
 
+    /**
+     * Vanilla biome generation isn't thread safe, GenLayers keep state between calls and share the static IntCache. Any
+     * use of a BiomeProvider that could run at the same time as generation on another thread must hold this lock.
+     */
+    public static final Object BIOME_GENERATION_LOCK = new Object();
+
     public static IBlockState getRandomBedrockReplacement(ICubicWorld world, Random rand, IBlockState state, int blockY, int medrockLevels) {
         int heightAboveBottom = blockY - world.getMinHeight();
         if (heightAboveBottom < 5) {
@@ -0,0 +1,202 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.worldgen.generator.custom;
+
+import com.google.common.collect.ImmutableList;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.MathUtil;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.gen.feature.WorldGenMinable;
+import net.minecraft.world.gen.feature.WorldGenerator;
+
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * {@link CustomGeneratorSettings} of a world, parsed once and prepared for use by populators. Ore generators are
+ * created up front, with their height ranges converted to block coordinates.
+ * <p>
+ * An instance is owned by the {@link CustomTerrainGenerator} of a world and shared between all of its populators and
+ * threads, so neither this object nor the settings returned by {@link #getSettings()} may be modified.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class CompiledGeneratorSettings {
+
+    private final CustomGeneratorSettings settings;
+    private final ImmutableList<OreGenerator> ores;
+
+    CompiledGeneratorSettings(CustomGeneratorSettings settings) {
+        this.settings = settings;
+        ImmutableList.Builder<OreGenerator> ores = ImmutableList.builder();
+        for (CustomGeneratorSettings.StandardOreConfig c : settings.standardOres) {
+            ores.add(new UniformOreGenerator(settings, c));
+        }
+        for (CustomGeneratorSettings.PeriodicGaussianOreConfig c : settings.periodicGaussianOres) {
+            ores.add(new BellCurveOreGenerator(settings, c));
+        }
+        this.ores = ores.build();
+    }
+
+    /**
+     * @return the compiled generator settings of the given world
+     * @throws IllegalStateException if the world isn't generated by a {@link CustomTerrainGenerator}
+     */
+    public static CompiledGeneratorSettings of(ICubicWorld world) {
+        if (world instanceof ICubicWorldServer
+                && ((ICubicWorldServer) world).getCubeCache().getCubeGenerator() instanceof CustomTerrainGenerator) {
+            return ((CustomTerrainGenerator) ((ICubicWorldServer) world).getCubeCache().getCubeGenerator()).getCompiledSettings();
+        }
+        throw new IllegalStateException("World " + world + " isn't generated by " + CustomTerrainGenerator.class.getSimpleName());
+    }
+
+    public CustomGeneratorSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Generates all configured ores in the given population area, standard ores first, then periodic gaussian ores,
+     * each in the order they are configured in.
+     */
+    public void generateOres(ICubicWorld world, Random random, CubePos pos) {
+        for (OreGenerator ore : ores) {
+            ore.generate(world, random, pos);
+        }
+    }
+
+    private interface OreGenerator {
+
+        void generate(ICubicWorld world, Random random, CubePos pos);
+    }
+
+    private static final class UniformOreGenerator implements OreGenerator {
+
+        private final WorldGenerator generator;
+        private final int count;
+        private final double probability;
+        private final int minBlockY;
+        private final int maxBlockY;
+
+        UniformOreGenerator(CustomGeneratorSettings cfg, CustomGeneratorSettings.StandardOreConfig c) {
+            this.generator = new WorldGenMinable(c.blockstate, c.spawnSize);
+            this.count = c.spawnTries;
+            this.probability = c.spawnProbability;
+            this.minBlockY = Math.round((float) (c.minHeight * cfg.heightFactor + cfg.heightOffset));
+            this.maxBlockY = Math.round((float) (c.maxHeight * cfg.heightFactor + cfg.heightOffset));
+        }
+
+        @Override public void generate(ICubicWorld world, Random random, CubePos pos) {
+            if (pos.getMinBlockY() > maxBlockY || pos.getMaxBlockY() < minBlockY) {
+                return;
+            }
+            for (int i = 0; i < count; ++i) {
+                if (random.nextDouble() > probability) {
+                    continue;
+                }
+                int yOffset = random.nextInt(Cube.SIZE) + Cube.SIZE / 2;
+                int blockY = pos.getMinBlockY() + yOffset;
+                if (blockY > maxBlockY || blockY < minBlockY) {
+                    continue;
+                }
+                int xOffset = random.nextInt(Cube.SIZE);
+                int zOffset = random.nextInt(Cube.SIZE);
+                generator.generate((World) world, random, new BlockPos(pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset));
+            }
+        }
+    }
+
+    private static final class BellCurveOreGenerator implements OreGenerator {
+
+        private final WorldGenerator generator;
+        private final int count;
+        private final double probability;
+        private final int minBlockY;
+        private final int maxBlockY;
+        private final int mean;
+        private final double stdDev;
+        private final int spacing;
+        // MathUtil.bellCurveProbabilityCyclic repeats every spacing blocks, but takes the remainder of a signed
+        // value, so the pattern differs on both sides of curveStart. Each side gets its own table of one period.
+        private final int curveStart;
+        private final double[] curveAbove;
+        private final double[] curveBelow;
+
+        BellCurveOreGenerator(CustomGeneratorSettings cfg, CustomGeneratorSettings.PeriodicGaussianOreConfig c) {
+            this.generator = new WorldGenMinable(c.blockstate, c.spawnSize);
+            this.count = c.spawnTries;
+            this.probability = c.spawnProbability;
+
+            int factor = (cfg.getMaxHeight() - cfg.getMinHeight()) / 2;
+            this.minBlockY = Math.round((float) (c.minHeight * factor + cfg.heightOffset));
+            this.maxBlockY = Math.round((float) (c.maxHeight * factor + cfg.heightOffset));
+            //temporary fix for slider becoming 0 at minimum position
+            double spacing = c.heightSpacing == 0.0 ? 0.5 : c.heightSpacing;
+            this.spacing = Math.round((float) (spacing * factor));
+            this.mean = Math.round((float) (c.heightMean * factor + cfg.heightOffset));
+            this.stdDev = c.heightStdDeviation * factor;
+
+            // first block y for which the value MathUtil takes the remainder of isn't negative
+            this.curveStart = mean + (this.spacing + 1) / 2;
+            int period = Math.max(this.spacing, 0);
+            this.curveAbove = new double[period];
+            this.curveBelow = new double[period];
+            for (int i = 0; i < period; i++) {
+                curveAbove[i] = MathUtil.bellCurveProbabilityCyclic(curveStart + i, mean, stdDev, this.spacing);
+                curveBelow[i] = MathUtil.bellCurveProbabilityCyclic(curveStart - period + i, mean, stdDev, this.spacing);
+            }
+        }
+
+        private double getModifier(int blockY) {
+            if (spacing <= 0) {
+                return MathUtil.bellCurveProbabilityCyclic(blockY, mean, stdDev, spacing);
+            }
+            int i = Math.floorMod(blockY - curveStart, spacing);
+            return blockY >= curveStart ? curveAbove[i] : curveBelow[i];
+        }
+
+        @Override public void generate(ICubicWorld world, Random random, CubePos pos) {
+            for (int i = 0; i < count; ++i) {
+                int yOffset = random.nextInt(Cube.SIZE) + Cube.SIZE / 2;
+                int blockY = pos.getMinBlockY() + yOffset;
+                //skip all potential spawns outside the spawn range
+                if ((blockY > maxBlockY) || (blockY < minBlockY)) {
+                    continue;
+                }
+                //Modify base probability with the curve
+                if (random.nextDouble() > (probability * getModifier(blockY))) {
+                    continue;
+                }
+                int xOffset = random.nextInt(Cube.SIZE);
+                int zOffset = random.nextInt(Cube.SIZE);
+                generator.generate((World) world, random, new BlockPos(pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset));
+            }
+        }
+    }
+}
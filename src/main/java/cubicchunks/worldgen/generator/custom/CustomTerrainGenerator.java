@@ -34,12 +34,14 @@ import cubicchunks.api.worldgen.populator.ICubicPopulator;
 import cubicchunks.util.Box;
 import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
+import cubicchunks.util.cache.HashCacheDoubles3d;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.BasicCubeGenerator;
 import cubicchunks.worldgen.generator.CubeGeneratorsRegistry;
 import cubicchunks.worldgen.generator.CubePrimer;
 import cubicchunks.worldgen.generator.ICubePrimer;
+import cubicchunks.worldgen.generator.WorldGenUtils;
 import cubicchunks.worldgen.generator.custom.biome.replacer.IBiomeBlockReplacer;
 import cubicchunks.worldgen.generator.custom.builder.BiomeSource;
 import cubicchunks.worldgen.generator.custom.builder.IBuilder;
@@ -61,9 +63,12 @@ import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.FMLCommonHandler;
 import org.lwjgl.input.Keyboard;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.function.ToIntFunction;
+import java.util.WeakHashMap;
+import java.util.function.IntBinaryOperator;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -71,6 +76,11 @@ import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
  * A terrain generator that supports infinite(*) worlds
+ * <p>
+ * Cubes can be generated on multiple threads at once when
+ * {@link CubicChunks.Config.BoolOptions#ASYNC_CUSTOM_TERRAIN_GENERATION} is enabled. The settings are shared,
+ * everything that keeps state between calls (noise caches, biome caches and structure generators) is in a
+ * {@link GenerationContext} created for each thread.
  */
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
@@ -78,31 +88,58 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
 
     private static final int CACHE_SIZE_2D = 16 * 16;
     private static final int CACHE_SIZE_3D = 16 * 16 * 16;
-    private static final ToIntFunction<Vec3i> HASH_2D = (v) -> v.getX() + v.getZ() * 5;
-    private static final ToIntFunction<Vec3i> HASH_3D = (v) -> v.getX() + v.getZ() * 5 + v.getY() * 25;
-    // Number of octaves for the noise function
-    private IBuilder terrainBuilder;
-    private final BiomeSource biomeSource;
+    private static final IntBinaryOperator HASH_2D = (x, z) -> x + z * 5;
+    private static final HashCacheDoubles3d.Hash HASH_3D = (x, y, z) -> x + z * 5 + y * 25;
+    private final CompiledGeneratorSettings compiledSettings;
     private final CustomGeneratorSettings conf;
+    // changed only when reloading the generator for debugging, contexts created with a different seed are recreated
+    private volatile long seed;
+    // not a ThreadLocal, the contexts reference the world and would stay in the generator threads after it's unloaded
+    private final Map<Thread, GenerationContext> contexts = Collections.synchronizedMap(new WeakHashMap<>());
 
     //TODO: Implement more structures
-    @Nonnull private CubicCaveGenerator caveGenerator = new CubicCaveGenerator();
-    @Nonnull private CubicStructureGenerator ravineGenerator = new CubicRavineGenerator();
+    // only used from the server thread
     @Nonnull private CubicFeatureGenerator strongholds;
 
     public CustomTerrainGenerator(ICubicWorld world, final long seed) {
         super(world);
 
-        String json = world.getWorldInfo().getGeneratorOptions();
-        this.conf = CustomGeneratorSettings.fromJson(json);
+        this.compiledSettings = new CompiledGeneratorSettings(CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions()));
+        this.conf = compiledSettings.getSettings();
+        this.seed = seed;
 
         this.strongholds = new CubicStrongholdGenerator(conf);
+    }
+
+    /**
+     * @return the settings of this generator, prepared for use by populators
+     */
+    public CompiledGeneratorSettings getCompiledSettings() {
+        return compiledSettings;
+    }
+
+    private GenerationContext getContext() {
+        Thread thread = Thread.currentThread();
+        GenerationContext ctx = contexts.get(thread);
+        long seed = this.seed;
+        if (ctx == null || ctx.seed != seed) {
+            ctx = new GenerationContext(seed);
+            contexts.put(thread, ctx);
+        }
+        return ctx;
+    }
+
+    @Override public boolean supportsAsyncGeneration() {
+        // All mutable state is per thread, and biome generation done here holds WorldGenUtils.BIOME_GENERATION_LOCK.
+        // Biome lookups done on the server thread by vanilla and other mods don't, so this is off unless enabled.
+        return CubicChunks.Config.BoolOptions.ASYNC_CUSTOM_TERRAIN_GENERATION.getValue();
+    }
 
-        this.biomeSource = new BiomeSource(world, conf.createBiomeBlockReplacerConfig(), world.getBiomeProvider(), 2);
-        initGenerator(seed);
+    @Override public void onWorldUnload() {
+        contexts.clear();
     }
 
-    private void initGenerator(long seed) {
+    private IBuilder createTerrainBuilder(long seed, BiomeSource biomeSource) {
         Random rnd = new Random(seed);
 
         IBuilder selector = NoiseSource.perlin()
@@ -151,7 +188,7 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
                 .mul(conf.heightVariationFactor)
                 .add(conf.heightVariationOffset);
 
-        this.terrainBuilder = selector
+        return selector
                 .lerp(low, high).add(randomHeight2d).mul(volatility).add(height)
                 .sub((x, y, z) -> y)
                 .cached(CACHE_SIZE_3D, HASH_3D);
@@ -173,6 +210,10 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
             CubicBiome biome = CubicBiome.getCubic(cube.getCubicWorld().getBiome(Coords.getCubeCenter(cube)));
 
             CubePos pos = cube.getCoords();
+            // structure starts are world data, so they are found here on the server thread instead of in generateCube
+            if (this.conf.strongholds) {
+                strongholds.generate(world, null, pos);
+            }
             // For surface generators we should actually use special RNG with
             // seed
             // that depends only in world seed and cube X/Z
@@ -218,16 +259,17 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
         // no need to restart after applying changes.
         // Seed it changed to some constant because world isn't easily accessible here
         if (CubicChunks.DEBUG_ENABLED && FMLCommonHandler.instance().getSide().isClient() && Keyboard.isKeyDown(Keyboard.KEY_L)) {
-            initGenerator(42);
+            this.seed = 42;
         }
+        GenerationContext ctx = getContext();
 
         BlockPos start = new BlockPos(cubeX * 4, cubeY * 2, cubeZ * 4);
         BlockPos end = start.add(4, 2, 4);
-        terrainBuilder.forEachScaled(start, end, new Vec3i(4, 8, 4),
+        ctx.terrainBuilder.forEachScaled(start, end, new Vec3i(4, 8, 4),
                 (x, y, z, dx, dy, dz, v) ->
                         cubePrimer.setBlockState(
                                 blockToLocal(x), blockToLocal(y), blockToLocal(z),
-                                getBlock(x, y, z, dx, dy, dz, v))
+                                getBlock(ctx, x, y, z, dx, dy, dz, v))
         );
 
     }
@@ -237,8 +279,8 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
      *
      * @return The block state
      */
-    private IBlockState getBlock(int x, int y, int z, double dx, double dy, double dz, double density) {
-        List<IBiomeBlockReplacer> replacers = biomeSource.getReplacers(x, y, z);
+    private IBlockState getBlock(GenerationContext ctx, int x, int y, int z, double dx, double dy, double dz, double density) {
+        List<IBiomeBlockReplacer> replacers = ctx.biomeSource.getReplacers(x, y, z);
         IBlockState block = Blocks.AIR.getDefaultState();
         int size = replacers.size();
         for (int i = 0; i < size; i++) {
@@ -248,15 +290,35 @@ public class CustomTerrainGenerator extends BasicCubeGenerator {
     }
 
     private void generateStructures(ICubePrimer cube, CubePos cubePos) {
+        GenerationContext ctx = getContext();
         // generate world populator
         if (this.conf.caves) {
-            this.caveGenerator.generate(world, cube, cubePos);
+            ctx.caveGenerator.generate(world, cube, cubePos);
         }
         if (this.conf.ravines) {
-            this.ravineGenerator.generate(world, cube, cubePos);
+            ctx.ravineGenerator.generate(world, cube, cubePos);
         }
-        if (this.conf.strongholds) {
-            this.strongholds.generate(world, cube, cubePos);
+    }
+
+    /**
+     * Everything a single thread needs to generate cubes. Created separately for each thread, so none of it has to be
+     * thread safe.
+     */
+    private final class GenerationContext {
+
+        final long seed;
+        final BiomeSource biomeSource;
+        final IBuilder terrainBuilder;
+        final CubicStructureGenerator caveGenerator = new CubicCaveGenerator();
+        final CubicStructureGenerator ravineGenerator = new CubicRavineGenerator();
+
+        GenerationContext(long seed) {
+            this.seed = seed;
+            // biome block replacers initialize data in vanilla biomes when created
+            synchronized (WorldGenUtils.BIOME_GENERATION_LOCK) {
+                this.biomeSource = new BiomeSource(world, conf.createBiomeBlockReplacerConfig(), world.getBiomeProvider(), 2);
+            }
+            this.terrainBuilder = createTerrainBuilder(seed, biomeSource);
         }
     }
 }
@@ -25,7 +25,7 @@ package cubicchunks.worldgen.generator.custom.biome.replacer;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.api.worldgen.biome.CubicBiome;
-import cubicchunks.util.cache.HashCacheDoubles;
+import cubicchunks.util.cache.HashCacheDoubles2d;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.worldgen.generator.custom.builder.IBuilder;
 import mcp.MethodsReturnNonnullByDefault;
@@ -35,7 +35,7 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.item.EnumDyeColor;
 import net.minecraft.util.ResourceLocation;
-import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.biome.BiomeMesa;
 import net.minecraft.world.gen.NoiseGeneratorPerlin;
 
@@ -61,9 +61,9 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
     private final BiomeMesa biomeMesa;
 
     private final IBlockState[] clayBands;
-    private final HashCacheDoubles<BlockPos> clayBandsOffsetNoise;
-    private final HashCacheDoubles<BlockPos> pillarNoise;
-    private final HashCacheDoubles<BlockPos> pillarRoofNoise;
+    private final HashCacheDoubles2d clayBandsOffsetNoise;
+    private final HashCacheDoubles2d pillarNoise;
+    private final HashCacheDoubles2d pillarRoofNoise;
 
     protected static final IBlockState STAINED_HARDENED_CLAY = Blocks.STAINED_HARDENED_CLAY.getDefaultState();
     protected static final IBlockState AIR = Blocks.AIR.getDefaultState();
@@ -86,18 +86,18 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
         // so that we don't cause issues when we replace clayBands and scrollOffset noise
         biomeMesa.worldSeed = world.getSeed();
         this.clayBands = Arrays.copyOf(biomeMesa.clayBands, biomeMesa.clayBands.length);
-        this.clayBandsOffsetNoise = HashCacheDoubles.create(
-                256, p -> p.getX() * 16 + p.getZ(), p -> biomeMesa.clayBandsOffsetNoise.getValue(p.getX() / 512.0, p.getZ() / 512.0)
+        this.clayBandsOffsetNoise = HashCacheDoubles2d.create(
+                256, (x, z) -> x * 16 + z, (x, z) -> biomeMesa.clayBandsOffsetNoise.getValue(x / 512.0, z / 512.0)
         );
 
         Random random = new Random(world.getSeed());
         NoiseGeneratorPerlin pillasPerlin = new NoiseGeneratorPerlin(random, 4);
-        this.pillarNoise = HashCacheDoubles.create(
-                256, p -> p.getX() * 16 + p.getZ(), p -> pillasPerlin.getValue(p.getX(), p.getZ())
+        this.pillarNoise = HashCacheDoubles2d.create(
+                256, (x, z) -> x * 16 + z, (x, z) -> pillasPerlin.getValue(x, z)
         );
         NoiseGeneratorPerlin pillarRoofPerlin = new NoiseGeneratorPerlin(random, 1);
-        this.pillarRoofNoise = HashCacheDoubles.create(
-                256, p -> p.getX() * 16 + p.getZ(), p -> pillarRoofPerlin.getValue(p.getX(), p.getZ())
+        this.pillarRoofNoise = HashCacheDoubles2d.create(
+                256, (x, z) -> x * 16 + z, (x, z) -> pillarRoofPerlin.getValue(x, z)
         );
     }
 
@@ -156,11 +156,11 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
         double pillarHeight = 0.0;
         if (biomeMesa.brycePillars) {
             double pillarScale = Math.min(Math.abs(depth),
-                    this.pillarNoise.get(new BlockPos(x * 0.25D, 0, z * 0.25D)));
+                    this.pillarNoise.get(MathHelper.floor(x * 0.25D), MathHelper.floor(z * 0.25D)));
 
             if (pillarScale > 0.0D) {
                 double xzScale = 0.001953125D;
-                double pillarRoofVal = Math.abs(this.pillarRoofNoise.get(new BlockPos(x * xzScale, 0, z * xzScale)));
+                double pillarRoofVal = Math.abs(this.pillarRoofNoise.get(MathHelper.floor(x * xzScale), MathHelper.floor(z * xzScale)));
                 pillarHeight = pillarScale * pillarScale * 2.5D;
                 double cutoffHeight = Math.ceil(pillarRoofVal * 50.0D) + 14.0D;
 
@@ -175,7 +175,7 @@ public class MesaSurfaceReplacer implements IBiomeBlockReplacer {
     }
 
     private IBlockState getBand(int blockX, int blockY, int blockZ) {
-        int offset = (int) Math.round(this.clayBandsOffsetNoise.get(new BlockPos(blockX, 0, blockX)) * 2.0D);
+        int offset = (int) Math.round(this.clayBandsOffsetNoise.get(blockX, blockX) * 2.0D);
         return clayBands[(blockY + offset + 64) & 63];
     }
 
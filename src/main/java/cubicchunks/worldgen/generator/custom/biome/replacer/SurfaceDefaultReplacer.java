@@ -148,6 +148,6 @@ public class SurfaceDefaultReplacer implements IBiomeBlockReplacer {
                 .frequency(ConversionUtils.frequencyFromVanilla(0.0625f, 4)).octaves(4).create()
                 .mul((1 << 3) - 1) // TODO: do it properly, currently this value is just temporary until I figure out the right one
                 .mul(1.0 / 3.0).add(3)
-                .cached2d(256, v -> v.getX() + v.getZ() * 16);
+                .cached2d(256, (x, z) -> x + z * 16);
     }
 }
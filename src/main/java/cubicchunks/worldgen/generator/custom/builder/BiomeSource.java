@@ -24,17 +24,16 @@
 package cubicchunks.worldgen.generator.custom.builder;
 
 import cubicchunks.util.Coords;
-import cubicchunks.util.cache.HashCache;
+import cubicchunks.util.cache.HashCache2d;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.WorldGenUtils;
 import cubicchunks.worldgen.generator.custom.ConversionUtils;
 import cubicchunks.api.worldgen.biome.CubicBiome;
 import cubicchunks.worldgen.generator.custom.biome.replacer.BiomeBlockReplacerConfig;
 import cubicchunks.worldgen.generator.custom.biome.replacer.IBiomeBlockReplacer;
 import cubicchunks.worldgen.generator.custom.biome.replacer.IBiomeBlockReplacerProvider;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.util.math.ChunkPos;
-import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.BiomeProvider;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
@@ -44,7 +43,7 @@ import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.ToIntFunction;
+import java.util.function.IntBinaryOperator;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -62,8 +61,8 @@ public class BiomeSource {
     private static final int SECTIONS_CACHE_RADIUS = 16;
     private static final int SECTIONS_CACHE_SIZE = SECTIONS_CACHE_RADIUS * SECTIONS_CACHE_RADIUS;
 
-    private static final ToIntFunction<ChunkPos> HASH_CHUNKS = v -> v.x * CHUNKS_CACHE_RADIUS + v.z;
-    private static final ToIntFunction<Vec3i> HASH_SECTIONS = v -> v.getX() * SECTIONS_CACHE_RADIUS + v.getZ();
+    private static final IntBinaryOperator HASH_CHUNKS = (x, z) -> x * CHUNKS_CACHE_RADIUS + z;
+    private static final IntBinaryOperator HASH_SECTIONS = (x, z) -> x * SECTIONS_CACHE_RADIUS + z;
 
     private final Map<Biome, List<IBiomeBlockReplacer>> biomeBlockReplacers = new IdentityHashMap<>();
     private final double[] nearBiomeWeightArray;
@@ -73,13 +72,13 @@ public class BiomeSource {
     private final int smoothDiameter;
 
     /** Mapping from chunk position to 4x4 sections 4x4 blocks each */
-    private final HashCache<ChunkPos, CubicBiome[]> biomeCacheSectionsChunk;
+    private final HashCache2d<CubicBiome[]> biomeCacheSectionsChunk;
     /** Mapping from chunk positions to Cache with sections of 16x16 blocks (chunk) */
-    private final HashCache<ChunkPos, CubicBiome[]> biomeCacheBlocks;
+    private final HashCache2d<CubicBiome[]> biomeCacheBlocks;
     /** Mapping from chunk positions to Cache with sections of 16x16 blocks (chunk) */
-    private final HashCache<ChunkPos, List<IBiomeBlockReplacer>[]> biomeBlockReplacerCache;
+    private final HashCache2d<List<IBiomeBlockReplacer>[]> biomeBlockReplacerCache;
 
-    private final HashCache<Vec3i, BiomeTerrainData> biomeDataCache;
+    private final HashCache2d<BiomeTerrainData> biomeDataCache;
 
     public BiomeSource(ICubicWorld world, BiomeBlockReplacerConfig conf, BiomeProvider biomeGen, int smoothRadius) {
         this.biomeGen = biomeGen;
@@ -95,10 +94,10 @@ public class BiomeSource {
             }
         }
 
-        this.biomeCacheSectionsChunk = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomeSections);
-        this.biomeCacheBlocks = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomes);
-        this.biomeDataCache = HashCache.create(SECTIONS_CACHE_SIZE, HASH_SECTIONS, this::generateBiomeTerrainData);
-        this.biomeBlockReplacerCache = HashCache.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateReplacers);
+        this.biomeCacheSectionsChunk = HashCache2d.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomeSections);
+        this.biomeCacheBlocks = HashCache2d.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateBiomes);
+        this.biomeDataCache = HashCache2d.create(SECTIONS_CACHE_SIZE, HASH_SECTIONS, this::generateBiomeTerrainData);
+        this.biomeBlockReplacerCache = HashCache2d.create(CHUNKS_CACHE_SIZE, HASH_CHUNKS, this::generateReplacers);
 
         for (Biome biome : ForgeRegistries.BIOMES) {
             CubicBiome cubicBiome = CubicBiome.getCubic(biome);
@@ -112,24 +111,24 @@ public class BiomeSource {
         }
     }
 
-    private List<IBiomeBlockReplacer>[] generateReplacers(ChunkPos pos) {
-        CubicBiome[] biomes = biomeCacheBlocks.get(pos);
+    private List<IBiomeBlockReplacer>[] generateReplacers(int cubeX, int cubeZ) {
+        CubicBiome[] biomes = biomeCacheBlocks.get(cubeX, cubeZ);
         return this.mapToReplacers(biomes);
     }
 
-    private BiomeTerrainData generateBiomeTerrainData(Vec3i pos) {
+    private BiomeTerrainData generateBiomeTerrainData(int sectionX, int sectionZ) {
 
         // Calculate weighted average of nearby biomes height and volatility
         double smoothVolatility = 0.0F;
         double smoothHeight = 0.0F;
 
         double biomeWeightSum = 0.0F;
-        final Biome centerBiomeConfig = getBiomeForSection(pos.getX(), pos.getZ()).getBiome();
+        final Biome centerBiomeConfig = getBiomeForSection(sectionX, sectionZ).getBiome();
         final int lookRadius = this.smoothRadius;
 
         for (int nextX = -lookRadius; nextX <= lookRadius; nextX++) {
             for (int nextZ = -lookRadius; nextZ <= lookRadius; nextZ++) {
-                final Biome biome = getBiomeForSection(pos.getX() + nextX, pos.getZ() + nextZ).getBiome();
+                final Biome biome = getBiomeForSection(sectionX + nextX, sectionZ + nextZ).getBiome();
 
                 final double biomeHeight = biome.getBaseHeight();
                 final double biomeVolatility = biome.getHeightVariation();
@@ -159,17 +158,26 @@ public class BiomeSource {
         return data;
     }
 
-    private CubicBiome[] generateBiomes(ChunkPos pos) {
-        return mapToCubic(biomeGen.getBiomes(null,
-                Coords.cubeToMinBlock(pos.x),
-                Coords.cubeToMinBlock(pos.z),
-                Cube.SIZE, Cube.SIZE));
+    private CubicBiome[] generateBiomes(int cubeX, int cubeZ) {
+        Biome[] biomes;
+        synchronized (WorldGenUtils.BIOME_GENERATION_LOCK) {
+            // without the BiomeProvider cache, which the server thread uses without the lock
+            biomes = biomeGen.getBiomes(null,
+                    Coords.cubeToMinBlock(cubeX),
+                    Coords.cubeToMinBlock(cubeZ),
+                    Cube.SIZE, Cube.SIZE, false);
+        }
+        return mapToCubic(biomes);
     }
 
-    private CubicBiome[] generateBiomeSections(ChunkPos pos) {
-        return mapToCubic(biomeGen.getBiomesForGeneration(null,
-                pos.x * SECTION_SIZE, pos.z * SECTION_SIZE,
-                SECTION_SIZE, SECTION_SIZE));
+    private CubicBiome[] generateBiomeSections(int chunkX, int chunkZ) {
+        Biome[] biomes;
+        synchronized (WorldGenUtils.BIOME_GENERATION_LOCK) {
+            biomes = biomeGen.getBiomesForGeneration(null,
+                    chunkX * SECTION_SIZE, chunkZ * SECTION_SIZE,
+                    SECTION_SIZE, SECTION_SIZE);
+        }
+        return mapToCubic(biomes);
     }
 
     private CubicBiome[] mapToCubic(Biome[] vanillaBiomes) {
@@ -189,21 +197,19 @@ public class BiomeSource {
     }
 
     public double getHeight(int x, int y, int z) {
-        return biomeDataCache.get(new Vec3i(x / 4.0, 0, z / 4.0)).height;
+        return biomeDataCache.get(x >> 2, z >> 2).height;
     }
 
     public double getVolatility(int x, int y, int z) {
-        return biomeDataCache.get(new Vec3i(x / 4.0, 0, z / 4.0)).heightVariation;
+        return biomeDataCache.get(x >> 2, z >> 2).heightVariation;
     }
 
     public CubicBiome getBiome(int blockX, int blockY, int blockZ) {
-        ChunkPos pos = new ChunkPos(Coords.blockToCube(blockX), Coords.blockToCube(blockZ));
-        return biomeCacheBlocks.get(pos)[Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX)];
+        return biomeCacheBlocks.get(Coords.blockToCube(blockX), Coords.blockToCube(blockZ))[Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX)];
     }
 
     public List<IBiomeBlockReplacer> getReplacers(int blockX, int blockY, int blockZ) {
-        ChunkPos pos = new ChunkPos(Coords.blockToCube(blockX), Coords.blockToCube(blockZ));
-        return biomeBlockReplacerCache.get(pos)[Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX)];
+        return biomeBlockReplacerCache.get(Coords.blockToCube(blockX), Coords.blockToCube(blockZ))[Coords.blockToLocal(blockZ) << 4 | Coords.blockToLocal(blockX)];
     }
 
     private CubicBiome getBiomeForSection(int x, int z) {
@@ -213,7 +219,7 @@ public class BiomeSource {
         int chunkX = Math.floorDiv(x, 4);
         int chunkZ = Math.floorDiv(z, 4);
 
-        return biomeCacheSectionsChunk.get(new ChunkPos(chunkX, chunkZ))[localX + localZ * 4];
+        return biomeCacheSectionsChunk.get(chunkX, chunkZ)[localX + localZ * 4];
     }
 
     private double calcBiomeWeight(int nextX, int nextZ, double biomeHeight) {
@@ -0,0 +1,467 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.worldgen.generator.custom.builder;
+
+import cubicchunks.util.MathUtil;
+import cubicchunks.util.cache.HashCacheDoubles2d;
+import cubicchunks.util.cache.HashCacheDoubles3d;
+import gnu.trove.function.TDoubleFunction;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.MathHelper;
+
+import java.util.Arrays;
+import java.util.function.DoublePredicate;
+import java.util.function.IntBinaryOperator;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Implementations of the builders created by {@link IBuilder} methods. All of them compute
+ * {@link IBuilder#getGrid} one operation at a time for the whole grid, instead of one point at a time.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+final class BuilderNodes {
+
+    private BuilderNodes() {
+        throw new RuntimeException();
+    }
+
+    /**
+     * Applies the step to the values of the source builder. Consecutive steps are merged into one builder, so that the
+     * whole chain is applied in one pass over the grid.
+     */
+    static IBuilder chain(IBuilder source, Step step) {
+        if (source instanceof Chain) {
+            return ((Chain) source).append(step);
+        }
+        return new Chain(source, new Step[]{step});
+    }
+
+    /**
+     * An operation with a constant, or a function, applied to a single value.
+     */
+    static final class Step {
+
+        private static final int ADD = 0;
+        private static final int MUL = 1;
+        private static final int DIV = 2;
+        private static final int CLAMP = 3;
+        private static final int FUNCTION = 4;
+
+        private final int op;
+        private final double a;
+        private final double b;
+        @Nullable private final TDoubleFunction function;
+        @Nullable private final DoublePredicate condition;
+
+        private Step(int op, double a, double b, @Nullable TDoubleFunction function, @Nullable DoublePredicate condition) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.function = function;
+            this.condition = condition;
+        }
+
+        static Step add(double c) {
+            return new Step(ADD, c, 0, null, null);
+        }
+
+        static Step mul(double c) {
+            return new Step(MUL, c, 0, null, null);
+        }
+
+        static Step div(double c) {
+            return new Step(DIV, c, 0, null, null);
+        }
+
+        static Step clamp(double min, double max) {
+            return new Step(CLAMP, min, max, null, null);
+        }
+
+        static Step apply(TDoubleFunction function) {
+            return new Step(FUNCTION, 0, 0, function, null);
+        }
+
+        /**
+         * @return this step, applied only to values that match the predicate
+         */
+        Step onlyIf(DoublePredicate predicate) {
+            return new Step(op, a, b, function, predicate);
+        }
+
+        /**
+         * @return a single step equivalent to applying this step and then the next one, or null if there isn't one
+         */
+        @Nullable Step merge(Step next) {
+            // Only steps that can be merged without changing any result are merged. Folding add/add or mul/mul chains
+            // into one constant would round differently in the last ulp, and terrain generated next to cubes
+            // generated before the change would no longer line up.
+            // clamp(clamp(x, a, b), c, d) == clamp(x, max(a, c), min(b, d)) as long as the ranges overlap
+            if (op == CLAMP && next.op == CLAMP && condition == null && next.condition == null
+                    && Math.max(a, next.a) <= Math.min(b, next.b)) {
+                return clamp(Math.max(a, next.a), Math.min(b, next.b));
+            }
+            return null;
+        }
+
+        double apply(double value) {
+            if (condition != null && !condition.test(value)) {
+                return value;
+            }
+            switch (op) {
+                case ADD:
+                    return value + a;
+                case MUL:
+                    return value * a;
+                case DIV:
+                    return value / a;
+                case CLAMP:
+                    return MathHelper.clamp(value, a, b);
+                default:
+                    assert function != null;
+                    return function.execute(value);
+            }
+        }
+
+        void applyAll(double[] values, int count) {
+            if (condition != null || op == FUNCTION) {
+                for (int i = 0; i < count; i++) {
+                    values[i] = apply(values[i]);
+                }
+                return;
+            }
+            // separate loops for each operation, so that the JIT can vectorize them
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < count; i++) {
+                        values[i] += a;
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < count; i++) {
+                        values[i] *= a;
+                    }
+                    break;
+                case DIV:
+                    for (int i = 0; i < count; i++) {
+                        values[i] /= a;
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) {
+                        values[i] = MathHelper.clamp(values[i], a, b);
+                    }
+            }
+        }
+    }
+
+    private static final class Chain implements IBuilder {
+
+        private final IBuilder source;
+        private final Step[] steps;
+
+        Chain(IBuilder source, Step[] steps) {
+            this.source = source;
+            this.steps = steps;
+        }
+
+        // builders can be shared, so this returns a new chain instead of modifying this one
+        Chain append(Step step) {
+            Step merged = steps[steps.length - 1].merge(step);
+            if (merged != null) {
+                Step[] newSteps = steps.clone();
+                newSteps[newSteps.length - 1] = merged;
+                return new Chain(source, newSteps);
+            }
+            Step[] newSteps = Arrays.copyOf(steps, steps.length + 1);
+            newSteps[steps.length] = step;
+            return new Chain(source, newSteps);
+        }
+
+        @Override public double get(int x, int y, int z) {
+            double value = source.get(x, y, z);
+            for (Step step : steps) {
+                value = step.apply(value);
+            }
+            return value;
+        }
+
+        @Override public void getGrid(double[] out, int startX, int startY, int startZ,
+                int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+            source.getGrid(out, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            int count = sizeX * sizeY * sizeZ;
+            for (Step step : steps) {
+                step.applyAll(out, count);
+            }
+        }
+    }
+
+    /**
+     * Combines the values of 2 builders. If there is a condition, the value of the second builder is only used where
+     * the value of the first one matches it, and it's only computed for the whole grid if most values match.
+     */
+    static final class Combine implements IBuilder {
+
+        static final int ADD = 0;
+        static final int SUB = 1;
+        static final int MUL = 2;
+        static final int DIV = 3;
+
+        private final IBuilder first;
+        private final IBuilder second;
+        private final int op;
+        @Nullable private final DoublePredicate condition;
+
+        Combine(IBuilder first, IBuilder second, int op, @Nullable DoublePredicate condition) {
+            this.first = first;
+            this.second = second;
+            this.op = op;
+            this.condition = condition;
+        }
+
+        private double apply(double v1, double v2) {
+            switch (op) {
+                case ADD:
+                    return v1 + v2;
+                case SUB:
+                    return v1 - v2;
+                case MUL:
+                    return v1 * v2;
+                default:
+                    return v1 / v2;
+            }
+        }
+
+        @Override public double get(int x, int y, int z) {
+            double value = first.get(x, y, z);
+            if (condition != null && !condition.test(value)) {
+                return value;
+            }
+            return apply(value, second.get(x, y, z));
+        }
+
+        @Override public void getGrid(double[] out, int startX, int startY, int startZ,
+                int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+            int count = sizeX * sizeY * sizeZ;
+            first.getGrid(out, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            if (condition != null) {
+                int matching = 0;
+                for (int i = 0; i < count; i++) {
+                    if (condition.test(out[i])) {
+                        matching++;
+                    }
+                }
+                if (matching * 2 <= count) {
+                    applyWhereMatching(out, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+                    return;
+                }
+            }
+            double[] other = new double[count];
+            second.getGrid(other, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            if (condition != null) {
+                for (int i = 0; i < count; i++) {
+                    if (condition.test(out[i])) {
+                        out[i] = apply(out[i], other[i]);
+                    }
+                }
+                return;
+            }
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < count; i++) {
+                        out[i] += other[i];
+                    }
+                    break;
+                case SUB:
+                    for (int i = 0; i < count; i++) {
+                        out[i] -= other[i];
+                    }
+                    break;
+                case MUL:
+                    for (int i = 0; i < count; i++) {
+                        out[i] *= other[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) {
+                        out[i] /= other[i];
+                    }
+            }
+        }
+
+        // computes the second builder one point at a time, only where it's needed
+        private void applyWhereMatching(double[] out, int startX, int startY, int startZ,
+                int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+            assert condition != null;
+            int i = 0;
+            for (int dx = 0; dx < sizeX; dx++) {
+                int x = startX + dx * stepX;
+                for (int dy = 0; dy < sizeY; dy++) {
+                    int y = startY + dy * stepY;
+                    for (int dz = 0; dz < sizeZ; dz++, i++) {
+                        if (condition.test(out[i])) {
+                            out[i] = apply(out[i], second.get(x, y, startZ + dz * stepZ));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static final class Lerp implements IBuilder {
+
+        private final IBuilder selector;
+        private final IBuilder low;
+        private final IBuilder high;
+
+        Lerp(IBuilder selector, IBuilder low, IBuilder high) {
+            this.selector = selector;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override public double get(int x, int y, int z) {
+            return MathUtil.lerp(selector.get(x, y, z), low.get(x, y, z), high.get(x, y, z));
+        }
+
+        @Override public void getGrid(double[] out, int startX, int startY, int startZ,
+                int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+            int count = sizeX * sizeY * sizeZ;
+            double[] lowValues = new double[count];
+            double[] highValues = new double[count];
+            selector.getGrid(out, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            low.getGrid(lowValues, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            high.getGrid(highValues, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            for (int i = 0; i < count; i++) {
+                out[i] = MathUtil.lerp(out[i], lowValues[i], highValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Caches single values. If at least half of the points of a grid are already cached, only the missing ones are
+     * computed, one at a time. Otherwise the whole grid is computed at once and added to the cache.
+     */
+    static final class Cached implements IBuilder {
+
+        private final IBuilder source;
+        private final HashCacheDoubles3d cache;
+
+        Cached(IBuilder source, int cacheSize, HashCacheDoubles3d.Hash hash) {
+            this.source = source;
+            this.cache = HashCacheDoubles3d.create(cacheSize, hash, source::get);
+        }
+
+        @Override public double get(int x, int y, int z) {
+            return cache.get(x, y, z);
+        }
+
+        @Override public void getGrid(double[] out, int startX, int startY, int startZ,
+                int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+            int count = sizeX * sizeY * sizeZ;
+            int missing = 0;
+            int i = 0;
+            for (int dx = 0; dx < sizeX; dx++) {
+                int x = startX + dx * stepX;
+                for (int dy = 0; dy < sizeY; dy++) {
+                    int y = startY + dy * stepY;
+                    for (int dz = 0; dz < sizeZ; dz++, i++) {
+                        if (!cache.contains(x, y, startZ + dz * stepZ)) {
+                            missing++;
+                        }
+                    }
+                }
+            }
+            if (missing * 2 <= count) {
+                // computes only the missing values, one at a time
+                IBuilder.super.getGrid(out, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+                return;
+            }
+            source.getGrid(out, startX, startY, startZ, sizeX, sizeY, sizeZ, stepX, stepY, stepZ);
+            i = 0;
+            for (int dx = 0; dx < sizeX; dx++) {
+                int x = startX + dx * stepX;
+                for (int dy = 0; dy < sizeY; dy++) {
+                    int y = startY + dy * stepY;
+                    for (int dz = 0; dz < sizeZ; dz++, i++) {
+                        cache.put(x, y, startZ + dz * stepZ, out[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches values at y=0 and uses them for all y coordinates. A grid is computed for a single layer, using the cache
+     * the same way as {@link Cached}, and copied to all the others.
+     */
+    static final class Cached2d implements IBuilder {
+
+        private final IBuilder source;
+        private final HashCacheDoubles2d cache;
+
+        Cached2d(IBuilder source, int cacheSize, IntBinaryOperator hash) {
+            this.source = source;
+            this.cache = HashCacheDoubles2d.create(cacheSize, hash, (x, z) -> source.get(x, 0, z));
+        }
+
+        @Override public double get(int x, int y, int z) {
+            return cache.get(x, z);
+        }
+
+        @Override public void getGrid(double[] out, int startX, int startY, int startZ,
+                int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+            double[] layer = new double[sizeX * sizeZ];
+            int missing = 0;
+            for (int dx = 0; dx < sizeX; dx++) {
+                for (int dz = 0; dz < sizeZ; dz++) {
+                    if (!cache.contains(startX + dx * stepX, startZ + dz * stepZ)) {
+                        missing++;
+                    }
+                }
+            }
+            if (missing * 2 <= layer.length) {
+                for (int dx = 0, i = 0; dx < sizeX; dx++) {
+                    for (int dz = 0; dz < sizeZ; dz++, i++) {
+                        layer[i] = cache.get(startX + dx * stepX, startZ + dz * stepZ);
+                    }
+                }
+            } else {
+                source.getGrid(layer, startX, 0, startZ, sizeX, 1, sizeZ, stepX, stepY, stepZ);
+                for (int dx = 0, i = 0; dx < sizeX; dx++) {
+                    for (int dz = 0; dz < sizeZ; dz++, i++) {
+                        cache.put(startX + dx * stepX, startZ + dz * stepZ, layer[i]);
+                    }
+                }
+            }
+            for (int x = 0; x < sizeX; x++) {
+                for (int y = 0; y < sizeY; y++) {
+                    System.arraycopy(layer, x * sizeZ, out, (x * sizeY + y) * sizeZ, sizeZ);
+                }
+            }
+        }
+    }
+}
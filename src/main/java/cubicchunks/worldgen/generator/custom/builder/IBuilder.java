@@ -23,15 +23,13 @@
  */
 package cubicchunks.worldgen.generator.custom.builder;
 
-import cubicchunks.util.MathUtil;
-import cubicchunks.util.cache.HashCacheDoubles;
+import cubicchunks.util.cache.HashCacheDoubles3d;
 import gnu.trove.function.TDoubleFunction;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3i;
 
 import java.util.function.DoublePredicate;
-import java.util.function.ToIntFunction;
+import java.util.function.IntBinaryOperator;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -47,117 +45,106 @@ public interface IBuilder {
 
     double get(int x, int y, int z);
 
+    /**
+     * Computes the values for a grid of points at once. The value at
+     * (startX + i * stepX, startY + j * stepY, startZ + k * stepZ) is stored in out[(i * sizeY + j) * sizeZ + k].
+     * <p>
+     * Builders created by the methods of this interface compute each operation for the whole grid before moving on to
+     * the next one, which is much faster than calling {@link #get(int, int, int)} for each point.
+     */
+    default void getGrid(double[] out, int startX, int startY, int startZ,
+            int sizeX, int sizeY, int sizeZ, int stepX, int stepY, int stepZ) {
+        int i = 0;
+        for (int dx = 0; dx < sizeX; dx++) {
+            int x = startX + dx * stepX;
+            for (int dy = 0; dy < sizeY; dy++) {
+                int y = startY + dy * stepY;
+                for (int dz = 0; dz < sizeZ; dz++) {
+                    out[i++] = get(x, y, startZ + dz * stepZ);
+                }
+            }
+        }
+    }
+
     default IBuilder add(IBuilder builder) {
-        return (x, y, z) -> this.get(x, y, z) + builder.get(x, y, z);
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.ADD, null);
     }
 
     default IBuilder add(double c) {
-        return apply(x -> x + c);
+        return BuilderNodes.chain(this, BuilderNodes.Step.add(c));
     }
 
     default IBuilder sub(IBuilder builder) {
-        return (x, y, z) -> this.get(x, y, z) - builder.get(x, y, z);
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.SUB, null);
     }
 
     default IBuilder sub(double c) {
-        return apply(x -> x - c);
+        // x - c is defined as x + (-c), so this gives exactly the same results
+        return add(-c);
     }
 
     default IBuilder mul(IBuilder builder) {
-        return (x, y, z) -> this.get(x, y, z) * builder.get(x, y, z);
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.MUL, null);
     }
 
     default IBuilder mul(double c) {
-        return apply(x -> x * c);
+        return BuilderNodes.chain(this, BuilderNodes.Step.mul(c));
     }
 
     default IBuilder div(IBuilder builder) {
-        return (x, y, z) -> this.get(x, y, z) / builder.get(x, y, z);
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.DIV, null);
     }
 
     default IBuilder div(double c) {
-        return apply(x -> x / c);
+        return BuilderNodes.chain(this, BuilderNodes.Step.div(c));
     }
 
     default IBuilder clamp(double min, double max) {
-        return apply(x -> MathHelper.clamp(x, min, max));
+        return BuilderNodes.chain(this, BuilderNodes.Step.clamp(min, max));
     }
 
     default IBuilder apply(TDoubleFunction func) {
-        return (x, y, z) -> func.execute(this.get(x, y, z));
+        return BuilderNodes.chain(this, BuilderNodes.Step.apply(func));
     }
 
     default IBuilder addIf(DoublePredicate predicate, IBuilder builder) {
-        return (x, y, z) -> {
-            double value = this.get(x, y, z);
-            if (predicate.test(value)) {
-                value += builder.get(x, y, z);
-            }
-            return value;
-        };
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.ADD, predicate);
     }
 
     default IBuilder addIf(DoublePredicate predicate, double c) {
-        return applyIf(predicate, x -> x + c);
+        return BuilderNodes.chain(this, BuilderNodes.Step.add(c).onlyIf(predicate));
     }
 
     default IBuilder subIf(DoublePredicate predicate, IBuilder builder) {
-        return (x, y, z) -> {
-            double value = this.get(x, y, z);
-            if (predicate.test(value)) {
-                value -= builder.get(x, y, z);
-            }
-            return value;
-        };
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.SUB, predicate);
     }
 
     default IBuilder subIf(DoublePredicate predicate, double c) {
-        return applyIf(predicate, x -> x - c);
+        return addIf(predicate, -c);
     }
 
     default IBuilder mulIf(DoublePredicate predicate, IBuilder builder) {
-        return (x, y, z) -> {
-            double value = this.get(x, y, z);
-            if (predicate.test(value)) {
-                value *= builder.get(x, y, z);
-            }
-            return value;
-        };
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.MUL, predicate);
     }
 
     default IBuilder mulIf(DoublePredicate predicate, double c) {
-        return applyIf(predicate, x -> x * c);
+        return BuilderNodes.chain(this, BuilderNodes.Step.mul(c).onlyIf(predicate));
     }
 
     default IBuilder divIf(DoublePredicate predicate, IBuilder builder) {
-        return (x, y, z) -> {
-            double value = this.get(x, y, z);
-            if (predicate.test(value)) {
-                value /= builder.get(x, y, z);
-            }
-            return value;
-        };
+        return new BuilderNodes.Combine(this, builder, BuilderNodes.Combine.DIV, predicate);
     }
 
     default IBuilder divIf(DoublePredicate predicate, double c) {
-        return applyIf(predicate, x -> x / c);
+        return BuilderNodes.chain(this, BuilderNodes.Step.div(c).onlyIf(predicate));
     }
 
     default IBuilder clampIf(DoublePredicate predicate, double min, double max) {
-        return apply(x ->
-                predicate.test(x) ?
-                        MathHelper.clamp(x, min, max) :
-                        x);
+        return BuilderNodes.chain(this, BuilderNodes.Step.clamp(min, max).onlyIf(predicate));
     }
 
     default IBuilder applyIf(DoublePredicate predicate, TDoubleFunction func) {
-        return (x, y, z) -> {
-            double value = this.get(x, y, z);
-            if (predicate.test(value)) {
-                value = func.execute(value);
-            }
-            return value;
-        };
+        return BuilderNodes.chain(this, BuilderNodes.Step.apply(func).onlyIf(predicate));
     }
 
     /**
@@ -167,13 +154,11 @@ public interface IBuilder {
      * No clamping is done on selector value, so values exceeding range 0-1 will result in extrapolation.
      */
     default IBuilder lerp(IBuilder low, IBuilder high) {
-        return (x, y, z) -> MathUtil.lerp(this.get(x, y, z), low.get(x, y, z), high.get(x, y, z));
+        return new BuilderNodes.Lerp(this, low, high);
     }
 
-    default IBuilder cached(int cacheSize, ToIntFunction<Vec3i> hash) {
-        HashCacheDoubles<Vec3i> cache = HashCacheDoubles.create(cacheSize, hash,
-                v -> this.get(v.getX(), v.getY(), v.getZ()));
-        return (x, y, z) -> cache.get(new Vec3i(x, y, z));
+    default IBuilder cached(int cacheSize, HashCacheDoubles3d.Hash hash) {
+        return new BuilderNodes.Cached(this, cacheSize, hash);
     }
 
     /**
@@ -181,11 +166,8 @@ public interface IBuilder {
      * <p>
      * This should NEVER be used if the IBuilder is intended to generate values that depend on Y coordinate
      */
-    default IBuilder cached2d(int cacheSize, ToIntFunction<Vec3i> hash) {
-        HashCacheDoubles<Vec3i> cache = HashCacheDoubles.create(cacheSize,
-                hash,
-                v -> this.get(v.getX(), v.getY(), v.getZ()));
-        return (x, y, z) -> cache.get(new Vec3i(x, 0, z));
+    default IBuilder cached2d(int cacheSize, IntBinaryOperator hash) {
+        return new BuilderNodes.Cached2d(this, cacheSize, hash);
     }
 
     default void forEachScaled(Vec3i startUnscaled, Vec3i endUnscaled, Vec3i scale, NoiseConsumer consumer) {
@@ -212,6 +194,14 @@ public interface IBuilder {
         int maxX = endUnscaled.getX();
         int maxY = endUnscaled.getY();
         int maxZ = endUnscaled.getZ();
+
+        // values at the corners of all sections, computed at once
+        int sizeX = maxX - minX + 1;
+        int sizeY = maxY - minY + 1;
+        int sizeZ = maxZ - minZ + 1;
+        final double[] corners = new double[sizeX * sizeY * sizeZ];
+        this.getGrid(corners, minX * xScale, minY * yScale, minZ * zScale, sizeX, sizeY, sizeZ, xScale, yScale, zScale);
+
         for (int sectionX = minX; sectionX < maxX; ++sectionX) {
             int x = sectionX * xScale;
             for (int sectionZ = minZ; sectionZ < maxZ; ++sectionZ) {
@@ -219,14 +209,16 @@ public interface IBuilder {
                 for (int sectionY = minY; sectionY < maxY; ++sectionY) {
                     int y = sectionY * yScale;
 
-                    final double v000 = this.get(x + xScale * 0, y + yScale * 0, z + zScale * 0);
-                    final double v001 = this.get(x + xScale * 0, y + yScale * 0, z + zScale * 1);
-                    final double v010 = this.get(x + xScale * 0, y + yScale * 1, z + zScale * 0);
-                    final double v011 = this.get(x + xScale * 0, y + yScale * 1, z + zScale * 1);
-                    final double v100 = this.get(x + xScale * 1, y + yScale * 0, z + zScale * 0);
-                    final double v101 = this.get(x + xScale * 1, y + yScale * 0, z + zScale * 1);
-                    final double v110 = this.get(x + xScale * 1, y + yScale * 1, z + zScale * 0);
-                    final double v111 = this.get(x + xScale * 1, y + yScale * 1, z + zScale * 1);
+                    final int i000 = ((sectionX - minX) * sizeY + sectionY - minY) * sizeZ + sectionZ - minZ;
+                    final int i100 = i000 + sizeY * sizeZ;
+                    final double v000 = corners[i000];
+                    final double v001 = corners[i000 + 1];
+                    final double v010 = corners[i000 + sizeZ];
+                    final double v011 = corners[i000 + sizeZ + 1];
+                    final double v100 = corners[i100];
+                    final double v101 = corners[i100 + 1];
+                    final double v110 = corners[i100 + sizeZ];
+                    final double v111 = corners[i100 + sizeZ + 1];
 
                     double v0y0 = v000;
                     double v0y1 = v001;
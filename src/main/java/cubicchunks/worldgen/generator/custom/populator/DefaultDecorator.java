@@ -23,8 +23,6 @@
  */
 package cubicchunks.worldgen.generator.custom.populator;
 
-import static cubicchunks.worldgen.generator.custom.populator.PopulatorUtils.genOreBellCurve;
-import static cubicchunks.worldgen.generator.custom.populator.PopulatorUtils.genOreUniform;
 import static cubicchunks.worldgen.generator.custom.populator.PopulatorUtils.getSurfaceForCube;
 
 import cubicchunks.api.worldgen.biome.CubicBiome;
@@ -33,6 +31,7 @@ import cubicchunks.util.CubePos;
 import cubicchunks.util.MathUtil;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.custom.CompiledGeneratorSettings;
 import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import cubicchunks.worldgen.generator.custom.populator.PopulatorUtils.SurfaceType;
 import mcp.MethodsReturnNonnullByDefault;
@@ -47,7 +46,6 @@ import net.minecraft.world.biome.BiomeDecorator;
 import net.minecraft.world.gen.feature.WorldGenAbstractTree;
 import net.minecraft.world.gen.feature.WorldGenDeadBush;
 import net.minecraft.world.gen.feature.WorldGenLiquids;
-import net.minecraft.world.gen.feature.WorldGenMinable;
 import net.minecraft.world.gen.feature.WorldGenPumpkin;
 import net.minecraft.world.gen.feature.WorldGenerator;
 
@@ -62,25 +60,12 @@ public final class DefaultDecorator implements ICubicPopulator {
     public static class Ores implements ICubicPopulator {
 
         @Override public void generate(ICubicWorld world, Random random, CubePos pos, CubicBiome biome) {
-            CustomGeneratorSettings cfg = CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions());
-            generateOres(world, cfg, random, pos);
-        }
-
-        private void generateOres(ICubicWorld world, CustomGeneratorSettings cfg, Random random, CubePos pos) {
-            // TODO: allow interleaved order
-            for (CustomGeneratorSettings.StandardOreConfig c : cfg.standardOres) {
-                genOreUniform(world, cfg, random, pos, c.spawnTries, c.spawnProbability, new WorldGenMinable(c.blockstate, c.spawnSize),
-                        c.minHeight, c.maxHeight);
-            }
-            for (CustomGeneratorSettings.PeriodicGaussianOreConfig c : cfg.periodicGaussianOres) {
-                genOreBellCurve(world, cfg, random, pos, c.spawnTries, c.spawnProbability, new WorldGenMinable(c.blockstate, c.spawnSize),
-                        c.heightMean, c.heightStdDeviation, c.heightSpacing, c.minHeight, c.maxHeight);
-            }
+            CompiledGeneratorSettings.of(world).generateOres(world, random, pos);
         }
     }
 
     @Override public void generate(ICubicWorld world, Random random, CubePos pos, CubicBiome biome) {
-        CustomGeneratorSettings cfg = CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions());
+        CustomGeneratorSettings cfg = CompiledGeneratorSettings.of(world).getSettings();
 
         // TODO: Biome decoration events?
         BiomeDecorator dec = biome.getBiome().decorator;
@@ -23,24 +23,11 @@
  */
 package cubicchunks.worldgen.generator.custom.populator;
 
-import static cubicchunks.worldgen.generator.custom.populator.PopulatorUtils.genOreUniform;
-import static net.minecraft.block.state.pattern.BlockMatcher.forBlock;
-
 import cubicchunks.api.worldgen.biome.CubicBiome;
 import cubicchunks.api.worldgen.populator.ICubicPopulator;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
-import cubicchunks.world.cube.Cube;
-import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.block.BlockSilverfish;
-import net.minecraft.block.state.IBlockState;
-import net.minecraft.init.Blocks;
-import net.minecraft.util.math.BlockPos;
-import net.minecraft.world.World;
-import net.minecraft.world.biome.BiomeHills;
-import net.minecraft.world.gen.feature.WorldGenMinable;
-import net.minecraft.world.gen.feature.WorldGenerator;
 
 import java.util.Random;
 
@@ -51,27 +38,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class HillsDecorator implements ICubicPopulator {
 
     @Override public void generate(ICubicWorld world, Random random, CubePos pos, CubicBiome biome) {
-        // TODO: Find less awful way to do it
-        CustomGeneratorSettings cfg = CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions());
-/*
-        genOreUniform(world, cfg, random, pos, cfg.hillsEmeraldOreSpawnTries, cfg.hillsEmeraldOreSpawnProbability,
-                new WorldGenEmerald(), cfg.hillsEmeraldOreSpawnMinHeight, cfg.hillsEmeraldOreSpawnMaxHeight);
-
-        WorldGenerator silverfishStoneGen = new WorldGenMinable(Blocks.MONSTER_EGG.getDefaultState()
-                .withProperty(BlockSilverfish.VARIANT, BlockSilverfish.EnumType.STONE), cfg.hillsSilverfishStoneSpawnSize);
-        genOreUniform(world, cfg, random, pos, cfg.hillsSilverfishStoneSpawnTries, cfg.hillsSilverfishStoneSpawnProbability,
-                silverfishStoneGen, cfg.hillsSilverfishStoneSpawnMinHeight, cfg.hillsSilverfishStoneSpawnMaxHeight);*/
-    }
-
-    private static class WorldGenEmerald extends WorldGenerator {
-
-        @Override public boolean generate(World worldIn, Random rand, BlockPos position) {
-            position = position.add(8, 0, 8); // because PopulatorUtils.genOre* expects this (because vanilla does this)
-            IBlockState state = worldIn.getBlockState(position);
-            if (state.getBlock().isReplaceableOreGen(state, worldIn, position, forBlock(Blocks.STONE))) {
-                worldIn.setBlockState(position, Blocks.EMERALD_ORE.getDefaultState(), 2);
-            }
-            return true;
-        }
+        // hills emerald ore and silverfish stone are CustomGeneratorSettings.standardOres, generated by
+        // DefaultDecorator.Ores from the world's CompiledGeneratorSettings
     }
 }
@@ -23,16 +23,11 @@
  */
 package cubicchunks.worldgen.generator.custom.populator;
 
-import static cubicchunks.worldgen.generator.custom.populator.PopulatorUtils.genOreUniform;
-
 import cubicchunks.api.worldgen.biome.CubicBiome;
 import cubicchunks.api.worldgen.populator.ICubicPopulator;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
-import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.init.Blocks;
-import net.minecraft.world.gen.feature.WorldGenMinable;
 
 import java.util.Random;
 
@@ -43,11 +38,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class MesaDecorator implements ICubicPopulator {
 
     @Override public void generate(ICubicWorld world, Random random, CubePos pos, CubicBiome biome) {
-        // TODO: less awful way to get generator settings
-        /*
-        CustomGeneratorSettings cfg = CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions());
-        genOreUniform(world, cfg, random, pos, cfg.mesaAddedGoldOreSpawnTries, cfg.mesaAddedGoldOreSpawnProbability,
-                new WorldGenMinable(Blocks.GOLD_ORE.getDefaultState(), cfg.mesaAddedGoldOreSpawnSize),
-                cfg.mesaAddedGoldOreSpawnMinHeight, cfg.mesaAddedGoldOreSpawnMaxHeight);*/
+        // added mesa gold ore is one of CustomGeneratorSettings.standardOres, generated by DefaultDecorator.Ores from the
+        // world's CompiledGeneratorSettings
     }
 }
@@ -27,17 +27,12 @@ import static cubicchunks.util.Coords.blockToCube;
 import static cubicchunks.util.Coords.localToBlock;
 
 import cubicchunks.util.CubePos;
-import cubicchunks.util.MathUtil;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
-import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
-import net.minecraft.world.gen.feature.WorldGenerator;
-
-import java.util.Random;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -53,59 +48,6 @@ public class PopulatorUtils {
         return localToBlock(blockToCube(coord), Cube.SIZE / 2);
     }
 
-    public static void genOreUniform(ICubicWorld world, CustomGeneratorSettings cfg, Random random, CubePos pos,
-            int count, double probability, WorldGenerator generator, double minY, double maxY) {
-        int minBlockY = Math.round((float) (minY * cfg.heightFactor + cfg.heightOffset));
-        int maxBlockY = Math.round((float) (maxY * cfg.heightFactor + cfg.heightOffset));
-        if (pos.getMinBlockY() > maxBlockY || pos.getMaxBlockY() < minBlockY) {
-            return;
-        }
-        for (int i = 0; i < count; ++i) {
-            if (random.nextDouble() > probability) {
-                continue;
-            }
-            int yOffset = random.nextInt(Cube.SIZE) + Cube.SIZE / 2;
-            int blockY = pos.getMinBlockY() + yOffset;
-            if (blockY > maxBlockY || blockY < minBlockY) {
-                continue;
-            }
-            int xOffset = random.nextInt(Cube.SIZE);
-            int zOffset = random.nextInt(Cube.SIZE);
-            generator.generate((World) world, random, new BlockPos(pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset));
-        }
-    }
-
-    public static void genOreBellCurve(ICubicWorld world, CustomGeneratorSettings cfg, Random random, CubePos pos, int count,
-                                      double probability, WorldGenerator generator, double mean, double stdDevFactor, double spacing, double minY, double maxY) {
-
-        int factor = (cfg.getMaxHeight() - cfg.getMinHeight()) / 2;
-        int minBlockY = Math.round((float) (minY * factor + cfg.heightOffset));
-        int maxBlockY = Math.round((float) (maxY * factor+ cfg.heightOffset));
-        //temporary fix for slider becoming 0 at minimum position
-        if(spacing == 0.0){
-            spacing = 0.5;
-        }
-        int iSpacing = Math.round((float) (spacing * factor));
-        int iMean = Math.round((float) (mean * factor + cfg.heightOffset));
-		double scaledStdDev = stdDevFactor * factor;
-        for (int i = 0; i < count; ++i) {
-            int yOffset = random.nextInt(Cube.SIZE) + Cube.SIZE / 2;
-            int blockY = pos.getMinBlockY() + yOffset;
-            //skip all potential spawns outside the spawn range
-            if((blockY > maxBlockY) || (blockY < minBlockY)){
-                continue;
-            }
-            double modifier = MathUtil.bellCurveProbabilityCyclic(blockY, iMean, scaledStdDev, iSpacing);
-            //Modify base probability with the curve
-            if (random.nextDouble() > (probability * modifier)) {
-                continue;
-            }
-            int xOffset = random.nextInt(Cube.SIZE);
-            int zOffset = random.nextInt(Cube.SIZE);
-            generator.generate((World) world, random, new BlockPos(pos.getMinBlockX() + xOffset, blockY, pos.getMinBlockZ() + zOffset));
-        }
-    }
-
     /**
      * Finds the top block for that population cube with give offset, or null if no suitable place found.
      * This method starts from the top of population area (or forcedAdditionalCubes*16 blocks above that)
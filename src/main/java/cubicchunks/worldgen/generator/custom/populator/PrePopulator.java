@@ -28,6 +28,7 @@ import cubicchunks.api.worldgen.populator.ICubicPopulator;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.generator.custom.CompiledGeneratorSettings;
 import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.init.Biomes;
@@ -47,7 +48,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class PrePopulator implements ICubicPopulator {
 
     @Override public void generate(ICubicWorld world, Random random, CubePos pos, CubicBiome cubicBiome) {
-        CustomGeneratorSettings cfg = CustomGeneratorSettings.fromJson(world.getWorldInfo().getGeneratorOptions());
+        CustomGeneratorSettings cfg = CompiledGeneratorSettings.of(world).getSettings();
 
         Biome biome = cubicBiome.getBiome();
         if (biome != Biomes.DESERT && biome != Biomes.DESERT_HILLS && cfg.waterLakes && random.nextInt(cfg.waterLakeRarity) == 0) {
@@ -33,6 +33,7 @@ import static java.lang.Math.sin;
 import com.google.common.collect.Lists;
 import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
+import cubicchunks.worldgen.generator.WorldGenUtils;
 import cubicchunks.worldgen.generator.custom.CustomGeneratorSettings;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
@@ -187,8 +188,11 @@ public class CubicStrongholdGenerator extends CubicFeatureGenerator {
                 chunkY = MathHelper.getInt(rand, minCubeY, maxCubeY);
                 chunkZ = (int) round(sin(angle) * distance);
             }
-            BlockPos blockPos = this.world.getBiomeProvider().findBiomePosition(
-                    cubeToCenterBlock(chunkX), cubeToCenterBlock(chunkZ), 112, this.allowedBiomes, rand);
+            BlockPos blockPos;
+            synchronized (WorldGenUtils.BIOME_GENERATION_LOCK) {
+                blockPos = this.world.getBiomeProvider().findBiomePosition(
+                        cubeToCenterBlock(chunkX), cubeToCenterBlock(chunkZ), 112, this.allowedBiomes, rand);
+            }
 
             if (blockPos != null) {
                 chunkX = blockToCube(blockPos.getX());
@@ -79,6 +79,11 @@ public class FlatTerrainProcessor extends BasicCubeGenerator {
             int fromY = layer.fromY - floorY;
             int toY = layer.toY - floorY;
             IBlockState iBlockState = layer.blockState;
+            if (fromY <= 0 && toY >= Cube.SIZE) {
+                // the whole cube is in one layer
+                primer.fill(iBlockState);
+                continue;
+            }
             for (int y = fromY > 0 ? fromY : 0; y < (toY < Cube.SIZE ? toY : Cube.SIZE); y++) {
                 for (int x = 0; x < Cube.SIZE; x++) {
                     for (int z = 0; z < Cube.SIZE; z++) {
@@ -90,6 +95,12 @@ public class FlatTerrainProcessor extends BasicCubeGenerator {
         return primer;
     }
 
+    @Override
+    public boolean supportsAsyncGeneration() {
+        // generateCube only reads the immutable layer map
+        return true;
+    }
+
     @Override
     public void populate(Cube cube) {
         /**
@@ -162,11 +162,13 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
     @Override
     public void generateColumn(IColumn column) {
 
-        this.biomes = this.world.getBiomeProvider()
-                .getBiomes(this.biomes,
-                        Coords.cubeToMinBlock(column.getX()),
-                        Coords.cubeToMinBlock(column.getZ()),
-                        Cube.SIZE, Cube.SIZE);
+        synchronized (WorldGenUtils.BIOME_GENERATION_LOCK) {
+            this.biomes = this.world.getBiomeProvider()
+                    .getBiomes(this.biomes,
+                            Coords.cubeToMinBlock(column.getX()),
+                            Coords.cubeToMinBlock(column.getZ()),
+                            Cube.SIZE, Cube.SIZE);
+        }
 
         byte[] abyte = column.getBiomeArray();
         for (int i = 0; i < abyte.length; ++i) {
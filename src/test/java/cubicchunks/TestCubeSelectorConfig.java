@@ -21,50 +21,34 @@
  *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
  *  THE SOFTWARE.
  */
-package cubicchunks.util.cache;
+package cubicchunks;
 
-import mcp.MethodsReturnNonnullByDefault;
+import static org.junit.Assert.assertEquals;
 
-import java.util.function.ToDoubleFunction;
-import java.util.function.ToIntFunction;
+import com.google.common.collect.ImmutableMap;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
 @MethodsReturnNonnullByDefault
-public class HashCacheDoubles<K> {
-
-    private final double[] cache;
-    private final K[] keys;
-    private final ToIntFunction<K> hashFunction;
-    private final ToDoubleFunction<K> source;
-
-    @SuppressWarnings("unchecked")
-    private HashCacheDoubles(int size, ToIntFunction<K> hashCode, ToDoubleFunction<K> source) {
-        this.cache = new double[size];
-        this.keys = (K[]) new Object[size];
-        this.hashFunction = hashCode;
-        this.source = source;
-    }
-
-    public double get(K key) {
-        int index = index(hashFunction.applyAsInt(key));
-        if (!key.equals(keys[index])) {
-            keys[index] = key;
-            cache[index] = source.applyAsDouble(key);
-        }
-        return cache[index];
-    }
+public class TestCubeSelectorConfig {
 
-    private int index(int hash) {
-        return Math.floorMod(hash, cache.length);
+    @Test
+    public void testValidEntries() {
+        assertEquals(ImmutableMap.of(-1, 2, 7, 1, 0, 0),
+                CubicChunks.Config.parseCubeSelectorPerDimension(new String[]{"-1=2", " 7 = 1 ", "0=0"}));
     }
 
-    public static <K> HashCacheDoubles<K> create(int size, ToDoubleFunction<K> source) {
-        return create(size, k -> k.hashCode(), source);
+    @Test
+    public void testInvalidEntriesAreSkipped() {
+        String[] entries = {"5", "1=", "=2", "a=1", "1=b", "1=3", "1=-1", "1=2=3", "", "3=1"};
+        assertEquals(ImmutableMap.of(3, 1), CubicChunks.Config.parseCubeSelectorPerDimension(entries));
     }
 
-    public static <K> HashCacheDoubles<K> create(int size, ToIntFunction<K> hashCode, ToDoubleFunction<K> source) {
-        return new HashCacheDoubles<K>(size, hashCode, source);
+    @Test
+    public void testLaterEntryWins() {
+        assertEquals(ImmutableMap.of(1, 2), CubicChunks.Config.parseCubeSelectorPerDimension(new String[]{"1=1", "1=2"}));
     }
 }
@@ -39,6 +39,7 @@ import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
 import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -343,6 +344,29 @@ public class TestOpacityIndex {
         assertEquals(202, index.getTopBlockY(0, 0));
     }
 
+    @Test
+    public void setRangeSameAsSingleBlocks() {
+        Random rand = new Random(1);
+        for (int run = 0; run < 200; run++) {
+            ServerHeightMap ranges = new ServerHeightMap();
+            ServerHeightMap blocks = new ServerHeightMap();
+            for (int i = 0; i < 8; i++) {
+                int minY = rand.nextInt(90);
+                int maxY = minY + rand.nextInt(10);
+                int opacity = rand.nextInt(3) == 0 ? 0 : 255;
+                ranges.onOpacityChange(0, minY, maxY, 0, opacity);
+                for (int y = minY; y <= maxY; y++) {
+                    blocks.onOpacityChange(0, y, 0, opacity);
+                }
+
+                assertEquals(blocks.getTopBlockY(0, 0), ranges.getTopBlockY(0, 0));
+                for (int y = 0; y < 100; y++) {
+                    assertEquals(blocks.getTopBlockYBelow(0, 0, y), ranges.getTopBlockYBelow(0, 0, y));
+                }
+            }
+        }
+    }
+
     //test 21011120
     @Test
     public void testMergeSegmentsIntoNoSegmentsAndRemoveTop_generated() {
@@ -0,0 +1,169 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.WatcherPriorityQueue;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestWatcherPriorityQueue {
+
+    // squared distance of each element, in blocks
+    private final Map<Integer, Double> distances = new HashMap<>();
+
+    private WatcherPriorityQueue<Integer> newQueue() {
+        return new WatcherPriorityQueue<>(e -> distances.getOrDefault(e, Double.MAX_VALUE));
+    }
+
+    @Test
+    public void testOrder() {
+        WatcherPriorityQueue<Integer> queue = newQueue();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            distances.put(i, random.nextDouble() * 512 * 512);
+            queue.add(i);
+        }
+        checkOrder(queue, 1000);
+    }
+
+    @Test
+    public void testUpdateAll() {
+        WatcherPriorityQueue<Integer> queue = newQueue();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            distances.put(i, random.nextDouble() * 512 * 512);
+            queue.add(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            distances.put(i, random.nextDouble() * 512 * 512);
+        }
+        queue.updateAll();
+        checkOrder(queue, 1000);
+    }
+
+    @Test
+    public void testUpdateChanged() {
+        WatcherPriorityQueue<Integer> queue = newQueue();
+        for (int i = 0; i < 100; i++) {
+            distances.put(i, (double) i * 256);
+            queue.add(i);
+        }
+        // only marked elements get a new priority
+        distances.put(50, 0.0);
+        distances.put(60, 0.0);
+        queue.markChanged(50);
+        queue.updateChanged();
+        assertEquals(0, (int) queue.peek());
+        queue.remove(0);
+        assertEquals(50, (int) queue.peek());
+        queue.remove(50);
+        assertEquals(1, (int) queue.peek());
+
+        // removed elements are not added back
+        queue.markChanged(60);
+        queue.remove(60);
+        queue.updateChanged();
+        assertFalse(queue.contains(60));
+        queue.markChanged(1000);
+        queue.updateChanged();
+        assertFalse(queue.contains(1000));
+
+        distances.put(60, 60.0 * 256);
+        checkOrder(queue, 97);
+    }
+
+    @Test
+    public void testAddFirst() {
+        WatcherPriorityQueue<Integer> queue = newQueue();
+        distances.put(1, 0.0);
+        distances.put(2, 100000.0);
+        queue.add(1);
+        queue.addFirst(2);
+        assertEquals(2, (int) queue.peek());
+        queue.update(2);
+        assertEquals(1, (int) queue.peek());
+    }
+
+    @Test
+    public void testRemove() {
+        WatcherPriorityQueue<Integer> queue = newQueue();
+        Set<Integer> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            distances.put(i, (double) random.nextInt(4) * 256);
+            queue.add(i);
+            expected.add(i);
+        }
+        for (int i = 0; i < 200; i += 3) {
+            queue.remove(i);
+            expected.remove(i);
+            assertFalse(queue.contains(i));
+        }
+        Iterator<Integer> it = queue.iterator();
+        while (it.hasNext()) {
+            int e = it.next();
+            if (e % 2 == 0) {
+                it.remove();
+                expected.remove(e);
+            }
+        }
+        Set<Integer> actual = new HashSet<>();
+        queue.forEach(actual::add);
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), queue.size());
+
+        queue.removeIf(e -> true);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+    }
+
+    private void checkOrder(WatcherPriorityQueue<Integer> queue, int expectedSize) {
+        double prevBucket = -1;
+        int count = 0;
+        for (int e : queue) {
+            // elements within the same 16x16 block squared distance bucket can be in any order
+            double bucket = Math.floor(distances.get(e) / 256);
+            assertTrue(bucket >= prevBucket);
+            prevBucket = bucket;
+            count++;
+        }
+        assertEquals(expectedSize, count);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.network.PacketBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestWorldEncoder {
+
+    @Test
+    public void testCompressRoundTrip() throws IOException {
+        byte[] data = new byte[10000];
+        Arrays.fill(data, 0, 5000, (byte) 1);
+        for (int i = 5000; i < data.length; i++) {
+            data[i] = (byte) (i * 17 ^ i >> 4);
+        }
+        byte[] compressed = WorldEncoder.compress(data);
+        assertTrue(compressed.length < data.length);
+        assertArrayEquals(data, toArray(WorldEncoder.decompress(compressed)));
+    }
+
+    @Test
+    public void testIncompressibleDataIsStored() throws IOException {
+        byte[] data = new byte[4000];
+        new Random(1).nextBytes(data);
+        byte[] compressed = WorldEncoder.compress(data);
+        assertEquals(data.length + 1, compressed.length);
+        assertArrayEquals(data, toArray(WorldEncoder.decompress(compressed)));
+    }
+
+    @Test
+    public void testStoreRoundTrip() throws IOException {
+        for (int length : new int[]{0, 1, 5, 4096}) {
+            byte[] data = new byte[length];
+            new Random(length).nextBytes(data);
+            assertArrayEquals(data, toArray(WorldEncoder.decompress(WorldEncoder.store(data))));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testEmptyDataIsRejected() throws IOException {
+        WorldEncoder.decompress(new byte[0]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodecIsRejected() throws IOException {
+        WorldEncoder.decompress(new byte[]{42, 0, 0, 0, 0});
+    }
+
+    @Test(expected = IOException.class)
+    public void testHugeLengthIsRejected() throws IOException {
+        byte[] compressed = WorldEncoder.compress(new byte[1000]);
+        ByteBuffer.wrap(compressed, 1, 4).putInt(Integer.MAX_VALUE);
+        WorldEncoder.decompress(compressed);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLengthAboveLimitIsRejected() throws IOException {
+        byte[] compressed = WorldEncoder.compress(new byte[1000]);
+        ByteBuffer.wrap(compressed, 1, 4).putInt(WorldEncoder.MAX_CUBE_DATA_SIZE + 1);
+        WorldEncoder.decompress(compressed);
+    }
+
+    @Test
+    public void testUniformLightRoundTrip() {
+        byte[] light = new byte[2048];
+        Arrays.fill(light, (byte) 0xFF);
+        byte[] copy = writeLight(light);
+        assertEquals(1, copy.length);
+
+        byte[] read = new byte[2048];
+        WorldEncoder.readLight(new PacketBuffer(Unpooled.wrappedBuffer(copy)), read, true);
+        assertArrayEquals(light, read);
+    }
+
+    @Test
+    public void testNonUniformLightRoundTrip() {
+        byte[] light = new byte[2048];
+        Arrays.fill(light, (byte) 0xFF);
+        light[2047] = 0x0F;
+        byte[] copy = writeLight(light);
+        assertEquals(light.length, copy.length);
+
+        byte[] read = new byte[2048];
+        WorldEncoder.readLight(new PacketBuffer(Unpooled.wrappedBuffer(copy)), read, false);
+        assertEquals((byte) 0xFF, read[0]);
+        assertEquals(0x0F, read[2047]);
+    }
+
+    private static byte[] writeLight(byte[] light) {
+        ByteBuf buf = Unpooled.buffer();
+        WorldEncoder.CubeSnapshot.writeLight(buf, light);
+        return toArray(buf);
+    }
+
+    private static byte[] toArray(ByteBuf buf) {
+        byte[] array = new byte[buf.readableBytes()];
+        buf.readBytes(array);
+        return array;
+    }
+}
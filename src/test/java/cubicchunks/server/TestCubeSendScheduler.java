@@ -0,0 +1,235 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayerMP;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeSendScheduler {
+
+    // enough bytes per tick that only the cube limits matter
+    private static final int NO_BYTE_LIMIT = 1_000_000;
+
+    private final EntityPlayerMP player1 = mock(EntityPlayerMP.class);
+    private final EntityPlayerMP player2 = mock(EntityPlayerMP.class);
+    private final Map<EntityPlayerMP, List<Cube>> sent = new HashMap<>();
+    private final Set<EntityPlayerMP> notWritable = new HashSet<>();
+    private BiConsumer<EntityPlayerMP, List<Cube>> onSend = (player, cubes) -> {};
+    private CubeSendScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new CubeSendScheduler((player, cubes) -> {
+            sent.computeIfAbsent(player, p -> new ArrayList<>()).addAll(cubes);
+            onSend.accept(player, cubes);
+        }, player -> !notWritable.contains(player));
+    }
+
+    @Test
+    public void testPerPlayerCubeLimit() {
+        List<Cube> cubes = schedule(player1, 5);
+
+        tick(2, NO_BYTE_LIMIT, 100);
+        assertEquals(cubes.subList(0, 2), sent(player1));
+        tick(2, NO_BYTE_LIMIT, 100);
+        assertEquals(cubes.subList(0, 4), sent(player1));
+        tick(2, NO_BYTE_LIMIT, 100);
+        assertEquals(cubes, sent(player1));
+    }
+
+    @Test
+    public void testBurstIsLimited() {
+        schedule(player1, 1);
+        tick(2, NO_BYTE_LIMIT, 100);
+        assertEquals(1, sent(player1).size());
+
+        // unused tokens are saved up for at most 4 ticks
+        for (int i = 0; i < 10; i++) {
+            tick(2, NO_BYTE_LIMIT, 100);
+        }
+        schedule(player1, 20);
+        tick(2, NO_BYTE_LIMIT, 100);
+        assertEquals(1 + 8, sent(player1).size());
+        tick(2, NO_BYTE_LIMIT, 100);
+        assertEquals(1 + 8 + 2, sent(player1).size());
+    }
+
+    @Test
+    public void testByteTokensRefill() {
+        chargeEachCube(2500);
+        schedule(player1, 3);
+
+        // the first cube is sent although it's bigger than the limit, then the player waits until the bytes are paid back
+        int[] expectedSent = {1, 1, 1, 2, 2, 3};
+        for (int expected : expectedSent) {
+            tick(10, 1000, 100);
+            assertEquals(expected, sent(player1).size());
+        }
+    }
+
+    @Test
+    public void testBytesLimitedWithinTick() {
+        chargeEachCube(4000);
+        schedule(player1, 20);
+
+        // the size of the first cube isn't known yet, so the default estimate is charged
+        tick(100, 10_000, 100);
+        assertEquals(1, sent(player1).size());
+        // then each cube is expected to be as big as the last one
+        tick(100, 10_000, 100);
+        assertEquals(1 + 4, sent(player1).size());
+        tick(100, 10_000, 100);
+        assertEquals(1 + 4 + 2, sent(player1).size());
+    }
+
+    @Test
+    public void testCubesBiggerThanTickLimit() {
+        chargeEachCube(5000);
+        schedule(player1, 10);
+
+        // a cube bigger than the tick limit is sent only when a full tick worth of bytes is saved up
+        int[] expectedSent = {1, 1, 1, 1, 1, 2};
+        for (int expected : expectedSent) {
+            tick(100, 1000, 100);
+            assertEquals(expected, sent(player1).size());
+        }
+    }
+
+    @Test
+    public void testLimitsArePerPlayer() {
+        chargeEachCube(2500);
+        schedule(player1, 3);
+        tick(10, 1000, 100);
+        assertEquals(1, sent(player1).size());
+
+        // player1 owes bytes, player2 doesn't
+        List<Cube> cubes = schedule(player2, 1);
+        tick(10, 1000, 100);
+        assertEquals(cubes, sent(player2));
+        assertEquals(1, sent(player1).size());
+    }
+
+    @Test
+    public void testPlayersTakeTurns() {
+        schedule(player1, 20);
+        schedule(player2, 20);
+
+        // a turn is 16 cubes, and the player who goes first changes each tick
+        tick(100, NO_BYTE_LIMIT, 20);
+        assertEquals(16, sent(player1).size());
+        assertEquals(4, sent(player2).size());
+        tick(100, NO_BYTE_LIMIT, 20);
+        assertEquals(20, sent(player1).size());
+        assertEquals(20, sent(player2).size());
+    }
+
+    @Test
+    public void testNotWritable() {
+        List<Cube> cubes = schedule(player1, 3);
+        notWritable.add(player1);
+        tick(1, NO_BYTE_LIMIT, 100);
+        tick(1, NO_BYTE_LIMIT, 100);
+        assertEquals(Collections.emptyList(), sent(player1));
+
+        notWritable.clear();
+        tick(1, NO_BYTE_LIMIT, 100);
+        assertEquals(cubes, sent(player1));
+    }
+
+    @Test
+    public void testRescheduledSentFirst() {
+        List<Cube> cubes = schedule(player1, 3);
+        Cube rescheduled = mock(Cube.class);
+        scheduler.reschedule(player1, rescheduled);
+        scheduler.reschedule(player1, cubes.get(2));
+
+        tick(10, NO_BYTE_LIMIT, 100);
+        assertEquals(Arrays.asList(rescheduled, cubes.get(2), cubes.get(0), cubes.get(1)), sent(player1));
+    }
+
+    @Test
+    public void testCancelAndRemovePlayer() {
+        List<Cube> cubes = schedule(player1, 2);
+        scheduler.reschedule(player1, cubes.get(1));
+        assertTrue(scheduler.isPending(player1, cubes.get(0)));
+        assertTrue(scheduler.isPending(player1, cubes.get(1)));
+
+        scheduler.cancel(player1, cubes.get(0));
+        scheduler.cancel(player1, cubes.get(1));
+        assertFalse(scheduler.isPending(player1, cubes.get(0)));
+        assertFalse(scheduler.isPending(player1, cubes.get(1)));
+
+        List<Cube> removed = schedule(player2, 2);
+        scheduler.removePlayer(player2);
+        assertFalse(scheduler.isPending(player2, removed.get(0)));
+
+        tick(10, NO_BYTE_LIMIT, 100);
+        assertEquals(Collections.emptyList(), sent(player1));
+        assertEquals(Collections.emptyList(), sent(player2));
+    }
+
+    private void chargeEachCube(int bytes) {
+        onSend = (player, cubes) -> cubes.forEach(cube -> scheduler.charge(player, cube, bytes));
+    }
+
+    private List<Cube> schedule(EntityPlayerMP player, int count) {
+        List<Cube> cubes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Cube cube = mock(Cube.class);
+            cubes.add(cube);
+            scheduler.schedule(player, cube);
+        }
+        return cubes;
+    }
+
+    private void tick(int maxCubesPerPlayer, int maxBytesPerPlayer, int maxCubes) {
+        scheduler.tick(maxCubesPerPlayer, maxBytesPerPlayer, maxCubes);
+    }
+
+    private List<Cube> sent(EntityPlayerMP player) {
+        return sent.getOrDefault(player, Collections.emptyList());
+    }
+}
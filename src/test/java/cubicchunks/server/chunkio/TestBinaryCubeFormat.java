@@ -0,0 +1,198 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.lighting.LightingManager;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.IColumn;
+import cubicchunks.world.cube.Cube;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.WorldProvider;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestBinaryCubeFormat {
+
+    private static final int X = 3, Y = 7, Z = -5;
+
+    private IColumn column;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+        WorldProvider provider = mock(WorldProvider.class);
+        when(provider.hasSkyLight()).thenReturn(true);
+        ICubicWorld world = mock(ICubicWorld.class);
+        when(world.getProvider()).thenReturn(provider);
+        when(world.getLightingManager()).thenReturn(mock(LightingManager.class));
+        column = mock(IColumn.class);
+        when(column.getX()).thenReturn(X);
+        when(column.getZ()).thenReturn(Z);
+        when(column.getCubicWorld()).thenReturn(world);
+    }
+
+    @Test
+    public void testMixedBlocksRoundTrip() throws IOException {
+        IBlockState[] states = {
+                Blocks.AIR.getDefaultState(), Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(),
+                Blocks.LOG.getStateFromMeta(5), Blocks.WOOL.getStateFromMeta(14)
+        };
+        Random rand = new Random(42);
+        BlockStateContainer blocks = new BlockStateContainer();
+        for (int i = 0; i < 4096; i++) {
+            blocks.set(i & 15, i >> 8, i >> 4 & 15, states[rand.nextInt(states.length)]);
+        }
+        assertRoundTrip(blocks);
+    }
+
+    @Test
+    public void testUniformBlocksRoundTrip() throws IOException {
+        BlockStateContainer blocks = new BlockStateContainer();
+        for (int i = 0; i < 4096; i++) {
+            blocks.set(i & 15, i >> 8, i >> 4 & 15, Blocks.STONE.getDefaultState());
+        }
+        byte[] data = assertRoundTrip(blocks);
+        // header, position, flags, block state id, light and the NBT part
+        assertTrue(data.length < 2 + 12 + 1 + 4 + 2048 * 2 + 100);
+    }
+
+    @Test
+    public void testCubeWithoutBlocks() throws IOException {
+        NBTTagCompound syncPart = createSyncPart();
+        CubeSnapshot snapshot = new CubeSnapshot(X, Y, Z, false, true, false, true, null, null, null, syncPart);
+
+        ICubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, Y, ByteBuffer.wrap(BinaryCubeFormat.write(snapshot)));
+        assertTrue(read != null);
+        Cube cube = read.getCube();
+        assertNull(cube.getStorage());
+        assertFalse(cube.isPopulated());
+        assertTrue(cube.isSurfaceTracked());
+        assertFalse(cube.isFullyPopulated());
+        assertTrue(cube.isInitialLightingDone());
+        // the sync part is returned as it was written, to be read on the server thread
+        assertEquals(syncPart, read.nbt);
+    }
+
+    @Test
+    public void testWrongPositionIsRejected() throws IOException {
+        CubeSnapshot snapshot = new CubeSnapshot(X, Y + 1, Z, false, false, false, false, null, null, null, createSyncPart());
+        assertNull(BinaryCubeFormat.readAsyncPart(column, Y, ByteBuffer.wrap(BinaryCubeFormat.write(snapshot))));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedVersion() throws IOException {
+        CubeSnapshot snapshot = new CubeSnapshot(X, Y, Z, false, false, false, false, null, null, null, createSyncPart());
+        byte[] data = BinaryCubeFormat.write(snapshot);
+        data[1] = 100;
+        BinaryCubeFormat.readAsyncPart(column, Y, ByteBuffer.wrap(data));
+    }
+
+    @Test
+    public void testNbtIsNotBinary() throws IOException {
+        // cubes saved as NBT by older versions must still be read as NBT
+        NBTTagCompound nbt = createSyncPart();
+        byte[] data = IONbtWriter.writeNbtBytes(nbt);
+        assertFalse(BinaryCubeFormat.isBinary(ByteBuffer.wrap(data)));
+        assertEquals(nbt, IONbtReader.readNbt(ByteBuffer.wrap(data)));
+
+        CubeSnapshot snapshot = new CubeSnapshot(X, Y, Z, false, false, false, false, null, null, null, nbt);
+        assertTrue(BinaryCubeFormat.isBinary(ByteBuffer.wrap(BinaryCubeFormat.write(snapshot))));
+    }
+
+    private byte[] assertRoundTrip(BlockStateContainer blocks) throws IOException {
+        Random rand = new Random(123);
+        byte[] blockLight = new byte[2048];
+        byte[] skyLight = new byte[2048];
+        rand.nextBytes(blockLight);
+        rand.nextBytes(skyLight);
+        NBTTagCompound syncPart = createSyncPart();
+        CubeSnapshot snapshot = new CubeSnapshot(X, Y, Z, true, false, true, false,
+                serialize(blocks), blockLight.clone(), skyLight.clone(), syncPart);
+
+        byte[] data = BinaryCubeFormat.write(snapshot);
+        assertTrue(BinaryCubeFormat.isBinary(ByteBuffer.wrap(data)));
+
+        ICubeIO.PartialCubeData read = BinaryCubeFormat.readAsyncPart(column, Y, ByteBuffer.wrap(data));
+        assertTrue(read != null);
+        Cube cube = read.getCube();
+        assertEquals(X, cube.getX());
+        assertEquals(Y, cube.getY());
+        assertEquals(Z, cube.getZ());
+        assertTrue(cube.isPopulated());
+        assertFalse(cube.isSurfaceTracked());
+        assertTrue(cube.isFullyPopulated());
+        assertFalse(cube.isInitialLightingDone());
+
+        ExtendedBlockStorage storage = cube.getStorage();
+        assertTrue(storage != null);
+        for (int i = 0; i < 4096; i++) {
+            int x = i & 15, y = i >> 8, z = i >> 4 & 15;
+            assertEquals(blocks.get(x, y, z), storage.get(x, y, z));
+        }
+        assertArrayEquals(blockLight, storage.getBlockLight().getData());
+        assertArrayEquals(skyLight, storage.getSkyLight().getData());
+        assertEquals(syncPart, read.nbt);
+        return data;
+    }
+
+    private static NBTTagCompound createSyncPart() {
+        NBTTagCompound nbt = new NBTTagCompound();
+        NBTTagCompound level = new NBTTagCompound();
+        level.setInteger("marker", 1234);
+        nbt.setTag("Level", level);
+        return nbt;
+    }
+
+    private static byte[] serialize(BlockStateContainer blocks) {
+        PacketBuffer buf = new PacketBuffer(Unpooled.buffer());
+        blocks.write(buf);
+        byte[] data = new byte[buf.readableBytes()];
+        buf.readBytes(data);
+        return data;
+    }
+}
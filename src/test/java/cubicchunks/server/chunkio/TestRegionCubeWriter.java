@@ -0,0 +1,139 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.regionlib.impl.EntryLocation3D;
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestRegionCubeWriter {
+
+    private static final int THREADS = 8;
+    private static final int CUBES_PER_THREAD = 64;
+    private static final int VERSIONS = 20;
+
+    @Test(timeout = 60000)
+    public void testConcurrentQueueAndFlushWritesNewestVersions() throws Exception {
+        Map<CubePos, byte[]> written = new ConcurrentHashMap<>();
+        RegionCubeWriter writer = new RegionCubeWriter(
+                (loc, data) -> {
+                    throw new AssertionError("no columns were queued");
+                },
+                (loc, data) -> {
+                    // slow writes make the writer take region queues while compression threads are adding to them
+                    Thread.yield();
+                    written.put(new CubePos(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ()), toArray(data));
+                },
+                StorageCodec.NONE, "test");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int version = 0; version < VERSIONS; version++) {
+                    for (int i = 0; i < CUBES_PER_THREAD; i++) {
+                        byte[] data = entryData(thread, i, version);
+                        // all cubes are in the same region
+                        writer.queueCube(cubePos(thread, i), () -> data);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(writer.awaitIdle(30000));
+        writer.flush();
+        assertTrue(writer.isIdle());
+
+        assertEquals(THREADS * CUBES_PER_THREAD, written.size());
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < CUBES_PER_THREAD; i++) {
+                assertArrayEquals(entryData(t, i, VERSIONS - 1), written.get(cubePos(t, i)));
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testQueuedCubeIsReadableUntilWritten() throws Exception {
+        Map<CubePos, byte[]> written = new ConcurrentHashMap<>();
+        Object gate = new Object();
+        RegionCubeWriter writer = new RegionCubeWriter(
+                (loc, data) -> {
+                },
+                (loc, data) -> {
+                    synchronized (gate) {
+                        written.put(new CubePos(loc.getEntryX(), loc.getEntryY(), loc.getEntryZ()), toArray(data));
+                    }
+                },
+                StorageCodec.NONE, "test");
+
+        byte[] data = {1, 2, 3};
+        CubePos pos = new CubePos(1, 2, 3);
+        synchronized (gate) {
+            writer.queueCube(pos, () -> data);
+            ByteBuffer queued = writer.getQueuedCube(pos);
+            assertTrue(queued != null);
+            byte[] raw = new byte[queued.remaining()];
+            queued.get(raw);
+            assertArrayEquals(data, raw);
+        }
+        writer.flush();
+        assertTrue(writer.isIdle());
+        assertArrayEquals(data, written.get(pos));
+    }
+
+    private static CubePos cubePos(int thread, int i) {
+        return new CubePos(i & 15, thread & 1, (thread >> 1) * 4 + (i >> 4));
+    }
+
+    private static byte[] entryData(int thread, int i, int version) {
+        return new byte[]{(byte) thread, (byte) i, (byte) version};
+    }
+
+    private static byte[] toArray(ByteBuffer data) throws IOException {
+        ByteBuffer decoded = StorageCodec.decode(data.duplicate());
+        byte[] array = new byte[decoded.remaining()];
+        decoded.get(array);
+        return array;
+    }
+}
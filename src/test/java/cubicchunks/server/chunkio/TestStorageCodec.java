@@ -0,0 +1,142 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestStorageCodec {
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void testInputShorterThanMatchLimit() throws IOException {
+        // LZ4 doesn't look for matches in inputs of 12 bytes or less
+        for (int length = 1; length <= 13; length++) {
+            byte[] data = new byte[length];
+            Arrays.fill(data, (byte) 7);
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void testLongRuns() throws IOException {
+        // long literal and match lengths need extra length bytes
+        byte[] data = new byte[100000];
+        Arrays.fill(data, 0, 40000, (byte) 1);
+        for (int i = 40000; i < 41000; i++) {
+            data[i] = (byte) (i * 31 + (i >> 3));
+        }
+        assertRoundTrip(data);
+
+        byte[] zeros = new byte[1 << 20];
+        assertRoundTrip(zeros);
+        assertTrue(StorageCodec.LZ4.encode(zeros).length < zeros.length / 100);
+    }
+
+    @Test
+    public void testIncompressibleData() throws IOException {
+        byte[] data = new byte[70000];
+        new Random(123).nextBytes(data);
+        assertRoundTrip(data);
+    }
+
+    @Test
+    public void testRepeatingPatterns() throws IOException {
+        Random rand = new Random(7);
+        for (int period = 1; period <= 20; period++) {
+            byte[] pattern = new byte[period];
+            rand.nextBytes(pattern);
+            byte[] data = new byte[5000 + period];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = pattern[i % period];
+            }
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void testDecodeFromOffsetBuffer() throws IOException {
+        byte[] data = new byte[3000];
+        new Random(1).nextBytes(data);
+        Arrays.fill(data, 1000, 2000, (byte) 3);
+        for (StorageCodec codec : StorageCodec.values()) {
+            byte[] encoded = codec.encode(data);
+            byte[] padded = new byte[encoded.length + 10];
+            System.arraycopy(encoded, 0, padded, 5, encoded.length);
+            ByteBuffer buf = ByteBuffer.wrap(padded, 5, encoded.length).slice();
+            assertArrayEquals(codec.name(), data, toArray(StorageCodec.decode(buf)));
+        }
+    }
+
+    @Test
+    public void testById() {
+        for (StorageCodec codec : StorageCodec.values()) {
+            assertEquals(codec, StorageCodec.byId(codec.ordinal()));
+        }
+        assertEquals(StorageCodec.GZIP, StorageCodec.byId(-1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodec() throws IOException {
+        StorageCodec.decode(ByteBuffer.wrap(new byte[]{(byte) 0xCC, 100, 0, 0}));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedLz4() throws IOException {
+        byte[] data = new byte[1000];
+        new Random(5).nextBytes(data);
+        byte[] encoded = StorageCodec.LZ4.encode(data);
+        StorageCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length / 2)));
+    }
+
+    private static void assertRoundTrip(byte[] data) throws IOException {
+        for (StorageCodec codec : StorageCodec.values()) {
+            byte[] encoded = codec.encode(data);
+            assertArrayEquals(codec.name(), data, toArray(StorageCodec.decode(ByteBuffer.wrap(encoded))));
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] array = new byte[buf.remaining()];
+        buf.get(array);
+        return array;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.cache.HashCache2d;
+import cubicchunks.util.cache.HashCacheDoubles2d;
+import cubicchunks.util.cache.HashCacheDoubles3d;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestPrimitiveHashCaches {
+
+    @Test public void testZeroKeyNotPresentInitially() {
+        int[] calls = {0};
+        HashCacheDoubles3d cache = HashCacheDoubles3d.create(10, (x, y, z) -> 0, (x, y, z) -> {
+            calls[0]++;
+            return 42.0;
+        });
+        assertEqualsExact(42.0, cache.get(0, 0, 0));
+        assertEqualsExact(42.0, cache.get(0, 0, 0));
+        assertEquals(1, calls[0]);
+    }
+
+    @Test public void testContainsAndPut() {
+        int[] calls = {0};
+        HashCacheDoubles3d cache3d = HashCacheDoubles3d.create(10, (x, y, z) -> x + y + z, (x, y, z) -> {
+            calls[0]++;
+            return 1.0;
+        });
+        assertFalse(cache3d.contains(1, 2, 3));
+        cache3d.put(1, 2, 3, 5.0);
+        assertTrue(cache3d.contains(1, 2, 3));
+        assertFalse(cache3d.contains(3, 2, 1));
+        assertEqualsExact(5.0, cache3d.get(1, 2, 3));
+        assertEquals(0, calls[0]);
+
+        HashCacheDoubles2d cache2d = HashCacheDoubles2d.create(10, (x, z) -> x + z, (x, z) -> {
+            calls[0]++;
+            return 1.0;
+        });
+        assertFalse(cache2d.contains(1, 3));
+        cache2d.put(1, 3, 5.0);
+        assertTrue(cache2d.contains(1, 3));
+        assertFalse(cache2d.contains(3, 1));
+        assertEqualsExact(5.0, cache2d.get(1, 3));
+        assertEquals(0, calls[0]);
+    }
+
+    @Test public void test3d() {
+        HashCacheDoubles3d.Source source = (x, y, z) -> x * 31.0 + y * 0.5 - z;
+        HashCacheDoubles3d cache = HashCacheDoubles3d.create(50, (x, y, z) -> x + z * 5 + y * 25, source);
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int x = rand.nextInt();
+            int y = rand.nextInt(20);
+            int z = rand.nextInt(20);
+            // keys that differ only in the upper bits of z must not be mixed up with x
+            assertEqualsExact(source.get(x, y, z), cache.get(x, y, z));
+            assertEqualsExact(source.get(x, y, z | 1 << 31), cache.get(x, y, z | 1 << 31));
+        }
+    }
+
+    @Test public void test2d() {
+        HashCacheDoubles2d.Source source = (x, z) -> x * 31.0 - z;
+        HashCacheDoubles2d cache = HashCacheDoubles2d.create(50, (x, z) -> x + z * 5, source);
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int x = rand.nextInt(20);
+            int z = rand.nextInt(20) - 10;
+            assertEqualsExact(source.get(x, z), cache.get(x, z));
+            assertEqualsExact(source.get(x - 1, z), cache.get(x - 1, z));
+        }
+    }
+
+    @Test public void test2dObjects() {
+        HashCache2d<String> cache = HashCache2d.create(50, (x, z) -> x + z * 5, (x, z) -> x + "," + z);
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int x = rand.nextInt();
+            int z = rand.nextInt(20) - 10;
+            assertEquals(x + "," + z, cache.get(x, z));
+            // negative z must not overwrite the upper bits of the key
+            assertEquals(x + "," + (z | 1 << 31), cache.get(x, z | 1 << 31));
+        }
+    }
+
+    @Test public void test2dObjectsAreCached() {
+        int[] calls = {0};
+        HashCache2d<Object> cache = HashCache2d.create(16, (x, z) -> x + z * 4, (x, z) -> {
+            calls[0]++;
+            return new Object();
+        });
+        Object value = cache.get(0, 0);
+        assertSame(value, cache.get(0, 0));
+        assertEquals(1, calls[0]);
+
+        // same hash slot, different key
+        cache.get(4, -1);
+        assertEquals(2, calls[0]);
+        Object recomputed = cache.get(0, 0);
+        assertEquals(3, calls[0]);
+        assertSame(recomputed, cache.get(0, 0));
+    }
+
+    private void assertEqualsExact(double expected, double value) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(value));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.visibility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that the changes found by the cube selectors are the same as the difference between the cubes visible before
+ * and after a move, computed by brute force.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubeSelectorDiff {
+
+    @Test
+    public void testCuboidalRandomMoves() {
+        checkRandomMoves(new CuboidalCubeSelector());
+    }
+
+    @Test
+    public void testEllipsoidalRandomMoves() {
+        checkRandomMoves(new EllipsoidalCubeSelector());
+    }
+
+    @Test
+    public void testCuboidalEdgeCrossings() {
+        checkEdgeCrossings(new CuboidalCubeSelector());
+    }
+
+    @Test
+    public void testEllipsoidalEdgeCrossings() {
+        checkEdgeCrossings(new EllipsoidalCubeSelector());
+    }
+
+    private static void checkRandomMoves(CubeSelector selector) {
+        Random rand = new Random(42);
+        CubePos pos = new CubePos(0, 0, 0);
+        for (int i = 0; i < 300; i++) {
+            int h = 3 + rand.nextInt(6);
+            int v = 3 + rand.nextInt(6);
+            // mostly small moves, sometimes a jump that leaves no overlap
+            int range = rand.nextInt(10) == 0 ? 40 : 3;
+            CubePos next = new CubePos(
+                    pos.getX() + rand.nextInt(range * 2 + 1) - range,
+                    pos.getY() + rand.nextInt(range * 2 + 1) - range,
+                    pos.getZ() + rand.nextInt(range * 2 + 1) - range);
+            checkMove(selector, pos, next, h, v);
+            pos = next;
+        }
+    }
+
+    private static void checkEdgeCrossings(CubeSelector selector) {
+        // across 0, where the sign of coordinates changes, and close to the largest coordinates a world can have
+        int[][] starts = {{0, 0, 0}, {-1, -1, -1}, {1_874_999, 0, -1_874_999}, {-1_874_999, 500_000, 1_874_999}};
+        for (int[] start : starts) {
+            CubePos from = new CubePos(start[0], start[1], start[2]);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dz = -1; dz <= 1; dz++) {
+                        CubePos to = new CubePos(from.getX() + dx, from.getY() + dy, from.getZ() + dz);
+                        checkMove(selector, from, to, 4, 3);
+                        checkMove(selector, to, from, 4, 3);
+                    }
+                }
+            }
+            // exactly one view distance away, so that the views only touch
+            checkMove(selector, from, new CubePos(from.getX() + 9, from.getY(), from.getZ()), 4, 3);
+            checkMove(selector, from, new CubePos(from.getX(), from.getY() + 7, from.getZ() - 8), 4, 3);
+        }
+    }
+
+    private static void checkMove(CubeSelector selector, CubePos from, CubePos to, int h, int v) {
+        Set<CubePos> oldCubes = visibleFrom(selector, from, h, v);
+        Set<CubePos> newCubes = visibleFrom(selector, to, h, v);
+        Set<ChunkPos> oldColumns = columnsOf(oldCubes);
+        Set<ChunkPos> newColumns = columnsOf(newCubes);
+
+        List<Object> events = new ArrayList<>();
+        List<CubePos> cubesToRemove = new ArrayList<>();
+        List<CubePos> cubesToLoad = new ArrayList<>();
+        List<ChunkPos> columnsToRemove = new ArrayList<>();
+        List<ChunkPos> columnsToLoad = new ArrayList<>();
+        selector.findChanged(from, to, h, v,
+                cubes(cubesToRemove, events), cubes(cubesToLoad, events),
+                columns(columnsToRemove, events), columns(columnsToLoad, events));
+
+        String move = from + " -> " + to + ", h=" + h + ", v=" + v;
+        assertEquals(move, difference(newCubes, oldCubes), asSet(cubesToLoad, move));
+        assertEquals(move, difference(oldCubes, newCubes), asSet(cubesToRemove, move));
+        assertEquals(move, difference(newColumns, oldColumns), asSet(columnsToLoad, move));
+        assertEquals(move, difference(oldColumns, newColumns), asSet(columnsToRemove, move));
+
+        // columns to load first, then cubes to load, cubes to remove and columns to remove
+        List<Object> expectedOrder = new ArrayList<>();
+        expectedOrder.addAll(columnsToLoad);
+        expectedOrder.addAll(cubesToLoad);
+        expectedOrder.addAll(cubesToRemove);
+        expectedOrder.addAll(columnsToRemove);
+        assertEquals(move, expectedOrder, events);
+    }
+
+    private static Set<CubePos> visibleFrom(CubeSelector selector, CubePos pos, int h, int v) {
+        Set<CubePos> cubes = new HashSet<>();
+        selector.forAllVisibleFrom(pos, h, v, cubes::add);
+        return cubes;
+    }
+
+    private static Set<ChunkPos> columnsOf(Set<CubePos> cubes) {
+        Set<ChunkPos> columns = new HashSet<>();
+        for (CubePos cube : cubes) {
+            columns.add(cube.chunkPos());
+        }
+        return columns;
+    }
+
+    private static LongConsumer cubes(List<CubePos> out, List<Object> events) {
+        return packed -> {
+            CubePos pos = CubePos.fromLong(packed);
+            out.add(pos);
+            events.add(pos);
+        };
+    }
+
+    private static LongConsumer columns(List<ChunkPos> out, List<Object> events) {
+        return packed -> {
+            ChunkPos pos = new ChunkPos(CubeSelector.columnX(packed), CubeSelector.columnZ(packed));
+            out.add(pos);
+            events.add(pos);
+        };
+    }
+
+    private static <T> Set<T> difference(Set<T> a, Set<T> b) {
+        Set<T> result = new HashSet<>(a);
+        result.removeAll(b);
+        return result;
+    }
+
+    // each change must be reported once
+    private static <T> Set<T> asSet(List<T> list, String move) {
+        Set<T> set = new HashSet<>(list);
+        assertTrue(move, set.size() == list.size());
+        return set;
+    }
+}
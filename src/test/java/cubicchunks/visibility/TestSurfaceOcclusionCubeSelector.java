@@ -0,0 +1,117 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.visibility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import cubicchunks.util.Coords;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubeProvider;
+import cubicchunks.world.IHeightMap;
+import cubicchunks.world.column.IColumn;
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestSurfaceOcclusionCubeSelector {
+
+    private static final int H = 4;
+    private static final int V = 8;
+
+    private IColumn column = mockColumn(0);
+    private final ICubeProvider provider = mock(ICubeProvider.class);
+    private final SurfaceOcclusionCubeSelector selector = new SurfaceOcclusionCubeSelector(provider);
+
+    @Before
+    public void setUp() {
+        when(provider.getLoadedColumn(anyInt(), anyInt())).thenAnswer(invocation -> column);
+    }
+
+    @Test
+    public void testHidesCubesBelowSurface() {
+        Set<CubePos> visible = visibleFrom(new CubePos(0, 2, 0));
+        assertTrue(visible.contains(new CubePos(0, -2, 0)));
+        assertTrue(visible.stream().noneMatch(pos -> pos.getY() < -2));
+    }
+
+    @Test
+    public void testHeightChangeKeepsViewsConsistent() {
+        CubePos oldPos = new CubePos(0, 2, 0);
+        CubePos newPos = new CubePos(1, 2, 0);
+        Set<CubePos> watched = visibleFrom(oldPos);
+
+        // the surface goes down while the column stays loaded
+        setSurface(-3);
+        selector.findChanged(oldPos, newPos, H, V,
+                pos -> watched.remove(CubePos.fromLong(pos)),
+                pos -> watched.add(CubePos.fromLong(pos)),
+                pos -> {
+                }, pos -> {
+                });
+
+        assertTrue(watched.containsAll(visibleFrom(newPos)));
+    }
+
+    @Test
+    public void testReloadedColumnUsesNewSurface() {
+        Set<CubePos> before = visibleFrom(new CubePos(0, 2, 0));
+        assertFalse(before.contains(new CubePos(0, -5, 0)));
+        setSurface(-3);
+        assertEquals(before, visibleFrom(new CubePos(0, 2, 0)));
+
+        column = mockColumn(-3);
+        assertTrue(visibleFrom(new CubePos(0, 2, 0)).contains(new CubePos(0, -5, 0)));
+    }
+
+    private Set<CubePos> visibleFrom(CubePos pos) {
+        Set<CubePos> visible = new HashSet<>();
+        selector.forAllVisibleFrom(pos, H, V, visible::add);
+        return visible;
+    }
+
+    private void setSurface(int surfaceCubeY) {
+        IHeightMap heightMap = column.getOpacityIndex();
+        when(heightMap.getLowestTopBlockY()).thenReturn(Coords.cubeToMinBlock(surfaceCubeY));
+    }
+
+    private static IColumn mockColumn(int surfaceCubeY) {
+        IColumn column = mock(IColumn.class);
+        IHeightMap heightMap = mock(IHeightMap.class);
+        when(column.getOpacityIndex()).thenReturn(heightMap);
+        when(heightMap.getLowestTopBlockY()).thenReturn(Coords.cubeToMinBlock(surfaceCubeY));
+        return column;
+    }
+}
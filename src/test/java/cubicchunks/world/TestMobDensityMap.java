@@ -0,0 +1,114 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.EnumCreatureType;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestMobDensityMap {
+
+    private static final EnumCreatureType TYPE = EnumCreatureType.MONSTER;
+    private static final int CAP = TYPE.getMaxNumberOfCreature();
+
+    @Test
+    public void testCubeShareLimitsNewPacksOnly() {
+        MobDensityMap map = new MobDensityMap(8);
+        map.addPlayer(0, 0, 0);
+        map.addMobs(TYPE, 1, 1, 1, CAP / 8);
+
+        assertFalse(map.canSpawnIn(TYPE, 1, 1, 1));
+        assertTrue(map.canAddToPack(TYPE, 1, 1, 1));
+        assertTrue(map.canSpawnIn(TYPE, 2, 1, 1));
+    }
+
+    @Test
+    public void testPackCanFillPlayerArea() {
+        MobDensityMap map = new MobDensityMap(8);
+        map.addPlayer(0, 0, 0);
+        for (int i = 0; i < CAP - 1; i++) {
+            map.onSpawned(TYPE, 1, 1, 1);
+            assertTrue(map.canAddToPack(TYPE, 1, 1, 1));
+        }
+        map.onSpawned(TYPE, 1, 1, 1);
+        assertFalse(map.canAddToPack(TYPE, 1, 1, 1));
+        assertFalse(map.canAddToPack(TYPE, -8, 8, -8));
+        assertFalse(map.hasSpaceFor(TYPE));
+    }
+
+    @Test
+    public void testFullAreaDoesNotBlockCubesOutsideIt() {
+        MobDensityMap map = new MobDensityMap(8);
+        map.addPlayer(0, 0, 0);
+        map.addMobs(TYPE, 0, 0, 0, CAP);
+
+        assertFalse(map.canSpawnIn(TYPE, 8, 0, 0));
+        assertTrue(map.canSpawnIn(TYPE, 9, 0, 0));
+        assertTrue(map.canSpawnIn(TYPE, 0, -9, 0));
+    }
+
+    @Test
+    public void testMobsCountInAllAreasContainingThem() {
+        MobDensityMap map = new MobDensityMap(8);
+        map.addPlayer(0, 0, 0);
+        map.addPlayer(16, 0, 0);
+        map.addMobs(TYPE, 8, 0, 0, CAP);
+
+        // both areas are full
+        assertFalse(map.hasSpaceFor(TYPE));
+        assertFalse(map.canAddToPack(TYPE, -8, 0, 0));
+        assertFalse(map.canAddToPack(TYPE, 24, 0, 0));
+    }
+
+    @Test
+    public void testOtherAreaStillHasSpace() {
+        MobDensityMap map = new MobDensityMap(8);
+        map.addPlayer(0, 0, 0);
+        map.addPlayer(100, 0, 0);
+        map.addMobs(TYPE, 0, 0, 0, CAP);
+
+        assertTrue(map.hasSpaceFor(TYPE));
+        assertFalse(map.canAddToPack(TYPE, 0, 0, 0));
+        assertTrue(map.canAddToPack(TYPE, 100, 0, 0));
+    }
+
+    @Test
+    public void testTotalCountIncludesMobsFarFromPlayers() {
+        MobDensityMap map = new MobDensityMap(8);
+        map.addPlayer(0, 0, 0);
+        map.addMobs(TYPE, 0, 0, 0, 2);
+        map.addMobs(TYPE, 1000, 0, 0, 3);
+        map.onSpawned(TYPE, 1, 0, 0);
+
+        assertEquals(6, map.getTotalCount(TYPE));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world;
+
+import static org.junit.Assert.assertEquals;
+
+import mcp.MethodsReturnNonnullByDefault;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestPlayerGrid {
+
+    @Test
+    public void testCellBitsFor() {
+        assertEquals(1, PlayerGrid.cellBitsFor(1));
+        assertEquals(4, PlayerGrid.cellBitsFor(8));
+        assertEquals(4, PlayerGrid.cellBitsFor(15));
+        assertEquals(5, PlayerGrid.cellBitsFor(16));
+    }
+
+    @Test
+    public void testForEachNearFindsAllInRange() {
+        Random rand = new Random(42);
+        int range = 8;
+        PlayerGrid<int[]> grid = new PlayerGrid<>(PlayerGrid.cellBitsFor(range));
+        Set<int[]> all = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            int[] pos = {rand.nextInt(200) - 100, rand.nextInt(200) - 100, rand.nextInt(200) - 100};
+            grid.add(pos[0], pos[1], pos[2], pos);
+            all.add(pos);
+        }
+        for (int i = 0; i < 500; i++) {
+            int x = rand.nextInt(200) - 100, y = rand.nextInt(200) - 100, z = rand.nextInt(200) - 100;
+            Set<int[]> found = new HashSet<>();
+            grid.forEachNear(x, y, z, range, pos -> {
+                if (Math.abs(pos[0] - x) <= range && Math.abs(pos[1] - y) <= range && Math.abs(pos[2] - z) <= range) {
+                    found.add(pos);
+                }
+            });
+            Set<int[]> expected = new HashSet<>();
+            for (int[] pos : all) {
+                if (Math.abs(pos[0] - x) <= range && Math.abs(pos[1] - y) <= range && Math.abs(pos[2] - z) <= range) {
+                    expected.add(pos);
+                }
+            }
+            assertEquals(expected, found);
+        }
+    }
+}
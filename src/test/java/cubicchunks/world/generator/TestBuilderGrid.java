@@ -0,0 +1,235 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.generator;
+
+import static cubicchunks.worldgen.generator.custom.builder.IBuilder.NEGATIVE;
+import static cubicchunks.worldgen.generator.custom.builder.IBuilder.POSITIVE;
+import static org.junit.Assert.assertEquals;
+
+import cubicchunks.util.MathUtil;
+import cubicchunks.worldgen.generator.custom.builder.IBuilder;
+import gnu.trove.function.TDoubleFunction;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.MathHelper;
+import org.junit.Test;
+
+import java.util.function.DoublePredicate;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestBuilderGrid {
+
+    private static final IBuilder NOISE_1 = (x, y, z) -> Math.sin(x * 0.13 + y * 0.07) * Math.cos(z * 0.11) * 3;
+    private static final IBuilder NOISE_2 = (x, y, z) -> Math.sin(x * 0.05 - z * 0.09 + y * 0.01);
+
+    @Test public void testConstantChain() {
+        IBuilder builder = NOISE_1.mul(1.7).add(0.5).sub(0.1).div(3).clamp(-2, 1).clamp(-1.5, 3)
+                .mulIf(NEGATIVE, -0.3).divIf(POSITIVE, 8).subIf(NEGATIVE, 0.25).applyIf(POSITIVE, v -> v * v);
+        assertGridMatches(builder);
+    }
+
+    @Test public void testCombined() {
+        IBuilder height = NOISE_2.mul(10).add(64);
+        IBuilder builder = NOISE_1.clamp(0, 1).lerp(NOISE_1, NOISE_2)
+                .add(NOISE_2.cached2d(16 * 16, (x, z) -> x + z * 5))
+                .mul((x, y, z) -> height.get(x, y, z) > y ? 0.3 : 1)
+                .add(height).sub((x, y, z) -> y)
+                .addIf(POSITIVE, NOISE_1).divIf(NEGATIVE, NOISE_2)
+                .cached(16 * 16 * 16, (x, y, z) -> x + z * 5 + y * 25);
+        assertGridMatches(builder);
+    }
+
+    @Test public void testMatchesLambdaBuilders() {
+        LambdaBuilder noise1 = NOISE_1::get;
+        LambdaBuilder noise2 = NOISE_2::get;
+        LambdaBuilder expectedHeight = noise2.mul(10).add(64);
+        LambdaBuilder expected = noise1.mul(0.8).add(0.5).clamp(0, 1).lerp(noise1.mul(1.7).add(0.3), noise2.mul(2.1).sub(0.2))
+                .add(noise2.mul(2.5).mulIf(NEGATIVE, -0.3).mul(3).sub(2).clamp(-2, 1).divIf(NEGATIVE, 5.6).divIf(POSITIVE, 8).cached2d())
+                .mul((x, y, z) -> expectedHeight.get(x, y, z) > y ? 0.3 : 1)
+                .add(expectedHeight).sub((x, y, z) -> y)
+                .addIf(POSITIVE, noise1).subIf(NEGATIVE, 0.25).applyIf(POSITIVE, v -> v * v).div(3);
+
+        IBuilder height = NOISE_2.mul(10).add(64);
+        IBuilder actual = NOISE_1.mul(0.8).add(0.5).clamp(0, 1).lerp(NOISE_1.mul(1.7).add(0.3), NOISE_2.mul(2.1).sub(0.2))
+                .add(NOISE_2.mul(2.5).mulIf(NEGATIVE, -0.3).mul(3).sub(2).clamp(-2, 1).divIf(NEGATIVE, 5.6).divIf(POSITIVE, 8)
+                        .cached2d(16 * 16, (x, z) -> x + z * 5))
+                .mul((x, y, z) -> height.get(x, y, z) > y ? 0.3 : 1)
+                .add(height).sub((x, y, z) -> y)
+                .addIf(POSITIVE, NOISE_1).subIf(NEGATIVE, 0.25).applyIf(POSITIVE, v -> v * v).div(3)
+                .cached(16 * 16 * 16, (x, y, z) -> x + z * 5 + y * 25);
+
+        for (int x = -40; x < 40; x += 3) {
+            for (int y = -40; y < 40; y += 5) {
+                for (int z = -40; z < 40; z += 3) {
+                    assertEquals(Double.doubleToLongBits(expected.get(x, y, z)), Double.doubleToLongBits(actual.get(x, y, z)));
+                }
+            }
+        }
+        assertGridMatches(actual);
+    }
+
+    @Test public void testConditionalOnlyComputesMatching() {
+        int[] calls = {0};
+        IBuilder first = (x, y, z) -> x == 4 ? 1 : -1;
+        IBuilder second = (x, y, z) -> {
+            calls[0]++;
+            return 2;
+        };
+        double[] grid = new double[5 * 3 * 5];
+        first.addIf(POSITIVE, second).getGrid(grid, 0, 0, 0, 5, 3, 5, 4, 8, 4);
+        assertEquals(3 * 5, calls[0]);
+        for (int i = 0; i < grid.length; i++) {
+            assertEquals(i / (3 * 5) == 1 ? 3 : -1, grid[i], 0);
+        }
+    }
+
+    @Test public void testCachedGrid() {
+        int[] calls = {0};
+        IBuilder source = (x, y, z) -> {
+            calls[0]++;
+            return NOISE_1.get(x, y, z);
+        };
+        IBuilder cached = source.cached(16 * 16 * 16, (x, y, z) -> x + z * 5 + y * 25);
+        double[] grid = new double[5 * 3 * 5];
+        cached.getGrid(grid, 0, 0, 0, 5, 3, 5, 4, 8, 4);
+        assertEquals(grid.length, calls[0]);
+
+        double[] again = new double[grid.length];
+        cached.getGrid(again, 0, 0, 0, 5, 3, 5, 4, 8, 4);
+        assertEquals(grid.length, calls[0]);
+        for (int i = 0; i < grid.length; i++) {
+            assertEquals(Double.doubleToLongBits(grid[i]), Double.doubleToLongBits(again[i]));
+        }
+        cached.get(16, 16, 16);
+        assertEquals(grid.length, calls[0]);
+    }
+
+    private void assertGridMatches(IBuilder builder) {
+        double[] grid = new double[5 * 3 * 5];
+        for (int cubeX = -2; cubeX < 2; cubeX++) {
+            for (int cubeY = -2; cubeY < 2; cubeY++) {
+                for (int cubeZ = -2; cubeZ < 2; cubeZ++) {
+                    builder.getGrid(grid, cubeX * 16, cubeY * 16, cubeZ * 16, 5, 3, 5, 4, 8, 4);
+                    int i = 0;
+                    for (int x = 0; x < 5; x++) {
+                        for (int y = 0; y < 3; y++) {
+                            for (int z = 0; z < 5; z++) {
+                                double expected = builder.get(cubeX * 16 + x * 4, cubeY * 16 + y * 8, cubeZ * 16 + z * 4);
+                                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(grid[i++]));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The builders as they were implemented before grid evaluation, composed of lambdas, to check that the results
+     * didn't change. Caching doesn't change the results, so it's left out.
+     */
+    @FunctionalInterface
+    private interface LambdaBuilder {
+
+        double get(int x, int y, int z);
+
+        default LambdaBuilder add(LambdaBuilder builder) {
+            return (x, y, z) -> this.get(x, y, z) + builder.get(x, y, z);
+        }
+
+        default LambdaBuilder add(double c) {
+            return apply(x -> x + c);
+        }
+
+        default LambdaBuilder sub(LambdaBuilder builder) {
+            return (x, y, z) -> this.get(x, y, z) - builder.get(x, y, z);
+        }
+
+        default LambdaBuilder sub(double c) {
+            return apply(x -> x - c);
+        }
+
+        default LambdaBuilder mul(LambdaBuilder builder) {
+            return (x, y, z) -> this.get(x, y, z) * builder.get(x, y, z);
+        }
+
+        default LambdaBuilder mul(double c) {
+            return apply(x -> x * c);
+        }
+
+        default LambdaBuilder div(double c) {
+            return apply(x -> x / c);
+        }
+
+        default LambdaBuilder clamp(double min, double max) {
+            return apply(x -> MathHelper.clamp(x, min, max));
+        }
+
+        default LambdaBuilder apply(TDoubleFunction func) {
+            return (x, y, z) -> func.execute(this.get(x, y, z));
+        }
+
+        default LambdaBuilder addIf(DoublePredicate predicate, LambdaBuilder builder) {
+            return (x, y, z) -> {
+                double value = this.get(x, y, z);
+                if (predicate.test(value)) {
+                    value += builder.get(x, y, z);
+                }
+                return value;
+            };
+        }
+
+        default LambdaBuilder subIf(DoublePredicate predicate, double c) {
+            return applyIf(predicate, x -> x - c);
+        }
+
+        default LambdaBuilder mulIf(DoublePredicate predicate, double c) {
+            return applyIf(predicate, x -> x * c);
+        }
+
+        default LambdaBuilder divIf(DoublePredicate predicate, double c) {
+            return applyIf(predicate, x -> x / c);
+        }
+
+        default LambdaBuilder applyIf(DoublePredicate predicate, TDoubleFunction func) {
+            return (x, y, z) -> {
+                double value = this.get(x, y, z);
+                if (predicate.test(value)) {
+                    value = func.execute(value);
+                }
+                return value;
+            };
+        }
+
+        default LambdaBuilder lerp(LambdaBuilder low, LambdaBuilder high) {
+            return (x, y, z) -> MathUtil.lerp(this.get(x, y, z), low.get(x, y, z), high.get(x, y, z));
+        }
+
+        default LambdaBuilder cached2d() {
+            return (x, y, z) -> this.get(x, 0, z);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.worldgen.generator.CubePrimer;
+import cubicchunks.worldgen.generator.ICubePrimer;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class TestCubePrimer {
+
+    private IBlockState stone;
+    private IBlockState dirt;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+        stone = Blocks.STONE.getDefaultState();
+        dirt = Blocks.DIRT.getDefaultState();
+    }
+
+    @Test
+    public void testNewPrimerIsAir() {
+        CubePrimer primer = new CubePrimer();
+        assertEquals(ICubePrimer.DEFAULT_STATE, primer.getUniformState());
+        assertEquals(ICubePrimer.DEFAULT_STATE, primer.getBlockState(3, 4, 5));
+
+        primer.setBlockState(3, 4, 5, ICubePrimer.DEFAULT_STATE);
+        assertEquals(ICubePrimer.DEFAULT_STATE, primer.getUniformState());
+    }
+
+    @Test
+    public void testSettingAllBlocksIsUniform() {
+        CubePrimer primer = new CubePrimer();
+        forEach((x, y, z) -> primer.setBlockState(x, y, z, stone));
+        assertEquals(stone, primer.getUniformState());
+        forEach((x, y, z) -> assertEquals(stone, primer.getBlockState(x, y, z)));
+    }
+
+    @Test
+    public void testPartiallySetIsNotUniform() {
+        CubePrimer primer = new CubePrimer();
+        primer.setBlockState(1, 2, 3, stone);
+        assertNull(primer.getUniformState());
+        assertEquals(stone, primer.getBlockState(1, 2, 3));
+        assertEquals(ICubePrimer.DEFAULT_STATE, primer.getBlockState(3, 2, 1));
+    }
+
+    @Test
+    public void testDifferentBlockKeepsPreviousBlocks() {
+        CubePrimer primer = new CubePrimer();
+        primer.fill(stone);
+        assertEquals(stone, primer.getUniformState());
+
+        primer.setBlockState(0, 15, 0, dirt);
+        primer.setBlockState(15, 0, 15, ICubePrimer.DEFAULT_STATE);
+        assertNull(primer.getUniformState());
+        forEach((x, y, z) -> {
+            IBlockState expected = x == 0 && y == 15 && z == 0 ? dirt
+                    : x == 15 && y == 0 && z == 15 ? ICubePrimer.DEFAULT_STATE : stone;
+            assertEquals(expected, primer.getBlockState(x, y, z));
+        });
+    }
+
+    private static void forEach(BlockConsumer consumer) {
+        for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    consumer.accept(x, y, z);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BlockConsumer {
+
+        void accept(int x, int y, int z);
+    }
+}